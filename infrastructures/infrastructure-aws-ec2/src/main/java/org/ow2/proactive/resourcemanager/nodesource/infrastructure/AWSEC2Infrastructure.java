@@ -28,10 +28,14 @@ package org.ow2.proactive.resourcemanager.nodesource.infrastructure;
 import java.security.KeyException;
 import java.util.*;
 import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.commons.configuration2.Configuration;
+import org.apache.commons.configuration2.ex.ConfigurationException;
 import org.apache.log4j.Logger;
 import org.codehaus.jackson.map.ObjectMapper;
 import org.objectweb.proactive.core.node.Node;
@@ -40,11 +44,10 @@ import org.ow2.proactive.resourcemanager.nodesource.common.Configurable;
 import org.ow2.proactive.resourcemanager.nodesource.infrastructure.model.NodeConfiguration;
 import org.ow2.proactive.resourcemanager.nodesource.infrastructure.model.VmCredentials;
 import org.ow2.proactive.resourcemanager.nodesource.infrastructure.util.InitScriptGenerator;
+import org.ow2.proactive.resourcemanager.nodesource.infrastructure.util.NSProperties;
 import org.ow2.proactive.resourcemanager.rmnode.RMDeployingNode;
 import org.ow2.proactive.resourcemanager.utils.RMNodeStarter;
 
-import com.google.common.collect.Maps;
-
 import lombok.Getter;
 
 
@@ -78,10 +81,24 @@ public class AWSEC2Infrastructure extends AbstractAddonInfrastructure {
 
     private static final Logger logger = Logger.getLogger(AWSEC2Infrastructure.class);
 
-    private transient InitScriptGenerator initScriptGenerator = new InitScriptGenerator();
+    private static final int DEFAULT_INSTANCES_CREATION_CHUNK_SIZE = 0;
+
+    private static final long DEFAULT_SPOT_REQUEST_TIMEOUT = 3 * 60 * 1000;// 3 min
+
+    private static final String ON_DEMAND_INSTANCES_TAG_SUFFIX = "-on-demand";
 
-    // Lock for acquireNodes (dynamic policy)
-    private final transient Lock dynamicAcquireLock = new ReentrantLock();
+    private static Configuration nsConfig;
+
+    static {
+        try {
+            nsConfig = NSProperties.loadConfig();
+        } catch (ConfigurationException e) {
+            logger.error("Exception when loading NodeSource properties", e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    private transient InitScriptGenerator initScriptGenerator = new InitScriptGenerator();
 
     private boolean isCreatedInfrastructure = false;
 
@@ -153,7 +170,7 @@ public class AWSEC2Infrastructure extends AbstractAddonInfrastructure {
     @Configurable(description = "The ids(s) of the security group(s) for VMs, spearated by comma in case of multiple ids. (optional)", sectionSelector = 3)
     protected String securityGroupIds = null;
 
-    @Configurable(description = "The subnet ID which is added to a specific Amazon VPC. (optional)", sectionSelector = 3)
+    @Configurable(description = "The subnet ID which is added to a specific Amazon VPC, or a comma-separated list of subnet IDs over which the chunks of instances are spread. (optional)", sectionSelector = 3)
     protected String subnetId = null;
 
     @Configurable(description = "Resource Manager hostname or ip address (must be accessible from nodes)", sectionSelector = 4)
@@ -175,7 +192,7 @@ public class AWSEC2Infrastructure extends AbstractAddonInfrastructure {
     @Configurable(textArea = true, description = "VM startup script to launch the ProActive nodes (optional). Please refer to the documentation for full description.", sectionSelector = 5)
     protected String startupScript = initScriptGenerator.getDefaultLinuxStartupScript();
 
-    @Configurable(description = "(optional) The maximum price that you are willing to pay per hour per instance (your bid price), when the spot price is too low to be satisfied within the node-running timeout, the node source deployment will be failed and the related spot requests will be cancelled. The current Spot Instance prices can be found in https://aws.amazon.com/ec2/spot/pricing/", sectionSelector = 3)
+    @Configurable(description = "(optional) The maximum price that you are willing to pay per hour per instance (your bid price). When it is specified, spot instances are requested first, and on-demand instances are created for the spot instances that are not obtained within the spot request timeout of the node sources. The current Spot Instance prices can be found in https://aws.amazon.com/ec2/spot/pricing/", sectionSelector = 3)
     protected String spotPrice = "";
 
     /**
@@ -183,6 +200,13 @@ public class AWSEC2Infrastructure extends AbstractAddonInfrastructure {
      */
     private static final String KEY_PAIR_KEY = "keyPair";
 
+    /**
+     * Key to retrieve whether the persisted key pair was generated in AWS
+     * for the infrastructure, in which case it can be reused by the next
+     * deployments and is deleted when the infrastructure is shut down
+     */
+    private static final String KEY_PAIR_AUTO_GENERATED_KEY = "keyPairAutoGenerated";
+
     private Map<String, String> meta = new HashMap<>();
 
     {
@@ -213,8 +237,10 @@ public class AWSEC2Infrastructure extends AbstractAddonInfrastructure {
         this.vmPrivateKey = parseFileParameter("vmPrivateKey", parameters[Indexes.VM_PRIVATE_KEY.index]);
         this.ram = parseIntParameter("ram", parameters[Indexes.RAM.index], DEFAULT_RAM);
         this.cores = parseIntParameter("cores", parameters[Indexes.CORES.index], DEFAULT_CORES);
-        //        TODO disable to configure the parameter spotPrice for the moment
-        this.spotPrice = parameters[Indexes.SPOT_PRICE.index].toString().trim();
+        this.spotPrice = parseOptionalParameter(parameters[Indexes.SPOT_PRICE.index], "");
+        if (!spotPrice.isEmpty()) {
+            parseDoubleParameter("spotPrice", spotPrice);
+        }
         this.securityGroupIds = parseOptionalParameter(parameters[Indexes.SECURITY_GROUP_IDS.index]);
         this.subnetId = parseOptionalParameter(parameters[Indexes.SUBNET_ID.index]);
         this.rmHostname = parseHostnameParameter("rmHostname", parameters[Indexes.RM_HOSTNAME.index]);
@@ -247,34 +273,28 @@ public class AWSEC2Infrastructure extends AbstractAddonInfrastructure {
     @Override
     public synchronized void acquireNodes(final int numberOfNodes, final long startTimeout,
             final Map<String, ?> nodeConfiguration) {
-        nodeSource.executeInParallel(() -> {
-            try {
-                if (dynamicAcquireLock.tryLock(startTimeout, TimeUnit.MILLISECONDS)) {
-                    logger.info(String.format("Acquiring %d nodes with the configuration: %s.",
-                                              numberOfNodes,
-                                              nodeConfiguration));
-                    try {
-                        AWSEC2CustomizableParameter deployParams = getNodeSpecificParameters(nodeConfiguration);
-                        int nbInstancesToDeploy = calNumberOfInstancesToDeploy(numberOfNodes,
-                                                                               nodeConfiguration,
-                                                                               numberOfInstances,
-                                                                               numberOfNodesPerInstance);
-                        if (nbInstancesToDeploy <= 0) {
-                            logger.info("No need to deploy new instances, acquireNodes skipped.");
-                            return;
-                        }
-                        deployInstancesWithNodes(nbInstancesToDeploy, false, deployParams);
-                    } catch (Exception e) {
-                        logger.error("Error during node acquisition", e);
-                    } finally {
-                        dynamicAcquireLock.unlock();
-                    }
-                } else {
-                    logger.info("Infrastructure is busy, acquireNodes skipped.");
-                }
-            } catch (InterruptedException e) {
-                logger.info("acquireNodes skipped because of InterruptedException:", e);
+        // the requests merged into a running deployment round are part of the demand as well
+        recordAcquisitionRequest(numberOfNodes);
+        acquireNodesByRounds(numberOfNodes, nodeConfiguration, (nbNodesOfRound, roundConfiguration) -> {
+            logger.info(String.format("Acquiring %d nodes with the configuration: %s.",
+                                      nbNodesOfRound,
+                                      roundConfiguration));
+            AWSEC2CustomizableParameter deployParams = getNodeSpecificParameters(roundConfiguration);
+            int nbInstancesToDeploy = calNumberOfInstancesToDeploy(nbNodesOfRound,
+                                                                   roundConfiguration,
+                                                                   numberOfInstances,
+                                                                   numberOfNodesPerInstance);
+            if (nbInstancesToDeploy <= 0) {
+                logger.info("No need to deploy new instances, acquireNodes skipped.");
+                return;
+            }
+            if (isDeployableOnWarmPoolInstances(roundConfiguration)) {
+                nbInstancesToDeploy -= deployNodesOnWarmPoolInstances(nbInstancesToDeploy, deployParams);
             }
+            if (nbInstancesToDeploy > 0) {
+                deployInstancesWithNodes(nbInstancesToDeploy, false, deployParams);
+            }
+            refillWarmPool(roundConfiguration, numberOfNodesPerInstance);
         });
     }
 
@@ -301,8 +321,26 @@ public class AWSEC2Infrastructure extends AbstractAddonInfrastructure {
             // by default, the key pair that is used to deploy the instances has
             // the name of the node source
             String keyPairName = createOrUseKeyPair(infrastructureId, nbInstancesToDeploy, params);
+            int chunkSize = getInstancesCreationChunkSize();
+            if (chunkSize > 0 && nbInstancesToDeploy > chunkSize) {
+                createInstancesAndDeployNodesByChunks(infrastructureId,
+                                                      keyPairName,
+                                                      nbInstancesToDeploy,
+                                                      chunkSize,
+                                                      params);
+                return;
+            }
+            // the instances reused after a recovery are found by the tag of the
+            // infrastructure, the other ones have their own tag so that they
+            // are not taken for instances already created, e.g. the warm pool
+            String instanceTag = reuseCreatedInstances ? infrastructureId : newInstanceTag(infrastructureId);
             try {
-                instancesIds = createInstances(infrastructureId, keyPairName, nbInstancesToDeploy, params);
+                instancesIds = createInstances(infrastructureId,
+                                               instanceTag,
+                                               getSubnetIds().get(0),
+                                               keyPairName,
+                                               nbInstancesToDeploy,
+                                               params);
             } catch (InstanceNotCreatedException e) {
                 logger.error("Failed to create the instance with the error: ", e);
                 return;
@@ -322,6 +360,11 @@ public class AWSEC2Infrastructure extends AbstractAddonInfrastructure {
         }
 
         // execute script on instances to deploy or redeploy nodes on them
+        deployNodesOnInstances(instancesIds, existPersistedInstanceIds, params);
+    }
+
+    private void deployNodesOnInstances(Set<String> instancesIds, boolean existPersistedInstanceIds,
+            AWSEC2CustomizableParameter params) {
         for (String currentInstanceId : instancesIds) {
             deployNodesOnInstance(currentInstanceId, existPersistedInstanceIds, params);
 
@@ -331,6 +374,163 @@ public class AWSEC2Infrastructure extends AbstractAddonInfrastructure {
         }
     }
 
+    /**
+     * Create the instances by chunks, several chunks at the same time, and
+     * start the nodes of each chunk as soon as it is created, while the other
+     * chunks are being created. The chunks are spread over the configured
+     * subnets, and a chunk that cannot be created in its subnet, typically
+     * for lack of capacity in its availability zone, is attempted in the
+     * other subnets. A chunk that fails everywhere does not prevent the other
+     * chunks from deploying their nodes. Each chunk has its own instance tag,
+     * so that the instances of the other chunks are not taken for its own.
+     */
+    private void createInstancesAndDeployNodesByChunks(String infrastructureId, String keyPairName,
+            int nbInstancesToDeploy, int chunkSize, AWSEC2CustomizableParameter params) {
+        List<String> subnetIds = getSubnetIds();
+        Map<String, Integer> nbInstancesPerChunkTag = new LinkedHashMap<>();
+        for (int nbRequested = 0; nbRequested < nbInstancesToDeploy; nbRequested += chunkSize) {
+            nbInstancesPerChunkTag.put(newInstanceTag(infrastructureId),
+                                       Math.min(chunkSize, nbInstancesToDeploy - nbRequested));
+        }
+        List<String> chunkTags = new ArrayList<>(nbInstancesPerChunkTag.keySet());
+        AtomicInteger nbCreatedInstances = new AtomicInteger(0);
+        ParallelInstanceExecutor.forEachInstance(infrastructureId + "-creation",
+                                                 chunkTags,
+                                                 ParallelInstanceExecutor.getConfiguredParallelism(NSProperties.AWS_INSTANCES_CREATION_PARALLELISM),
+                                                 chunkTag -> {
+                                                     Set<String> instancesIds = createChunkOfInstances(infrastructureId,
+                                                                                                       chunkTag,
+                                                                                                       keyPairName,
+                                                                                                       nbInstancesPerChunkTag.get(chunkTag),
+                                                                                                       subnetIds,
+                                                                                                       chunkTags.indexOf(chunkTag),
+                                                                                                       params);
+                                                     nbCreatedInstances.addAndGet(instancesIds.size());
+                                                     deployNodesOnInstances(instancesIds, false, params);
+                                                 });
+        if (nbCreatedInstances.get() < nbInstancesToDeploy) {
+            logger.warn(String.format("Only %d of the %d instances requested in infrastructure %s were created",
+                                      nbCreatedInstances.get(),
+                                      nbInstancesToDeploy,
+                                      infrastructureId));
+        }
+    }
+
+    /**
+     * Create a chunk of instances in its subnet, or in the next subnets if
+     * the creation fails.
+     * @return the identifiers of the created instances, empty if the chunk
+     * could not be created in any subnet
+     */
+    private Set<String> createChunkOfInstances(String infrastructureId, String chunkTag, String keyPairName,
+            int nbInstances, List<String> subnetIds, int chunkIndex, AWSEC2CustomizableParameter params) {
+        for (int attempt = 0; attempt < subnetIds.size(); attempt++) {
+            String chunkSubnetId = subnetIds.get((chunkIndex + attempt) % subnetIds.size());
+            try {
+                Set<String> instancesIds = createInstances(infrastructureId,
+                                                           chunkTag,
+                                                           chunkSubnetId,
+                                                           keyPairName,
+                                                           nbInstances,
+                                                           params);
+                logger.info("Instances of the chunk " + chunkTag + " created in subnet " + chunkSubnetId +
+                            ", deploying their nodes: " + instancesIds);
+                return instancesIds;
+            } catch (InstanceNotCreatedException e) {
+                logger.error("Failed to create the instances of the chunk " + chunkTag + " in subnet " +
+                             chunkSubnetId, e);
+            }
+        }
+        return Collections.emptySet();
+    }
+
+    /**
+     * @return the subnets configured for the instances, a list holding null
+     * when no subnet is configured
+     */
+    private List<String> getSubnetIds() {
+        List<String> subnetIds = new ArrayList<>();
+        if (subnetId != null) {
+            for (String configuredSubnetId : subnetId.split(",")) {
+                if (!configuredSubnetId.trim().isEmpty()) {
+                    subnetIds.add(configuredSubnetId.trim());
+                }
+            }
+        }
+        if (subnetIds.isEmpty()) {
+            subnetIds.add(null);
+        }
+        return subnetIds;
+    }
+
+    /**
+     * @return the maximum number of instances created by a single request
+     * to the connector-iaas, 0 to create all the instances at once
+     */
+    protected int getInstancesCreationChunkSize() {
+        return nsConfig.getInt(NSProperties.AWS_INSTANCES_CREATION_CHUNK_SIZE, DEFAULT_INSTANCES_CREATION_CHUNK_SIZE);
+    }
+
+    /**
+     * Deploy nodes on instances taken from the warm pool, which are already
+     * booted, by running the startup script on them.
+     * @return the number of instances taken from the warm pool
+     */
+    private int deployNodesOnWarmPoolInstances(int nbInstancesToDeploy, AWSEC2CustomizableParameter params) {
+        List<String> warmInstancesIds = takeWarmPoolInstances(nbInstancesToDeploy);
+        if (!warmInstancesIds.isEmpty()) {
+            logger.info("Deploying nodes on the instances of the warm pool: " + warmInstancesIds);
+            connectorIaasController.waitForConnectorIaasToBeUP();
+            for (String warmInstanceId : warmInstancesIds) {
+                deployNodesOnInstance(warmInstanceId, false, params);
+            }
+        }
+        return warmInstancesIds.size();
+    }
+
+    // the instances of the warm pool are created with the default parameters, the node configuration can only
+    // change what the startup script does on them
+    private boolean isDeployableOnWarmPoolInstances(Map<String, ?> nodeConfiguration) {
+        NodeConfiguration nodeConfig = new ObjectMapper().convertValue(nodeConfiguration, NodeConfiguration.class);
+        return nodeConfig.getImage() == null && nodeConfig.getNumberOfCores() == null &&
+               nodeConfig.getAmountOfMemory() == null && nodeConfig.getCredentials() == null &&
+               nodeConfig.getVmType() == null && nodeConfig.getSecurityGroups() == null &&
+               nodeConfig.getPortsToOpen() == null;
+    }
+
+    @Override
+    protected Set<String> createWarmPoolInstances(int nbInstances) {
+        connectorIaasController.waitForConnectorIaasToBeUP();
+        createAwsInfrastructureIfNeeded();
+        String infrastructureId = getInfrastructureId();
+        AWSEC2CustomizableParameter params = getDefaultNodeParameters();
+        // the nodes are deployed later with the persisted key pair, so it is kept when there is one
+        SimpleImmutableEntry<String, String> keyPairInfo = getPersistedKeyPairInfo();
+        String keyPairName = keyPairInfo != null ? keyPairInfo.getKey()
+                                                 : createOrUseKeyPair(infrastructureId, nbInstances, params);
+        try {
+            return createInstances(infrastructureId,
+                                   newInstanceTag(infrastructureId),
+                                   getSubnetIds().get(0),
+                                   keyPairName,
+                                   nbInstances,
+                                   params);
+        } catch (InstanceNotCreatedException e) {
+            throw new IllegalStateException("Instances of the warm pool cannot be created", e);
+        }
+    }
+
+    /**
+     * @return a tag that no other creation of instances uses, so that the
+     * instances created with it are not taken for the ones of another
+     * deployment or of the warm pool. The tag is random, as a counter would
+     * restart after a restart of the resource manager and give the tags of
+     * the instances created before.
+     */
+    private String newInstanceTag(String infrastructureId) {
+        return infrastructureId + "-" + UUID.randomUUID();
+    }
+
     private void createAwsInfrastructureIfNeeded() {
         // Create infrastructure if it does not exist
         if (!isCreatedInfrastructure) {
@@ -344,70 +544,190 @@ public class AWSEC2Infrastructure extends AbstractAddonInfrastructure {
         }
     }
 
-    private Set<String> createInstances(String infrastructureId, String keyPairName, int nbInstances,
-            AWSEC2CustomizableParameter params) throws InstanceNotCreatedException {
-        // create instances
-        return connectorIaasController.createAwsEc2InstancesWithOptions(infrastructureId,
-                                                                        infrastructureId,
-                                                                        params.getImage(),
-                                                                        nbInstances,
-                                                                        params.getCores(),
-                                                                        params.getRam(),
-                                                                        params.getVmType(),
-                                                                        spotPrice,
-                                                                        params.getSecurityGroupIds(),
-                                                                        subnetId,
-                                                                        null,
-                                                                        addDefaultPorts(params.getPortsToOpen()),
-                                                                        params.getVmUsername(),
-                                                                        keyPairName);
+    private Set<String> createInstances(String infrastructureId, String instanceTag, String instancesSubnetId,
+            String keyPairName, int nbInstances, AWSEC2CustomizableParameter params)
+            throws InstanceNotCreatedException {
+        if (spotPrice.isEmpty()) {
+            // create on-demand instances
+            return connectorIaasController.createAwsEc2InstancesWithOptions(infrastructureId,
+                                                                            instanceTag,
+                                                                            params.getImage(),
+                                                                            nbInstances,
+                                                                            params.getCores(),
+                                                                            params.getRam(),
+                                                                            params.getVmType(),
+                                                                            "",
+                                                                            params.getSecurityGroupIds(),
+                                                                            instancesSubnetId,
+                                                                            null,
+                                                                            addDefaultPorts(params.getPortsToOpen()),
+                                                                            params.getVmUsername(),
+                                                                            keyPairName);
+        }
+        return createSpotInstancesWithOnDemandFallback(infrastructureId,
+                                                       instanceTag,
+                                                       instancesSubnetId,
+                                                       keyPairName,
+                                                       nbInstances,
+                                                       params);
+    }
+
+    /**
+     * Request spot instances, and create on-demand instances for the spot
+     * instances that are not obtained within the spot request timeout. The
+     * on-demand instances have their own instance tag, so that the spot
+     * instances obtained are not taken for them. The spot instances obtained
+     * after the timeout are terminated, as on-demand instances replace them,
+     * and so are the ones obtained after an interruption of the wait.
+     * The spot instances reclaimed by AWS later on are handled like any lost
+     * instance: their nodes are down.
+     */
+    private Set<String> createSpotInstancesWithOnDemandFallback(String infrastructureId, String instanceTag,
+            String instancesSubnetId, String keyPairName, int nbInstances, AWSEC2CustomizableParameter params)
+            throws InstanceNotCreatedException {
+        CompletableFuture<Set<String>> spotRequest = connectorIaasController.createAwsEc2InstancesWithOptionsAsync(infrastructureId,
+                                                                                                                   instanceTag,
+                                                                                                                   params.getImage(),
+                                                                                                                   nbInstances,
+                                                                                                                   params.getCores(),
+                                                                                                                   params.getRam(),
+                                                                                                                   params.getVmType(),
+                                                                                                                   spotPrice,
+                                                                                                                   params.getSecurityGroupIds(),
+                                                                                                                   instancesSubnetId,
+                                                                                                                   null,
+                                                                                                                   addDefaultPorts(params.getPortsToOpen()),
+                                                                                                                   params.getVmUsername(),
+                                                                                                                   keyPairName);
+        Set<String> spotInstancesIds = Collections.emptySet();
+        long spotRequestTimeout = getSpotRequestTimeout();
+        try {
+            spotInstancesIds = spotRequest.get(spotRequestTimeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            logger.warn(String.format("Spot request of %d instances (%s) not fulfilled within %d ms, falling back to on-demand instances",
+                                      nbInstances,
+                                      instanceTag,
+                                      spotRequestTimeout));
+            spotRequest.thenAccept(lateSpotInstancesIds -> terminateLateSpotInstances(infrastructureId,
+                                                                                      lateSpotInstancesIds));
+        } catch (ExecutionException e) {
+            logger.warn("Spot request of " + nbInstances + " instances (" + instanceTag +
+                        ") failed, falling back to on-demand instances", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            // the spot request is still pending, its instances would be left without nodes
+            spotRequest.thenAccept(lateSpotInstancesIds -> terminateLateSpotInstances(infrastructureId,
+                                                                                      lateSpotInstancesIds));
+            throw new InstanceNotCreatedException("Interrupted while waiting for the spot instances " + instanceTag, e);
+        }
+
+        int nbMissingInstances = nbInstances - spotInstancesIds.size();
+        if (nbMissingInstances <= 0) {
+            return spotInstancesIds;
+        }
+        Set<String> instancesIds = new HashSet<>(spotInstancesIds);
+        String onDemandInstanceTag = instanceTag + ON_DEMAND_INSTANCES_TAG_SUFFIX;
+        try {
+            instancesIds.addAll(connectorIaasController.createAwsEc2InstancesWithOptions(infrastructureId,
+                                                                                         onDemandInstanceTag,
+                                                                                         params.getImage(),
+                                                                                         nbMissingInstances,
+                                                                                         params.getCores(),
+                                                                                         params.getRam(),
+                                                                                         params.getVmType(),
+                                                                                         "",
+                                                                                         params.getSecurityGroupIds(),
+                                                                                         instancesSubnetId,
+                                                                                         null,
+                                                                                         addDefaultPorts(params.getPortsToOpen()),
+                                                                                         params.getVmUsername(),
+                                                                                         keyPairName));
+        } catch (InstanceNotCreatedException e) {
+            if (spotInstancesIds.isEmpty()) {
+                throw e;
+            }
+            logger.error("Failed to create the on-demand instances replacing the missing spot instances of " +
+                         instanceTag + ", only the spot instances are used", e);
+        }
+        return instancesIds;
+    }
+
+    private void terminateLateSpotInstances(String infrastructureId, Set<String> lateSpotInstancesIds) {
+        logger.info("Terminating the spot instances obtained once the deployment stopped waiting for them: " +
+                    lateSpotInstancesIds);
+        for (String lateSpotInstanceId : lateSpotInstancesIds) {
+            queueInstanceTermination(infrastructureId,
+                                     lateSpotInstanceId,
+                                     () -> connectorIaasController.terminateInstance(infrastructureId,
+                                                                                     lateSpotInstanceId));
+        }
+    }
+
+    /**
+     * @return the time in milliseconds after which the missing spot instances
+     * are replaced by on-demand instances
+     */
+    protected long getSpotRequestTimeout() {
+        return nsConfig.getLong(NSProperties.AWS_SPOT_REQUEST_TIMEOUT, DEFAULT_SPOT_REQUEST_TIMEOUT);
     }
 
     private void deployNodesOnInstance(final String instanceId, final boolean existPersistedInstanceIds,
             AWSEC2CustomizableParameter params) {
-        nodeSource.executeInParallel(() -> {
-            //change the delimiter between the instanceId and region to make a valid nodeName
-            String baseNodeName = getBaseNodeNameFromInstanceId(instanceId);
+        //change the delimiter between the instanceId and region to make a valid nodeName
+        String baseNodeName = getBaseNodeNameFromInstanceId(instanceId);
 
-            try {
-                List<String> scripts = initScriptGenerator.buildLinuxScript(startupScript,
+        try {
+            List<String> scripts = initScriptGenerator.buildLinuxScript(startupScript,
+                                                                        instanceId,
+                                                                        getRmUrl(),
+                                                                        rmHostname,
+                                                                        nodeJarURL,
+                                                                        instanceIdNodeProperty,
+                                                                        params.getAdditionalProperties(),
+                                                                        nodeSource.getName(),
+                                                                        baseNodeName,
+                                                                        numberOfNodesPerInstance,
+                                                                        getCredentials());
+            logger.info("start up script: " + scripts);
+
+            // declare nodes as "deploying" state to the RM
+            List<String> nodeNames = RMNodeStarter.getWorkersNodeNames(baseNodeName, numberOfNodesPerInstance);
+            List<String> deployingNodes = addMultipleDeployingNodes(nodeNames,
+                                                                    scripts.toString(),
+                                                                    "Nodes deployment on AWS EC2",
+                                                                    nodeTimeout);
+            logger.info("Deploying nodes: " + deployingNodes);
+
+            // run node.jar on the instance with the specified VM credentials, without holding a thread while the
+            // script is running. The failure handling may redeploy instances, so it must leave the http client threads.
+            connectorIaasController.executeScriptWithKeyAuthenticationAsync(getInfrastructureId(),
                                                                             instanceId,
-                                                                            getRmUrl(),
-                                                                            rmHostname,
-                                                                            nodeJarURL,
-                                                                            instanceIdNodeProperty,
-                                                                            params.getAdditionalProperties(),
-                                                                            nodeSource.getName(),
-                                                                            baseNodeName,
-                                                                            numberOfNodesPerInstance,
-                                                                            getCredentials());
-                logger.info("start up script: " + scripts);
-
-                // declare nodes as "deploying" state to the RM
-                List<String> nodeNames = RMNodeStarter.getWorkersNodeNames(baseNodeName, numberOfNodesPerInstance);
-                List<String> deployingNodes = addMultipleDeployingNodes(nodeNames,
-                                                                        scripts.toString(),
-                                                                        "Nodes deployment on AWS EC2",
-                                                                        nodeTimeout);
-                logger.info("Deploying nodes: " + deployingNodes);
-                // run node.jar on the instance with the specified VM credentials
-
-                connectorIaasController.executeScriptWithKeyAuthentication(getInfrastructureId(),
-                                                                           instanceId,
-                                                                           scripts,
-                                                                           params.getVmUsername(),
-                                                                           getPersistedKeyPairInfo().getValue());
-            } catch (KeyException e) {
-                logger.error("A problem occurred while acquiring user credentials path. The node startup script will be not executed.");
-            } catch (ScriptNotExecutedException e) {
-                handleScriptNotExecutedException(existPersistedInstanceIds, instanceId, e);
-            }
-        });
+                                                                            scripts,
+                                                                            params.getVmUsername(),
+                                                                            getPersistedKeyPairInfo().getValue())
+                                   .exceptionally(throwable -> {
+                                       ScriptNotExecutedException exception = toScriptNotExecutedException(throwable);
+                                       nodeSource.executeInParallel(() -> handleScriptNotExecutedException(existPersistedInstanceIds,
+                                                                                                           instanceId,
+                                                                                                           exception));
+                                       return null;
+                                   });
+        } catch (KeyException e) {
+            logger.error("A problem occurred while acquiring user credentials path. The node startup script will be not executed.");
+        }
     }
 
-    private String createOrUseKeyPair(String infrastructureId, int nbInstances, AWSEC2CustomizableParameter params) {
+    private synchronized String createOrUseKeyPair(String infrastructureId, int nbInstances,
+            AWSEC2CustomizableParameter params) {
         SimpleImmutableEntry<String, String> keyPairInfo;
         if (params.getVmPrivateKey().isEmpty() || params.getVmKeyPairName().isEmpty()) {
+            // reuse the key pair generated by a previous deployment of the infrastructure
+            SimpleImmutableEntry<String, String> autoGeneratedKeyPair = getPersistedAutoGeneratedKeyPairInfo();
+            if (autoGeneratedKeyPair != null) {
+                logger.debug("Reusing the AWS key pair '" + autoGeneratedKeyPair.getKey() + "' previously generated");
+                isUsingAutoGeneratedKeyPair = true;
+                return autoGeneratedKeyPair.getKey();
+            }
             // create a key pair in AWS
             try {
                 logger.info("Creating an AWS key pair");
@@ -428,7 +748,7 @@ public class AWSEC2Infrastructure extends AbstractAddonInfrastructure {
             keyPairInfo = new SimpleImmutableEntry<>(params.getVmKeyPairName(), params.getVmPrivateKey());
             isUsingAutoGeneratedKeyPair = false;
         }
-        persistKeyPairInfo(keyPairInfo);
+        persistKeyPairInfo(keyPairInfo, isUsingAutoGeneratedKeyPair);
 
         // we return the name of the key pair
         return keyPairInfo.getKey();
@@ -466,34 +786,19 @@ public class AWSEC2Infrastructure extends AbstractAddonInfrastructure {
     }
 
     @Override
-    protected void unregisterNodeAndRemoveInstanceIfNeeded(final String instanceId, final String nodeName,
+    protected void unregisterNodesAndRemoveInstanceIfNeeded(final String instanceId, final Collection<String> nodeNames,
             final String infrastructureId, final boolean terminateInstanceIfEmpty) {
-        setPersistedInfraVariable(() -> {
-            // First read from the runtime variables map
-            //noinspection unchecked
-            nodesPerInstance = (Map<String, Set<String>>) persistedInfraVariables.get(NODES_PER_INSTANCES_KEY);
-            // Make modifications to the nodesPerInstance map
-            if (nodesPerInstance.get(instanceId) != null) {
-                nodesPerInstance.get(instanceId).remove(nodeName);
-                logger.info("Removed node: " + nodeName);
-                if (nodesPerInstance.get(instanceId).isEmpty()) {
-                    logger.info("Instance :" + instanceId + " is empty ");
-                    if (terminateInstanceIfEmpty) {
-                        logger.info("Call terminate instance for: " + instanceId);
-                        connectorIaasController.terminateInstance(infrastructureId, instanceId);
-                        logger.info("Instance terminated: " + instanceId);
-                    }
-                    nodesPerInstance.remove(instanceId);
-                    logger.info("Removed instance: " + instanceId);
+        updatePersistedInfraVariables(() -> {
+            int nbRemovedNodes = removeNodesOfInstance(instanceId, nodeNames, emptyInstanceId -> {
+                if (terminateInstanceIfEmpty) {
+                    runAfterPersist(() -> queueInstanceTermination(infrastructureId, emptyInstanceId, () -> {
+                        logger.info("Call terminate instance for: " + emptyInstanceId);
+                        connectorIaasController.terminateInstance(infrastructureId, emptyInstanceId);
+                        logger.info("Instance terminated: " + emptyInstanceId);
+                    }));
                 }
-                // Finally write to the runtime variable map
-                decrementNumberOfAcquiredNodesWithLockAndPersist();
-                persistedInfraVariables.put(NODES_PER_INSTANCES_KEY, Maps.newHashMap(nodesPerInstance));
-            } else {
-                logger.error("Cannot remove node " + nodeName + " because instance " + instanceId +
-                             " is not registered");
-            }
-            return null;
+            });
+            decrementNumberOfAcquiredNodes(nbRemovedNodes);
         });
     }
 
@@ -566,7 +871,8 @@ public class AWSEC2Infrastructure extends AbstractAddonInfrastructure {
     public void shutDown() {
         super.shutDown();
         String infrastructureId = getInfrastructureId();
-        if (isUsingAutoGeneratedKeyPair) {
+        // the key pair generated by a previous run of the infrastructure is cleaned up as well
+        if (isUsingAutoGeneratedKeyPair || getPersistedAutoGeneratedKeyPairInfo() != null) {
             String keyPairName = getPersistedKeyPairInfo().getKey();
             connectorIaasController.deleteKeyPair(infrastructureId, keyPairName, getRegionFromImage());
             logger.info(String.format("Clean up the auto-generated key pair (%s) for the infrastructure (%s)",
@@ -586,8 +892,26 @@ public class AWSEC2Infrastructure extends AbstractAddonInfrastructure {
         return getDescription();
     }
 
-    private void persistKeyPairInfo(final SimpleImmutableEntry<String, String> keyPair) {
-        setPersistedInfraVariable(() -> persistedInfraVariables.put(KEY_PAIR_KEY, keyPair));
+    private void persistKeyPairInfo(final SimpleImmutableEntry<String, String> keyPair, final boolean autoGenerated) {
+        setPersistedInfraVariable(() -> {
+            persistedInfraVariables.put(KEY_PAIR_KEY, keyPair);
+            persistedInfraVariables.put(KEY_PAIR_AUTO_GENERATED_KEY, autoGenerated);
+            return null;
+        });
+    }
+
+    /**
+     * @return the persisted key pair if it was generated in AWS, null
+     * otherwise
+     */
+    @SuppressWarnings("unchecked")
+    private SimpleImmutableEntry<String, String> getPersistedAutoGeneratedKeyPairInfo() {
+        return getPersistedInfraVariable(() -> {
+            SimpleImmutableEntry<String, String> keyPair = (SimpleImmutableEntry<String, String>) persistedInfraVariables.get(KEY_PAIR_KEY);
+            boolean autoGenerated = Boolean.TRUE.equals(persistedInfraVariables.get(KEY_PAIR_AUTO_GENERATED_KEY));
+            return autoGenerated && keyPair != null && keyPair.getKey() != null && !keyPair.getKey().isEmpty() ? keyPair
+                                                                                                              : null;
+        });
     }
 
     @SuppressWarnings("unchecked")
@@ -29,17 +29,29 @@ import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.nullValue;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.*;
 
 import java.security.KeyException;
+import java.util.AbstractMap.SimpleImmutableEntry;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.hamcrest.Matchers;
+import org.json.JSONObject;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.InjectMocks;
@@ -257,6 +269,12 @@ public class AWSEC2InfrastructureTest {
                                                                                          anyString(),
                                                                                          anyLong());
 
+        when(connectorIaasController.executeScriptWithKeyAuthenticationAsync(anyString(),
+                                                                             anyString(),
+                                                                             anyListOf(String.class),
+                                                                             anyString(),
+                                                                             anyString())).thenReturn(CompletableFuture.completedFuture(""));
+
         when(connectorIaasController.createInfrastructure(INFRASTRUCTURE_ID,
                                                           AWS_KEY,
                                                           AWS_SECRET_KEY,
@@ -304,11 +322,11 @@ public class AWSEC2InfrastructureTest {
                                                                          VM_USERNAME,
                                                                          VM_KEY_PAIR_NAME);
 
-        verify(connectorIaasController, times(1)).executeScriptWithKeyAuthentication(anyString(),
-                                                                                     anyString(),
-                                                                                     anyListOf(String.class),
-                                                                                     anyString(),
-                                                                                     anyString());
+        verify(connectorIaasController, times(1)).executeScriptWithKeyAuthenticationAsync(anyString(),
+                                                                                          anyString(),
+                                                                                          anyListOf(String.class),
+                                                                                          anyString(),
+                                                                                          anyString());
 
     }
 
@@ -363,6 +381,12 @@ public class AWSEC2InfrastructureTest {
                                                                                          anyString(),
                                                                                          anyLong());
 
+        when(connectorIaasController.executeScriptWithKeyAuthenticationAsync(anyString(),
+                                                                             anyString(),
+                                                                             anyListOf(String.class),
+                                                                             anyString(),
+                                                                             anyString())).thenReturn(CompletableFuture.completedFuture(""));
+
         when(connectorIaasController.createInfrastructure(INFRASTRUCTURE_ID,
                                                           AWS_KEY,
                                                           AWS_SECRET_KEY,
@@ -411,11 +435,624 @@ public class AWSEC2InfrastructureTest {
                                                                          VM_USERNAME,
                                                                          VM_KEY_PAIR_NAME);
 
-        verify(connectorIaasController, times(2)).executeScriptWithKeyAuthentication(anyString(),
-                                                                                     anyString(),
-                                                                                     anyListOf(String.class),
-                                                                                     anyString(),
-                                                                                     anyString());
+        verify(connectorIaasController, times(2)).executeScriptWithKeyAuthenticationAsync(anyString(),
+                                                                                          anyString(),
+                                                                                          anyListOf(String.class),
+                                                                                          anyString(),
+                                                                                          anyString());
+    }
+
+    @Test
+    public void testAcquireNodesOnWarmPoolInstances() throws ScriptNotExecutedException, KeyException {
+        final String warmInstanceId1 = REGION + "/warm-1";
+        final String warmInstanceId2 = REGION + "/warm-2";
+
+        awsec2Infrastructure.configure(AWS_KEY,
+                                       AWS_SECRET_KEY,
+                                       NUMBER_OF_INSTANCES,
+                                       NUMBER_OF_NODES_PER_INSTANCE,
+                                       IMAGE,
+                                       VM_USERNAME,
+                                       VM_KEY_PAIR_NAME,
+                                       VM_PRIVATE_KEY,
+                                       RAM,
+                                       CORES,
+                                       SECURITY_GROUP_NAMES,
+                                       SUBNET_ID,
+                                       RM_HOSTNAME,
+                                       CONNECTOR_IAAS_URL,
+                                       NODE_JAR_URL,
+                                       ADDITIONAL_PROPERTIES,
+                                       NODE_TIMEOUT,
+                                       STARTUP_SCRIPT,
+                                       SPOT_PRICE);
+
+        awsec2Infrastructure.connectorIaasController = connectorIaasController;
+
+        when(nodeSource.getAdministrator()).thenReturn(client);
+
+        when(client.getCredentials()).thenReturn(Credentials.getCredentialsBase64(rmCreds.getBytes()));
+
+        when(nodeSource.getName()).thenReturn(INFRASTRUCTURE_ID);
+
+        when(initScriptGenerator.buildLinuxScript(anyString(),
+                                                  anyString(),
+                                                  anyString(),
+                                                  anyString(),
+                                                  anyString(),
+                                                  anyString(),
+                                                  anyString(),
+                                                  anyString(),
+                                                  anyString(),
+                                                  anyInt(),
+                                                  anyString())).thenReturn(INIT_SCRIPTS);
+
+        doAnswer((Answer<Object>) invocation -> {
+            ((Runnable) invocation.getArguments()[0]).run();
+            return null;
+        }).when(nodeSource).executeInParallel(any(Runnable.class));
+
+        doReturn(new ArrayList<>()).when(awsec2Infrastructure).addMultipleDeployingNodes(anyListOf(String.class),
+                                                                                         anyString(),
+                                                                                         anyString(),
+                                                                                         anyLong());
+
+        when(connectorIaasController.executeScriptWithKeyAuthenticationAsync(anyString(),
+                                                                             anyString(),
+                                                                             anyListOf(String.class),
+                                                                             anyString(),
+                                                                             anyString())).thenReturn(CompletableFuture.completedFuture(""));
+
+        // the instances of the warm pool have their own tag
+        when(connectorIaasController.createAwsEc2InstancesWithOptions(eq(INFRASTRUCTURE_ID),
+                                                                      startsWith(INFRASTRUCTURE_ID + "-"),
+                                                                      eq(IMAGE),
+                                                                      eq(2),
+                                                                      eq(CORES),
+                                                                      eq(RAM),
+                                                                      isNull(String.class),
+                                                                      eq(SPOT_PRICE),
+                                                                      eq(SECURITY_GROUP_NAMES),
+                                                                      eq(SUBNET_ID),
+                                                                      isNull(String.class),
+                                                                      isNull(int[].class),
+                                                                      eq(VM_USERNAME),
+                                                                      eq(VM_KEY_PAIR_NAME))).thenReturn(Sets.newHashSet(warmInstanceId1,
+                                                                                                                     warmInstanceId2));
+
+        // the warm pool is filled beforehand
+        awsec2Infrastructure.persistedInfraVariables.put(AbstractAddonInfrastructure.WARM_POOL_INSTANCES_KEY,
+                                                         new HashSet<>(awsec2Infrastructure.createWarmPoolInstances(2)));
+        assertThat(awsec2Infrastructure.getWarmPoolInstancesNumber(), is(2));
+
+        awsec2Infrastructure.acquireNodes(2 * NUMBER_OF_NODES_PER_INSTANCE, 0, Collections.emptyMap());
+
+        // the nodes are deployed on the instances of the pool, without creating new instances
+        verify(connectorIaasController, times(1)).createAwsEc2InstancesWithOptions(anyString(),
+                                                                                   anyString(),
+                                                                                   anyString(),
+                                                                                   anyInt(),
+                                                                                   anyInt(),
+                                                                                   anyInt(),
+                                                                                   anyString(),
+                                                                                   anyString(),
+                                                                                   anyString(),
+                                                                                   anyString(),
+                                                                                   anyString(),
+                                                                                   any(int[].class),
+                                                                                   anyString(),
+                                                                                   anyString());
+        verify(connectorIaasController).executeScriptWithKeyAuthenticationAsync(eq(INFRASTRUCTURE_ID),
+                                                                                 eq(warmInstanceId1),
+                                                                                 anyListOf(String.class),
+                                                                                 eq(VM_USERNAME),
+                                                                                 anyString());
+        verify(connectorIaasController).executeScriptWithKeyAuthenticationAsync(eq(INFRASTRUCTURE_ID),
+                                                                                 eq(warmInstanceId2),
+                                                                                 anyListOf(String.class),
+                                                                                 eq(VM_USERNAME),
+                                                                                 anyString());
+        assertThat(awsec2Infrastructure.getWarmPoolInstancesNumber(), is(0));
+    }
+
+    @Test
+    public void testWarmPoolIsNotFilledWithTheInstancesOfThePreviousAcquisition() throws Exception {
+        mockInstancesCreationAndNodesDeployment(2, 0, SUBNET_ID, SPOT_PRICE);
+
+        // the connector-iaas lists the instances created so far, with the tag they were created with
+        Map<String, Set<String>> instancesIdsPerTag = new HashMap<>();
+        ConnectorIaasClient connectorIaasClient = mock(ConnectorIaasClient.class);
+        when(connectorIaasClient.getInstancesIndexByInfrastructureId(INFRASTRUCTURE_ID)).thenAnswer(invocation -> {
+            InstancesIndex instancesIndex = new InstancesIndex();
+            instancesIdsPerTag.forEach((tag, instancesIds) -> instancesIds.forEach(id -> instancesIndex.add(tag, id)));
+            return instancesIndex;
+        });
+        when(connectorIaasClient.createInstancesIfNotExist(anyString(),
+                                                           anyString(),
+                                                           anyString(),
+                                                           any(InstancesIndex.class))).thenAnswer(invocation -> {
+                                                               String instanceTag = (String) invocation.getArguments()[1];
+                                                               Set<String> existingInstancesIds = ((InstancesIndex) invocation.getArguments()[3]).getInstanceIds(instanceTag);
+                                                               if (!existingInstancesIds.isEmpty()) {
+                                                                   return new HashSet<>(existingInstancesIds);
+                                                               }
+                                                               int nbInstances = Integer.parseInt(new JSONObject((String) invocation.getArguments()[2]).getString("number"));
+                                                               Set<String> instancesIds = new HashSet<>();
+                                                               for (int i = 0; i < nbInstances; i++) {
+                                                                   instancesIds.add(REGION + "/" + instanceTag + "-" + i);
+                                                               }
+                                                               instancesIdsPerTag.put(instanceTag, instancesIds);
+                                                               return new HashSet<>(instancesIds);
+                                                           });
+        when(connectorIaasClient.runScriptOnInstanceAsync(anyString(),
+                                                          anyString(),
+                                                          anyString())).thenReturn(CompletableFuture.completedFuture(""));
+        awsec2Infrastructure.connectorIaasController = new ConnectorIaasController(connectorIaasClient,
+                                                                                   AWSEC2Infrastructure.INFRASTRUCTURE_TYPE);
+
+        awsec2Infrastructure.acquireNodes(2 * NUMBER_OF_NODES_PER_INSTANCE, 0, Collections.emptyMap());
+        Set<String> deployedInstancesIds = new HashSet<>();
+        instancesIdsPerTag.values().forEach(deployedInstancesIds::addAll);
+        assertThat(deployedInstancesIds.size(), is(2));
+
+        // the refill that follows the acquisition creates new instances
+        Set<String> warmInstancesIds = awsec2Infrastructure.createWarmPoolInstances(2);
+
+        assertThat(warmInstancesIds.size(), is(2));
+        assertThat(Collections.disjoint(warmInstancesIds, deployedInstancesIds), is(true));
+    }
+
+    @Test
+    public void testAcquireNodesByChunks() throws Exception {
+        mockInstancesCreationAndNodesDeployment(5, 2, SUBNET_ID, SPOT_PRICE);
+
+        awsec2Infrastructure.acquireNodes(5 * NUMBER_OF_NODES_PER_INSTANCE, 0, Collections.emptyMap());
+
+        verify(connectorIaasController, times(2)).createAwsEc2InstancesWithOptions(anyString(),
+                                                                                   anyString(),
+                                                                                   anyString(),
+                                                                                   eq(2),
+                                                                                   anyInt(),
+                                                                                   anyInt(),
+                                                                                   anyString(),
+                                                                                   anyString(),
+                                                                                   anyString(),
+                                                                                   eq(SUBNET_ID),
+                                                                                   anyString(),
+                                                                                   any(int[].class),
+                                                                                   anyString(),
+                                                                                   anyString());
+        verify(connectorIaasController, times(1)).createAwsEc2InstancesWithOptions(anyString(),
+                                                                                   anyString(),
+                                                                                   anyString(),
+                                                                                   eq(1),
+                                                                                   anyInt(),
+                                                                                   anyInt(),
+                                                                                   anyString(),
+                                                                                   anyString(),
+                                                                                   anyString(),
+                                                                                   eq(SUBNET_ID),
+                                                                                   anyString(),
+                                                                                   any(int[].class),
+                                                                                   anyString(),
+                                                                                   anyString());
+        verify(connectorIaasController, times(5)).executeScriptWithKeyAuthenticationAsync(anyString(),
+                                                                                          anyString(),
+                                                                                          anyListOf(String.class),
+                                                                                          anyString(),
+                                                                                          anyString());
+    }
+
+    @Test
+    public void testAcquisitionFollowingARejectedDeploymentRoundIsDeployed() throws Exception {
+        mockInstancesCreationAndNodesDeployment(1, 0, SUBNET_ID, SPOT_PRICE);
+
+        // the first deployment round cannot be submitted
+        doThrow(new RejectedExecutionException("busy")).doAnswer((Answer<Object>) invocation -> {
+            ((Runnable) invocation.getArguments()[0]).run();
+            return null;
+        }).when(nodeSource).executeInParallel(any(Runnable.class));
+
+        try {
+            awsec2Infrastructure.acquireNodes(NUMBER_OF_NODES_PER_INSTANCE, 0, Collections.emptyMap());
+            fail("The rejection of the deployment round should be reported");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+
+        awsec2Infrastructure.acquireNodes(NUMBER_OF_NODES_PER_INSTANCE, 0, Collections.emptyMap());
+
+        verify(connectorIaasController, times(1)).createAwsEc2InstancesWithOptions(anyString(),
+                                                                                   anyString(),
+                                                                                   anyString(),
+                                                                                   eq(1),
+                                                                                   anyInt(),
+                                                                                   anyInt(),
+                                                                                   anyString(),
+                                                                                   anyString(),
+                                                                                   anyString(),
+                                                                                   anyString(),
+                                                                                   anyString(),
+                                                                                   any(int[].class),
+                                                                                   anyString(),
+                                                                                   anyString());
+    }
+
+    @Test
+    public void testAcquisitionQueuedBehindARoundIsDeployedWithTheUpdatedNumberOfNodes() throws Exception {
+        mockInstancesCreationAndNodesDeployment(4, 0, SUBNET_ID, SPOT_PRICE);
+        AtomicInteger nbNodes = new AtomicInteger(0);
+        when(nodeSource.getNodesCount()).thenAnswer(invocation -> nbNodes.get());
+        AtomicBoolean acquisitionQueued = new AtomicBoolean(false);
+        doAnswer(invocation -> {
+            if (acquisitionQueued.compareAndSet(false, true)) {
+                // the policy asks for more nodes while the first round runs, before its nodes are registered
+                awsec2Infrastructure.acquireNodes(NUMBER_OF_NODES_PER_INSTANCE,
+                                                  0,
+                                                  dynamicPolicyConfiguration(NUMBER_OF_NODES_PER_INSTANCE, 12));
+                nbNodes.addAndGet(NUMBER_OF_NODES_PER_INSTANCE);
+            }
+            return Collections.singleton(REGION + "/" + invocation.getArguments()[1]);
+        }).when(connectorIaasController).createAwsEc2InstancesWithOptions(anyString(),
+                                                                          anyString(),
+                                                                          anyString(),
+                                                                          anyInt(),
+                                                                          anyInt(),
+                                                                          anyInt(),
+                                                                          anyString(),
+                                                                          anyString(),
+                                                                          anyString(),
+                                                                          anyString(),
+                                                                          anyString(),
+                                                                          any(int[].class),
+                                                                          anyString(),
+                                                                          anyString());
+
+        awsec2Infrastructure.acquireNodes(NUMBER_OF_NODES_PER_INSTANCE,
+                                          0,
+                                          dynamicPolicyConfiguration(NUMBER_OF_NODES_PER_INSTANCE, 12));
+
+        // the total number of nodes of the queued request accounts for the nodes of the first round
+        verify(connectorIaasController, times(2)).createAwsEc2InstancesWithOptions(anyString(),
+                                                                                   anyString(),
+                                                                                   anyString(),
+                                                                                   eq(1),
+                                                                                   anyInt(),
+                                                                                   anyInt(),
+                                                                                   anyString(),
+                                                                                   anyString(),
+                                                                                   anyString(),
+                                                                                   anyString(),
+                                                                                   anyString(),
+                                                                                   any(int[].class),
+                                                                                   anyString(),
+                                                                                   anyString());
+    }
+
+    @Test
+    public void testSpotInstancesObtainedAfterAnInterruptionAreTerminated() throws Exception {
+        final String lateSpotInstanceId = REGION + "/late-spot";
+        final CompletableFuture<Set<String>> spotRequest = new CompletableFuture<>();
+
+        mockInstancesCreationAndNodesDeployment(2, 0, SUBNET_ID, "0.05");
+
+        when(connectorIaasController.createAwsEc2InstancesWithOptionsAsync(anyString(),
+                                                                           anyString(),
+                                                                           anyString(),
+                                                                           anyInt(),
+                                                                           anyInt(),
+                                                                           anyInt(),
+                                                                           anyString(),
+                                                                           eq("0.05"),
+                                                                           anyString(),
+                                                                           anyString(),
+                                                                           anyString(),
+                                                                           any(int[].class),
+                                                                           anyString(),
+                                                                           anyString())).thenReturn(spotRequest);
+
+        // the deployment round runs in the current thread, the wait for the spot instances is interrupted
+        Thread.currentThread().interrupt();
+        try {
+            awsec2Infrastructure.acquireNodes(2 * NUMBER_OF_NODES_PER_INSTANCE, 0, Collections.emptyMap());
+        } finally {
+            Thread.interrupted();
+        }
+
+        verify(connectorIaasController).createAwsEc2InstancesWithOptionsAsync(anyString(),
+                                                                              anyString(),
+                                                                              anyString(),
+                                                                              anyInt(),
+                                                                              anyInt(),
+                                                                              anyInt(),
+                                                                              anyString(),
+                                                                              eq("0.05"),
+                                                                              anyString(),
+                                                                              anyString(),
+                                                                              anyString(),
+                                                                              any(int[].class),
+                                                                              anyString(),
+                                                                              anyString());
+        verify(connectorIaasController, never()).createAwsEc2InstancesWithOptions(anyString(),
+                                                                                  anyString(),
+                                                                                  anyString(),
+                                                                                  anyInt(),
+                                                                                  anyInt(),
+                                                                                  anyInt(),
+                                                                                  anyString(),
+                                                                                  anyString(),
+                                                                                  anyString(),
+                                                                                  anyString(),
+                                                                                  anyString(),
+                                                                                  any(int[].class),
+                                                                                  anyString(),
+                                                                                  anyString());
+
+        // the spot instance obtained once the deployment stopped waiting for it is not kept
+        spotRequest.complete(Collections.singleton(lateSpotInstanceId));
+
+        verify(connectorIaasController, timeout(10000)).terminateInstance(INFRASTRUCTURE_ID, lateSpotInstanceId);
+    }
+
+    @Test
+    public void testChunkFailingInItsSubnetIsCreatedInAnotherSubnet() throws Exception {
+        mockInstancesCreationAndNodesDeployment(2, 1, "subnet-a, subnet-b", SPOT_PRICE);
+
+        // no capacity left in the availability zone of the first subnet
+        when(connectorIaasController.createAwsEc2InstancesWithOptions(anyString(),
+                                                                      anyString(),
+                                                                      anyString(),
+                                                                      anyInt(),
+                                                                      anyInt(),
+                                                                      anyInt(),
+                                                                      anyString(),
+                                                                      anyString(),
+                                                                      anyString(),
+                                                                      eq("subnet-a"),
+                                                                      anyString(),
+                                                                      any(int[].class),
+                                                                      anyString(),
+                                                                      anyString())).thenThrow(new InstanceNotCreatedException("insufficient capacity"));
+
+        awsec2Infrastructure.acquireNodes(2 * NUMBER_OF_NODES_PER_INSTANCE, 0, Collections.emptyMap());
+
+        verify(connectorIaasController, times(2)).createAwsEc2InstancesWithOptions(anyString(),
+                                                                                   anyString(),
+                                                                                   anyString(),
+                                                                                   eq(1),
+                                                                                   anyInt(),
+                                                                                   anyInt(),
+                                                                                   anyString(),
+                                                                                   anyString(),
+                                                                                   anyString(),
+                                                                                   eq("subnet-b"),
+                                                                                   anyString(),
+                                                                                   any(int[].class),
+                                                                                   anyString(),
+                                                                                   anyString());
+        verify(connectorIaasController, times(2)).executeScriptWithKeyAuthenticationAsync(anyString(),
+                                                                                          anyString(),
+                                                                                          anyListOf(String.class),
+                                                                                          anyString(),
+                                                                                          anyString());
+    }
+
+    @Test
+    public void testSpotInstancesAreUsedWhenTheSpotRequestIsFulfilled() throws Exception {
+        final Set<String> spotInstancesIds = Sets.newHashSet(REGION + "/spot-1", REGION + "/spot-2");
+
+        mockInstancesCreationAndNodesDeployment(2, 0, SUBNET_ID, "0.05");
+
+        when(connectorIaasController.createAwsEc2InstancesWithOptionsAsync(anyString(),
+                                                                           anyString(),
+                                                                           anyString(),
+                                                                           anyInt(),
+                                                                           anyInt(),
+                                                                           anyInt(),
+                                                                           anyString(),
+                                                                           eq("0.05"),
+                                                                           anyString(),
+                                                                           anyString(),
+                                                                           anyString(),
+                                                                           any(int[].class),
+                                                                           anyString(),
+                                                                           anyString())).thenReturn(CompletableFuture.completedFuture(spotInstancesIds));
+
+        awsec2Infrastructure.acquireNodes(2 * NUMBER_OF_NODES_PER_INSTANCE, 0, Collections.emptyMap());
+
+        verify(connectorIaasController, never()).createAwsEc2InstancesWithOptions(anyString(),
+                                                                                  anyString(),
+                                                                                  anyString(),
+                                                                                  anyInt(),
+                                                                                  anyInt(),
+                                                                                  anyInt(),
+                                                                                  anyString(),
+                                                                                  anyString(),
+                                                                                  anyString(),
+                                                                                  anyString(),
+                                                                                  anyString(),
+                                                                                  any(int[].class),
+                                                                                  anyString(),
+                                                                                  anyString());
+        verify(connectorIaasController, times(2)).executeScriptWithKeyAuthenticationAsync(anyString(),
+                                                                                          anyString(),
+                                                                                          anyListOf(String.class),
+                                                                                          anyString(),
+                                                                                          anyString());
+    }
+
+    @Test
+    public void testOnDemandInstancesReplaceTheSpotInstancesNotObtainedInTime() throws Exception {
+        final String lateSpotInstanceId = REGION + "/late-spot";
+        final CompletableFuture<Set<String>> spotRequest = new CompletableFuture<>();
+
+        mockInstancesCreationAndNodesDeployment(2, 0, SUBNET_ID, "0.05");
+        doReturn(100L).when(awsec2Infrastructure).getSpotRequestTimeout();
+
+        when(connectorIaasController.createAwsEc2InstancesWithOptionsAsync(anyString(),
+                                                                           anyString(),
+                                                                           anyString(),
+                                                                           anyInt(),
+                                                                           anyInt(),
+                                                                           anyInt(),
+                                                                           anyString(),
+                                                                           eq("0.05"),
+                                                                           anyString(),
+                                                                           anyString(),
+                                                                           anyString(),
+                                                                           any(int[].class),
+                                                                           anyString(),
+                                                                           anyString())).thenReturn(spotRequest);
+
+        awsec2Infrastructure.acquireNodes(2 * NUMBER_OF_NODES_PER_INSTANCE, 0, Collections.emptyMap());
+
+        verify(connectorIaasController).createAwsEc2InstancesWithOptions(anyString(),
+                                                                         matches(INFRASTRUCTURE_ID + "-.+-on-demand"),
+                                                                         anyString(),
+                                                                         eq(2),
+                                                                         anyInt(),
+                                                                         anyInt(),
+                                                                         anyString(),
+                                                                         eq(""),
+                                                                         anyString(),
+                                                                         anyString(),
+                                                                         anyString(),
+                                                                         any(int[].class),
+                                                                         anyString(),
+                                                                         anyString());
+        verify(connectorIaasController, times(2)).executeScriptWithKeyAuthenticationAsync(anyString(),
+                                                                                          anyString(),
+                                                                                          anyListOf(String.class),
+                                                                                          anyString(),
+                                                                                          anyString());
+
+        // the spot instance obtained too late is not kept
+        spotRequest.complete(Collections.singleton(lateSpotInstanceId));
+
+        verify(connectorIaasController, timeout(10000)).terminateInstance(INFRASTRUCTURE_ID, lateSpotInstanceId);
+    }
+
+    @Test
+    public void testAutoGeneratedKeyPairIsReusedByTheNextDeployments() throws Exception {
+        mockInstancesCreationAndNodesDeployment(1, 0, SUBNET_ID, "");
+        awsec2Infrastructure.vmKeyPairName = "";
+        awsec2Infrastructure.vmPrivateKey = "";
+
+        when(connectorIaasController.createAwsEc2KeyPair(anyString(),
+                                                         anyString(),
+                                                         anyString(),
+                                                         anyInt(),
+                                                         anyInt(),
+                                                         anyInt())).thenReturn(new SimpleImmutableEntry<>("auto-key-pair",
+                                                                                                          "private-key"));
+
+        awsec2Infrastructure.acquireNodes(NUMBER_OF_NODES_PER_INSTANCE, 0, Collections.emptyMap());
+        awsec2Infrastructure.acquireNodes(NUMBER_OF_NODES_PER_INSTANCE, 0, Collections.emptyMap());
+
+        verify(connectorIaasController, times(1)).createAwsEc2KeyPair(anyString(),
+                                                                      anyString(),
+                                                                      anyString(),
+                                                                      anyInt(),
+                                                                      anyInt(),
+                                                                      anyInt());
+
+        // the key pair generated for the infrastructure is deleted with it
+        awsec2Infrastructure.shutDown();
+
+        verify(connectorIaasController).deleteKeyPair(eq(INFRASTRUCTURE_ID), eq("auto-key-pair"), anyString());
+    }
+
+    private Map<String, Object> dynamicPolicyConfiguration(int totalNumberOfNodes, int maxNumberOfNodes) {
+        Map<String, Object> nodeConfiguration = new HashMap<>();
+        nodeConfiguration.put(AbstractAddonInfrastructure.TOTAL_NUMBER_OF_NODES_KEY, totalNumberOfNodes);
+        nodeConfiguration.put(AbstractAddonInfrastructure.MAX_NODES_KEY, maxNumberOfNodes);
+        return nodeConfiguration;
+    }
+
+    private void mockInstancesCreationAndNodesDeployment(int nbInstances, int chunkSize, String subnetIds,
+            String spotPrice) throws Exception {
+        awsec2Infrastructure.configure(AWS_KEY,
+                                       AWS_SECRET_KEY,
+                                       nbInstances,
+                                       NUMBER_OF_NODES_PER_INSTANCE,
+                                       IMAGE,
+                                       VM_USERNAME,
+                                       VM_KEY_PAIR_NAME,
+                                       VM_PRIVATE_KEY,
+                                       RAM,
+                                       CORES,
+                                       SECURITY_GROUP_NAMES,
+                                       subnetIds,
+                                       RM_HOSTNAME,
+                                       CONNECTOR_IAAS_URL,
+                                       NODE_JAR_URL,
+                                       ADDITIONAL_PROPERTIES,
+                                       NODE_TIMEOUT,
+                                       STARTUP_SCRIPT,
+                                       spotPrice);
+
+        awsec2Infrastructure.connectorIaasController = connectorIaasController;
+
+        doReturn(chunkSize).when(awsec2Infrastructure).getInstancesCreationChunkSize();
+
+        when(nodeSource.getAdministrator()).thenReturn(client);
+
+        when(client.getCredentials()).thenReturn(Credentials.getCredentialsBase64(rmCreds.getBytes()));
+
+        when(nodeSource.getName()).thenReturn(INFRASTRUCTURE_ID);
+
+        when(initScriptGenerator.buildLinuxScript(anyString(),
+                                                  anyString(),
+                                                  anyString(),
+                                                  anyString(),
+                                                  anyString(),
+                                                  anyString(),
+                                                  anyString(),
+                                                  anyString(),
+                                                  anyString(),
+                                                  anyInt(),
+                                                  anyString())).thenReturn(INIT_SCRIPTS);
+
+        doAnswer((Answer<Object>) invocation -> {
+            ((Runnable) invocation.getArguments()[0]).run();
+            return null;
+        }).when(nodeSource).executeInParallel(any(Runnable.class));
+
+        doReturn(new ArrayList<>()).when(awsec2Infrastructure).addMultipleDeployingNodes(anyListOf(String.class),
+                                                                                         anyString(),
+                                                                                         anyString(),
+                                                                                         anyLong());
+
+        when(connectorIaasController.executeScriptWithKeyAuthenticationAsync(anyString(),
+                                                                             anyString(),
+                                                                             anyListOf(String.class),
+                                                                             anyString(),
+                                                                             anyString())).thenReturn(CompletableFuture.completedFuture(""));
+
+        // each chunk creates instances named after its tag
+        when(connectorIaasController.createAwsEc2InstancesWithOptions(anyString(),
+                                                                      anyString(),
+                                                                      anyString(),
+                                                                      anyInt(),
+                                                                      anyInt(),
+                                                                      anyInt(),
+                                                                      anyString(),
+                                                                      anyString(),
+                                                                      anyString(),
+                                                                      anyString(),
+                                                                      anyString(),
+                                                                      any(int[].class),
+                                                                      anyString(),
+                                                                      anyString())).thenAnswer(invocation -> {
+                                                                          String instanceTag = (String) invocation.getArguments()[1];
+                                                                          int nbInstancesOfChunk = (int) invocation.getArguments()[3];
+                                                                          Set<String> instancesIds = new HashSet<>();
+                                                                          for (int i = 0; i < nbInstancesOfChunk; i++) {
+                                                                              instancesIds.add(REGION + "/" +
+                                                                                               instanceTag + "-" + i);
+                                                                          }
+                                                                          return instancesIds;
+                                                                      });
     }
 
     @Test
@@ -460,7 +1097,7 @@ public class AWSEC2InfrastructureTest {
 
         verify(proActiveRuntime).killNode(nodeName);
 
-        verify(connectorIaasController).terminateInstance(INFRASTRUCTURE_ID, instanceIdWithRegion);
+        verify(connectorIaasController, timeout(10000)).terminateInstance(INFRASTRUCTURE_ID, instanceIdWithRegion);
 
         assertThat(awsec2Infrastructure.getNodesPerInstancesMap().isEmpty(), is(true));
 
@@ -505,6 +1142,55 @@ public class AWSEC2InfrastructureTest {
 
     }
 
+    @Test
+    public void testRegisterAndUnregisterNodesOfAnInstanceTogether() {
+        final String instanceIdWithRegion = REGION + "/instance-id";
+        final List<String> nodeNames = Arrays.asList(REGION + "__instance-id_0", REGION + "__instance-id_1");
+
+        awsec2Infrastructure.connectorIaasController = connectorIaasController;
+
+        awsec2Infrastructure.addNewNodesForInstance(instanceIdWithRegion, nodeNames);
+
+        assertThat(awsec2Infrastructure.getNodesPerInstancesMapCopy().get(instanceIdWithRegion),
+                   is(new HashSet<>(nodeNames)));
+        assertThat(awsec2Infrastructure.getNumberOfAcquiredNodesWithLock(), is(2));
+
+        awsec2Infrastructure.unregisterNodesAndRemoveInstanceIfNeeded(instanceIdWithRegion,
+                                                                      nodeNames,
+                                                                      INFRASTRUCTURE_ID,
+                                                                      true);
+
+        verify(connectorIaasController, timeout(10000).times(1)).terminateInstance(INFRASTRUCTURE_ID,
+                                                                                  instanceIdWithRegion);
+        assertThat(awsec2Infrastructure.getNodesPerInstancesMapCopy().isEmpty(), is(true));
+        assertThat(awsec2Infrastructure.getNumberOfAcquiredNodesWithLock(), is(0));
+    }
+
+    @Test
+    public void testInstanceIsTerminatedOutsideOfTheBookkeepingLock() throws Exception {
+        final String instanceIdWithRegion = REGION + "/instance-id";
+        final String nodeName = REGION + "__instance-id_0";
+        final CompletableFuture<Boolean> instanceRegisteredDuringTermination = new CompletableFuture<>();
+
+        awsec2Infrastructure.connectorIaasController = connectorIaasController;
+        awsec2Infrastructure.addNewNodeForInstance(instanceIdWithRegion, nodeName);
+
+        doAnswer(invocation -> {
+            // another thread can read the bookkeeping, which is already saved without the instance
+            instanceRegisteredDuringTermination.complete(CompletableFuture.supplyAsync(() -> awsec2Infrastructure.getNodesPerInstancesMapCopy()
+                                                                                                              .containsKey(instanceIdWithRegion))
+                                                                          .get(10, TimeUnit.SECONDS));
+            return null;
+        }).when(connectorIaasController).terminateInstance(INFRASTRUCTURE_ID, instanceIdWithRegion);
+
+        awsec2Infrastructure.unregisterNodeAndRemoveInstanceIfNeeded(instanceIdWithRegion,
+                                                                     nodeName,
+                                                                     INFRASTRUCTURE_ID,
+                                                                     true);
+
+        assertThat(instanceRegisteredDuringTermination.get(10, TimeUnit.SECONDS), is(false));
+    }
+
     @Test
     public void testNotifyLostSingleNode() {
         // the instance has only one node
@@ -37,6 +37,7 @@ import java.util.*;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.log4j.Logger;
 import org.objectweb.proactive.core.node.Node;
@@ -47,6 +48,7 @@ import org.ow2.proactive.resourcemanager.nodesource.billing.AzureBillingRateCard
 import org.ow2.proactive.resourcemanager.nodesource.billing.AzureBillingResourceUsage;
 import org.ow2.proactive.resourcemanager.nodesource.common.Configurable;
 import org.ow2.proactive.resourcemanager.nodesource.infrastructure.util.InitScriptGenerator;
+import org.ow2.proactive.resourcemanager.nodesource.infrastructure.util.NSProperties;
 
 import lombok.Getter;
 
@@ -440,53 +442,73 @@ public class AzureInfrastructure extends AbstractAddonInfrastructure {
             existPersistedInstanceIds = true;
         }
 
-        // execute script on instances to deploy or redeploy nodes on them
-        for (String currentInstanceId : instancesIds) {
-            try {
-                List<String> scripts = imageOSType.equalsIgnoreCase(WINDOWS) ? initScriptGenerator.buildWindowsScript(windowsStartupScript,
-                                                                                                                      currentInstanceId,
-                                                                                                                      getRmUrl(),
-                                                                                                                      rmHostname,
-                                                                                                                      nodeJarURL,
-                                                                                                                      instanceIdNodeProperty,
-                                                                                                                      additionalProperties,
-                                                                                                                      nodeSource.getName(),
-                                                                                                                      currentInstanceId,
-                                                                                                                      numberOfNodesPerInstance,
-                                                                                                                      getCredentials())
-                                                                             : initScriptGenerator.buildLinuxScript(linuxStartupScript,
-                                                                                                                    currentInstanceId,
-                                                                                                                    getRmUrl(),
-                                                                                                                    rmHostname,
-                                                                                                                    nodeJarURL,
-                                                                                                                    instanceIdNodeProperty,
-                                                                                                                    additionalProperties,
-                                                                                                                    nodeSource.getName(),
-                                                                                                                    currentInstanceId,
-                                                                                                                    numberOfNodesPerInstance,
-                                                                                                                    getCredentials());
-
-                connectorIaasController.executeScript(getInfrastructureId(), currentInstanceId, scripts);
-            } catch (KeyException e) {
-                LOGGER.error("A problem occurred while acquiring user credentials path. The node startup script will be not executed.");
-            } catch (ScriptNotExecutedException exception) {
-                boolean acquireNodeTriggered = handleScriptNotExecutedException(existPersistedInstanceIds,
-                                                                                currentInstanceId,
-                                                                                exception);
-                if (acquireNodeTriggered) {
-                    // in this case we re-attempted a deployment, so we need
-                    // to stop looping
-                    break;
-                }
-            } finally {
-                // in all cases, we must remove the instance from the free
-                // instance map as we tried everything to deploy nodes on it
-                removeFromInstancesWithoutNodesMap(currentInstanceId);
-            }
+        // execute script on instances to deploy or redeploy nodes on them,
+        // on several instances at the same time. A failure on a saved
+        // instance triggers a redeployment from scratch once all the running
+        // executions are over, the executions not started yet are skipped.
+        final boolean redeployOnScriptFailure = existPersistedInstanceIds;
+        AtomicReference<Map.Entry<String, ScriptNotExecutedException>> redeploymentCause = new AtomicReference<>();
+        ParallelInstanceExecutor.forEachInstance(getInfrastructureId(),
+                                                 instancesIds,
+                                                 ParallelInstanceExecutor.getConfiguredParallelism(NSProperties.AZURE_INSTANCES_BOOTSTRAP_PARALLELISM),
+                                                 currentInstanceId -> {
+                                                     if (redeploymentCause.get() == null) {
+                                                         executeScriptOnInstance(currentInstanceId,
+                                                                                 redeployOnScriptFailure,
+                                                                                 redeploymentCause);
+                                                     }
+                                                 });
+        if (redeploymentCause.get() != null) {
+            handleScriptNotExecutedException(true,
+                                             redeploymentCause.get().getKey(),
+                                             redeploymentCause.get().getValue());
         }
 
     }
 
+    private void executeScriptOnInstance(String currentInstanceId, boolean redeployOnScriptFailure,
+            AtomicReference<Map.Entry<String, ScriptNotExecutedException>> redeploymentCause) {
+        try {
+            List<String> scripts = imageOSType.equalsIgnoreCase(WINDOWS) ? initScriptGenerator.buildWindowsScript(windowsStartupScript,
+                                                                                                                  currentInstanceId,
+                                                                                                                  getRmUrl(),
+                                                                                                                  rmHostname,
+                                                                                                                  nodeJarURL,
+                                                                                                                  instanceIdNodeProperty,
+                                                                                                                  additionalProperties,
+                                                                                                                  nodeSource.getName(),
+                                                                                                                  currentInstanceId,
+                                                                                                                  numberOfNodesPerInstance,
+                                                                                                                  getCredentials())
+                                                                         : initScriptGenerator.buildLinuxScript(linuxStartupScript,
+                                                                                                                currentInstanceId,
+                                                                                                                getRmUrl(),
+                                                                                                                rmHostname,
+                                                                                                                nodeJarURL,
+                                                                                                                instanceIdNodeProperty,
+                                                                                                                additionalProperties,
+                                                                                                                nodeSource.getName(),
+                                                                                                                currentInstanceId,
+                                                                                                                numberOfNodesPerInstance,
+                                                                                                                getCredentials());
+
+            connectorIaasController.executeScript(getInfrastructureId(), currentInstanceId, scripts);
+        } catch (KeyException e) {
+            LOGGER.error("A problem occurred while acquiring user credentials path. The node startup script will be not executed.");
+        } catch (ScriptNotExecutedException exception) {
+            if (redeployOnScriptFailure) {
+                redeploymentCause.compareAndSet(null,
+                                                new AbstractMap.SimpleImmutableEntry<>(currentInstanceId, exception));
+            } else {
+                handleScriptNotExecutedException(false, currentInstanceId, exception);
+            }
+        } finally {
+            // in all cases, we must remove the instance from the free
+            // instance map as we tried everything to deploy nodes on it
+            removeFromInstancesWithoutNodesMap(currentInstanceId);
+        }
+    }
+
     @Override
     public void acquireAllNodes() {
         acquireNode();
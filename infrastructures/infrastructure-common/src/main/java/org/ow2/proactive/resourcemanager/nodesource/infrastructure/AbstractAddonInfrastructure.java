@@ -27,11 +27,19 @@ package org.ow2.proactive.resourcemanager.nodesource.infrastructure;
 
 import static org.ow2.proactive.resourcemanager.utils.RMNodeStarter.NODE_TAGS_PROP_NAME;
 
+import java.io.Serializable;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.security.KeyException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.StringUtils;
@@ -42,8 +50,6 @@ import org.ow2.proactive.authentication.crypto.Credentials;
 import org.ow2.proactive.resourcemanager.exception.RMException;
 import org.ow2.proactive.resourcemanager.nodesource.infrastructure.model.Port;
 
-import com.google.common.collect.Maps;
-
 
 /**
  * This class factorizes some common parts of the different node source addons
@@ -89,6 +95,22 @@ public abstract class AbstractAddonInfrastructure extends InfrastructureManager
      */
     private static final String NB_ACQUIRED_NODES_KEY = "nbAcquiredNodes";
 
+    /**
+     * key to retrieve the version of the format of the node bookkeeping in
+     * the persisted infrastructure variables. The bookkeeping saved without
+     * version predates the compact maps.
+     */
+    private static final String BOOKKEEPING_FORMAT_VERSION_KEY = "bookkeepingFormatVersion";
+
+    private static final int BOOKKEEPING_FORMAT_VERSION = 1;
+
+    /**
+     * Key to retrieve in the {@link InfrastructureManager#persistedInfraVariables}
+     * map the set of the identifiers of the instances of the warm pool, which
+     * are booted but do not run any node yet.
+     */
+    protected static final String WARM_POOL_INSTANCES_KEY = "warmPoolInstances";
+
     /**
      * Dynamic policy parameters key
      **/
@@ -99,6 +121,12 @@ public abstract class AbstractAddonInfrastructure extends InfrastructureManager
     // The ports which should always be open on the instance. For example, the port 22 always needs to be open to be able to execute initial script.
     protected static final List<Integer> ALWAYS_OPEN_PORTS = Arrays.asList(22);
 
+    /**
+     * Actions queued by the thread that holds the write lock, to run once
+     * the runtime variables are saved, outside of the lock
+     */
+    private static final ThreadLocal<List<Runnable>> actionsAfterPersist = ThreadLocal.withInitial(ArrayList::new);
+
     /**
      * The controller is transient as it is not supposed to be serialized or
      * saved in database. It should be recreated at start up.
@@ -111,6 +139,58 @@ public abstract class AbstractAddonInfrastructure extends InfrastructureManager
      */
     protected transient Map<String, Set<String>> nodesPerInstance;
 
+    /**
+     * Reverse index of the {@link AbstractAddonInfrastructure#nodesPerInstance}
+     * map, which maps the name of each node to the identifier of its
+     * instance. It is not saved in database: it is rebuilt from the saved map
+     * whenever the saved map is replaced, typically after a recovery.
+     */
+    private transient volatile Map<String, String> instanceIdPerNodeName;
+
+    /**
+     * The nodes per instance map indexed by
+     * {@link AbstractAddonInfrastructure#instanceIdPerNodeName}
+     */
+    private transient volatile Map<String, Set<String>> indexedNodesPerInstance;
+
+    /**
+     * Gathers the changes of the node bookkeeping made during bursts of node
+     * events, to save them in database in a single write. It is created
+     * lazily, so that it is also available after a recovery.
+     */
+    private transient volatile PersistedInfraVariablesWriteBehind persistedInfraVariablesWriteBehind;
+
+    /**
+     * Taken exclusively to apply the changes of the node bookkeeping made
+     * during a recovery of the nodes, which are not saved, and shared by all
+     * the other accesses to the runtime variables. It is created lazily.
+     */
+    private transient volatile ReentrantReadWriteLock bookkeepingLock;
+
+    /**
+     * Terminates in the background the instances that have no nodes left.
+     * It is created lazily, at the first termination.
+     */
+    private transient volatile InstanceTerminationQueue instanceTerminationQueue;
+
+    /**
+     * Size and refill guard of the warm pool. It is created lazily, at the
+     * first acquisition of the dynamic policy.
+     */
+    private transient volatile WarmInstancePool warmInstancePool;
+
+    /**
+     * History of the acquisitions of the dynamic policy, used to grow the
+     * warm pool ahead of the predicted peaks. It is created lazily.
+     */
+    private transient volatile AcquisitionDemandEstimator acquisitionDemandEstimator;
+
+    /**
+     * Acquisitions of the dynamic policy waiting for the running deployment
+     * round. It is created lazily.
+     */
+    private transient volatile AcquireRequestQueue acquireRequestQueue;
+
     protected AtomicInteger nbOfAcquiredNodes = new AtomicInteger(0);
 
     protected AtomicInteger instancesIndex = new AtomicInteger(0);
@@ -143,9 +223,9 @@ public abstract class AbstractAddonInfrastructure extends InfrastructureManager
      * Default constructor
      */
     protected AbstractAddonInfrastructure() {
-        nodesPerInstance = new HashMap<>();
-        nbRemovedNodesPerInstance = new HashMap<>();
-        instancesWithoutNodesMap = new HashMap<>();
+        nodesPerInstance = new CompactNodesPerInstanceMap();
+        nbRemovedNodesPerInstance = new CompactCountPerInstanceMap();
+        instancesWithoutNodesMap = new CompactCountPerInstanceMap();
     }
 
     protected String getCredentials() throws KeyException {
@@ -161,10 +241,16 @@ public abstract class AbstractAddonInfrastructure extends InfrastructureManager
     }
 
     private void incrementNumberOfAcquiredNodesWithLockAndPersist() {
-        setPersistedInfraVariable(() -> {
-            this.persistedInfraVariables.put(NB_ACQUIRED_NODES_KEY, nbOfAcquiredNodes.incrementAndGet());
-            return nbOfAcquiredNodes.get();
-        });
+        updatePersistedInfraVariables(this::incrementNumberOfAcquiredNodes);
+    }
+
+    /**
+     * Increment the number of acquired nodes in the runtime variables. Must be
+     * called within the write lock, the number is saved in database with the
+     * other changes made in the lock.
+     */
+    private void incrementNumberOfAcquiredNodes() {
+        this.persistedInfraVariables.put(NB_ACQUIRED_NODES_KEY, nbOfAcquiredNodes.incrementAndGet());
     }
 
     protected int getNumberOfAcquiredNodesWithLock() {
@@ -172,10 +258,25 @@ public abstract class AbstractAddonInfrastructure extends InfrastructureManager
     }
 
     protected void decrementNumberOfAcquiredNodesWithLockAndPersist() {
-        setPersistedInfraVariable(() -> {
-            this.persistedInfraVariables.put(NB_ACQUIRED_NODES_KEY, nbOfAcquiredNodes.decrementAndGet());
-            return nbOfAcquiredNodes.get();
-        });
+        updatePersistedInfraVariables(this::decrementNumberOfAcquiredNodes);
+    }
+
+    /**
+     * Decrement the number of acquired nodes in the runtime variables. Must be
+     * called within the write lock, the number is saved in database with the
+     * other changes made in the lock.
+     */
+    protected void decrementNumberOfAcquiredNodes() {
+        decrementNumberOfAcquiredNodes(1);
+    }
+
+    /**
+     * Decrement the number of acquired nodes in the runtime variables by the
+     * number of nodes removed at once. Must be called within the write lock.
+     * @param numberOfNodes the number of nodes removed
+     */
+    protected void decrementNumberOfAcquiredNodes(int numberOfNodes) {
+        this.persistedInfraVariables.put(NB_ACQUIRED_NODES_KEY, nbOfAcquiredNodes.addAndGet(-numberOfNodes));
     }
 
     @Override
@@ -186,6 +287,7 @@ public abstract class AbstractAddonInfrastructure extends InfrastructureManager
         if (node != null) {
             instanceId = getInstanceIdProperty(node);
         } else {
+            startNodesRecovery();
             instanceId = tryToFindInstanceIdOfNode(nodeName);
         }
         if (instanceId != null) {
@@ -213,15 +315,316 @@ public abstract class AbstractAddonInfrastructure extends InfrastructureManager
     @Override
     public void shutDown() {
         expectInstancesAlreadyCreated(true, false);
+        // the instances of the warm pool are terminated with the infrastructure
+        setPersistedInfraVariable(() -> {
+            getWarmPoolInstances().clear();
+            return null;
+        });
+    }
+
+    /**
+     * Apply a change of the node bookkeeping to the runtime variables within
+     * the write lock, and save the runtime variables in database. In
+     * write-behind mode (see
+     * {@link org.ow2.proactive.resourcemanager.nodesource.infrastructure.util.NSProperties#PERSISTED_VARIABLES_WRITE_BEHIND_DELAY}),
+     * the change is applied later, with the other changes made in a short
+     * window, and they are all saved in a single write. During a recovery of
+     * the nodes, the change is applied right away but it is saved at the end
+     * of the recovery, see {@link #startNodesRecovery()}.
+     * @param update the change, that must not take the lock itself
+     */
+    protected void updatePersistedInfraVariables(final Runnable update) {
+        PersistedInfraVariablesWriteBehind writeBehind = getPersistedInfraVariablesWriteBehind();
+        if (writeBehind.isEnabled()) {
+            writeBehind.submit(update);
+        } else {
+            try {
+                setPersistedInfraVariable(() -> {
+                    compactPersistedInfraVariables();
+                    update.run();
+                    return null;
+                });
+            } finally {
+                runActionsAfterPersist();
+            }
+        }
+    }
+
+    /**
+     * Replace the maps of the node bookkeeping that are not in their compact
+     * form, typically the maps recovered from a database saved by a previous
+     * version, by their compact form. Nothing is checked when the recovered
+     * bookkeeping has the current format version. Must be called within the
+     * write lock, or while applying a change during a recovery of the nodes.
+     */
+    @SuppressWarnings("unchecked")
+    private void compactPersistedInfraVariables() {
+        if (Integer.valueOf(BOOKKEEPING_FORMAT_VERSION).equals(persistedInfraVariables.get(BOOKKEEPING_FORMAT_VERSION_KEY))) {
+            return;
+        }
+        Map<String, Set<String>> savedNodesPerInstance = (Map<String, Set<String>>) persistedInfraVariables.get(NODES_PER_INSTANCES_KEY);
+        if (savedNodesPerInstance != null && !(savedNodesPerInstance instanceof CompactNodesPerInstanceMap)) {
+            persistedInfraVariables.put(NODES_PER_INSTANCES_KEY, new CompactNodesPerInstanceMap(savedNodesPerInstance));
+        }
+        for (String countPerInstanceKey : Arrays.asList(NB_REMOVED_NODES_PER_INSTANCE_KEY,
+                                                        INSTANCES_WITHOUT_NODES_MAP_KEY)) {
+            Map<String, Integer> savedCountPerInstance = (Map<String, Integer>) persistedInfraVariables.get(countPerInstanceKey);
+            if (savedCountPerInstance != null && !(savedCountPerInstance instanceof CompactCountPerInstanceMap)) {
+                persistedInfraVariables.put(countPerInstanceKey, new CompactCountPerInstanceMap(savedCountPerInstance));
+            }
+        }
+        persistedInfraVariables.put(BOOKKEEPING_FORMAT_VERSION_KEY, BOOKKEEPING_FORMAT_VERSION);
+    }
+
+    /**
+     * Queue an action to run once the changes made within the current write
+     * lock are saved in database, outside of the lock. This is meant for the
+     * remote calls to the cloud provider, such as the termination of an
+     * instance, so that a slow call does not hold the node events of the
+     * whole node source. Must be called from an update given to
+     * {@link #updatePersistedInfraVariables(Runnable)}.
+     * @param action the action to run after the save
+     */
+    protected void runAfterPersist(final Runnable action) {
+        actionsAfterPersist.get().add(action);
+    }
+
+    /**
+     * Run the actions queued by the current thread within the write lock. A
+     * failing action does not prevent the other ones from running, and the
+     * first failure is thrown at the end.
+     */
+    private void runActionsAfterPersist() {
+        List<Runnable> queuedActions = actionsAfterPersist.get();
+        if (queuedActions.isEmpty()) {
+            return;
+        }
+        List<Runnable> actions = new ArrayList<>(queuedActions);
+        queuedActions.clear();
+        RuntimeException firstFailure = null;
+        for (Runnable action : actions) {
+            try {
+                action.run();
+            } catch (RuntimeException e) {
+                if (firstFailure == null) {
+                    firstFailure = e;
+                } else {
+                    firstFailure.addSuppressed(e);
+                }
+            }
+        }
+        if (firstFailure != null) {
+            throw firstFailure;
+        }
+    }
+
+    /**
+     * Apply and save in database the changes of the node bookkeeping that are
+     * still pending in write-behind mode. This is done before reading the
+     * node bookkeeping and at each phase of a deployment. It must not be
+     * called within the lock of the runtime variables.
+     */
+    protected void flushPersistedInfraVariables() {
+        getPersistedInfraVariablesWriteBehind().flush();
+    }
+
+    private PersistedInfraVariablesWriteBehind getPersistedInfraVariablesWriteBehind() {
+        PersistedInfraVariablesWriteBehind writeBehind = persistedInfraVariablesWriteBehind;
+        if (writeBehind == null) {
+            synchronized (this) {
+                writeBehind = persistedInfraVariablesWriteBehind;
+                if (writeBehind == null) {
+                    writeBehind = PersistedInfraVariablesWriteBehind.fromConfiguration(this::applyPersistedInfraVariablesUpdates,
+                                                                                       this::applyPersistedInfraVariablesUpdateInMemory);
+                    persistedInfraVariablesWriteBehind = writeBehind;
+                }
+            }
+        }
+        return writeBehind;
+    }
+
+    /**
+     * Queue the termination of an instance that has no nodes left. The
+     * terminations run in the background, several at the same time, and a
+     * termination already queued for the same instance is not queued again.
+     * @param infrastructureId the identifier of the infrastructure
+     * @param instance the identifier or the tag of the instance
+     * @param termination the call to the cloud provider that terminates the
+     *                    instance
+     * @return a future completed once the instance is terminated
+     */
+    protected CompletableFuture<Void> queueInstanceTermination(final String infrastructureId, final String instance,
+            final Runnable termination) {
+        return getInstanceTerminationQueue(infrastructureId).submit(infrastructureId, instance, termination);
+    }
+
+    /**
+     * @return the number of instance terminations queued or running
+     */
+    protected int getInstanceTerminationBacklog() {
+        InstanceTerminationQueue queue = instanceTerminationQueue;
+        return queue == null ? 0 : queue.getBacklog();
+    }
+
+    private InstanceTerminationQueue getInstanceTerminationQueue(String infrastructureId) {
+        InstanceTerminationQueue queue = instanceTerminationQueue;
+        if (queue == null) {
+            synchronized (this) {
+                queue = instanceTerminationQueue;
+                if (queue == null) {
+                    queue = new InstanceTerminationQueue(infrastructureId);
+                    instanceTerminationQueue = queue;
+                }
+            }
+        }
+        return queue;
+    }
+
+    private void applyPersistedInfraVariablesUpdates(List<Runnable> updates) {
+        try {
+            setPersistedInfraVariable(() -> {
+                compactPersistedInfraVariables();
+                for (Runnable update : updates) {
+                    try {
+                        update.run();
+                    } catch (RuntimeException e) {
+                        logger.error("Failed to apply a change of the node bookkeeping", e);
+                    }
+                }
+                logger.debug(updates.size() + " changes of the node bookkeeping saved in a single write");
+                return null;
+            });
+        } finally {
+            runActionsAfterPersistAndLogFailure();
+        }
+    }
+
+    /**
+     * Apply a change of the node bookkeeping made during a recovery of the
+     * nodes, without saving it. The change is applied within the exclusive
+     * bookkeeping lock, which keeps out all the readers of the runtime
+     * variables, and within the read lock of the runtime variables, which
+     * keeps a concurrent save from writing a change half-applied. The actions
+     * queued by the change run right away, they do not wait for the end of
+     * the recovery.
+     */
+    private void applyPersistedInfraVariablesUpdateInMemory(Runnable update) {
+        Lock lock = getBookkeepingLock().writeLock();
+        lock.lock();
+        try {
+            super.getPersistedInfraVariable(() -> {
+                compactPersistedInfraVariables();
+                try {
+                    update.run();
+                } catch (RuntimeException e) {
+                    logger.error("Failed to apply a change of the node bookkeeping", e);
+                }
+                return null;
+            });
+        } finally {
+            lock.unlock();
+            runActionsAfterPersistAndLogFailure();
+        }
+    }
+
+    /**
+     * Read the runtime variables within the read lock, and within the shared
+     * bookkeeping lock so that a change applied during a recovery of the nodes
+     * is never read half-applied.
+     */
+    @Override
+    protected <T> T getPersistedInfraVariable(PersistedInfraVariablesHandler<T> handler) {
+        Lock lock = getBookkeepingLock().readLock();
+        lock.lock();
+        try {
+            return super.getPersistedInfraVariable(handler);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Change the runtime variables within the write lock and save them. The
+     * shared bookkeeping lock is taken first, as for the readers, so that the
+     * two locks are always taken in the same order.
+     */
+    @Override
+    protected <T> T setPersistedInfraVariable(PersistedInfraVariablesHandler<T> handler) {
+        Lock lock = getBookkeepingLock().readLock();
+        lock.lock();
+        try {
+            return super.setPersistedInfraVariable(handler);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private ReentrantReadWriteLock getBookkeepingLock() {
+        ReentrantReadWriteLock lock = bookkeepingLock;
+        if (lock == null) {
+            synchronized (this) {
+                lock = bookkeepingLock;
+                if (lock == null) {
+                    lock = new ReentrantReadWriteLock();
+                    bookkeepingLock = lock;
+                }
+            }
+        }
+        return lock;
+    }
+
+    private void runActionsAfterPersistAndLogFailure() {
+        try {
+            runActionsAfterPersist();
+        } catch (RuntimeException e) {
+            // the changes may come from other threads, there is no caller to report to
+            logger.error("Failed to run an action after saving the node bookkeeping", e);
+        }
     }
 
     @Override
     protected void initializePersistedInfraVariables() {
-        persistedInfraVariables.put(NODES_PER_INSTANCES_KEY, Maps.newHashMap(nodesPerInstance));
-        persistedInfraVariables.put(NB_REMOVED_NODES_PER_INSTANCE_KEY, Maps.newHashMap(nbRemovedNodesPerInstance));
-        persistedInfraVariables.put(INSTANCES_WITHOUT_NODES_MAP_KEY, Maps.newHashMap(instancesWithoutNodesMap));
+        persistedInfraVariables.put(NODES_PER_INSTANCES_KEY, new CompactNodesPerInstanceMap(nodesPerInstance));
+        persistedInfraVariables.put(NB_REMOVED_NODES_PER_INSTANCE_KEY,
+                                    new CompactCountPerInstanceMap(nbRemovedNodesPerInstance));
+        persistedInfraVariables.put(INSTANCES_WITHOUT_NODES_MAP_KEY,
+                                    new CompactCountPerInstanceMap(instancesWithoutNodesMap));
         persistedInfraVariables.put(INFRASTRUCTURE_CREATED_FLAG_KEY, false);
         persistedInfraVariables.put(NB_ACQUIRED_NODES_KEY, nbOfAcquiredNodes);
+        persistedInfraVariables.put(BOOKKEEPING_FORMAT_VERSION_KEY, BOOKKEEPING_FORMAT_VERSION);
+        persistedInfraVariables.put(WARM_POOL_INSTANCES_KEY, new HashSet<String>());
+    }
+
+    /**
+     * Start the recovery of the nodes of the node source. Until the recovery
+     * ends, the changes of the node bookkeeping made by the down and
+     * reconnected nodes are applied right away to the recovered runtime
+     * variables, but they are not saved: they are all saved in a single write
+     * at the end of the recovery. The recovery ends with
+     * {@link #endNodesRecovery()}, called when a deployment of nodes starts,
+     * or once no node event happened during the period configured by
+     * {@link org.ow2.proactive.resourcemanager.nodesource.infrastructure.util.NSProperties#NODES_RECOVERY_QUIET_PERIOD}.
+     * It is started automatically by the first down node notified without
+     * node object, which only happens during a recovery of the resource
+     * manager.
+     */
+    protected void startNodesRecovery() {
+        if (getPersistedInfraVariablesWriteBehind().suspend()) {
+            logger.info("Recovery of the nodes of the node source started, the node bookkeeping is saved at the end");
+        }
+    }
+
+    /**
+     * End the recovery of the nodes of the node source, and save the node
+     * bookkeeping changed during the recovery in a single write. It must not
+     * be called within the lock of the runtime variables.
+     */
+    protected void endNodesRecovery() {
+        getPersistedInfraVariablesWriteBehind().resume();
+    }
+
+    protected boolean isNodesRecoveryInProgress() {
+        return getPersistedInfraVariablesWriteBehind().isSuspended();
     }
 
     /**
@@ -232,13 +635,17 @@ public abstract class AbstractAddonInfrastructure extends InfrastructureManager
      * @return the identifier of the instance
      */
     protected String getInstanceIdProperty(Node node) throws RMException {
-        String instanceId = tryToFindInstanceIdOfNode(node.getNodeInformation().getName());
+        String nodeName = node.getNodeInformation().getName();
+        String instanceId = findIndexedInstanceIdOfNode(nodeName);
         if (instanceId == null) {
             try {
-                return node.getProperty(getInstanceIdNodeProperty());
+                instanceId = node.getProperty(getInstanceIdNodeProperty());
             } catch (ProActiveException e) {
                 throw new RMException(e);
             }
+            if (instanceId == null) {
+                instanceId = tryToFindInstanceIdOfNode(nodeName);
+            }
         }
         return instanceId;
     }
@@ -266,6 +673,7 @@ public abstract class AbstractAddonInfrastructure extends InfrastructureManager
      */
     @SuppressWarnings("unchecked")
     protected Map<String, Set<String>> getNodesPerInstancesMapCopy() {
+        flushPersistedInfraVariables();
         return getPersistedInfraVariable(() -> {
             nodesPerInstance = (Map<String, Set<String>>) persistedInfraVariables.get(NODES_PER_INSTANCES_KEY);
             return new HashMap<>(nodesPerInstance);
@@ -280,25 +688,41 @@ public abstract class AbstractAddonInfrastructure extends InfrastructureManager
      * @param instanceId the identifier of the instance
      * @param nodeName the name of the new node that belongs to this instance
      */
-    @SuppressWarnings("unchecked")
     protected void addNewNodeForInstance(final String instanceId, final String nodeName) {
-        setPersistedInfraVariable(() -> {
+        addNewNodesForInstance(instanceId, Collections.singleton(nodeName));
+    }
+
+    /**
+     * Puts the name of several nodes that arrive together for the given
+     * instance, typically the nodes started by the same node startup script,
+     * within a single write lock and a single save of the nodesPerInstance
+     * map in database.
+     * @param instanceId the identifier of the instance
+     * @param nodeNames the name of the new nodes that belong to this instance
+     */
+    @SuppressWarnings("unchecked")
+    protected void addNewNodesForInstance(final String instanceId, final Collection<String> nodeNames) {
+        if (nodeNames.isEmpty()) {
+            return;
+        }
+        updatePersistedInfraVariables(() -> {
 
             // first read from the runtime variables map
             nodesPerInstance = (Map<String, Set<String>>) persistedInfraVariables.get(NODES_PER_INSTANCES_KEY);
 
             // make modifications to the nodesPerInstance map
-            if (!nodesPerInstance.containsKey(instanceId)) {
-                nodesPerInstance.put(instanceId, new HashSet<String>());
+            Set<String> nodesOfInstance = nodesPerInstance.computeIfAbsent(instanceId, id -> new HashSet<>());
+            Map<String, String> nodesIndex = getInstanceIdPerNodeName(nodesPerInstance);
+            for (String nodeName : nodeNames) {
+                if (nodesOfInstance.add(nodeName)) {
+                    // the map is modified in place in the runtime variables,
+                    // which are saved in database once, at the end of the lock
+                    incrementNumberOfAcquiredNodes();
+                }
+                nodesIndex.put(nodeName, instanceId);
+                logger.info("Node registered: " + nodeName);
             }
-            nodesPerInstance.get(instanceId).add(nodeName);
-            logger.info("Node registered: " + nodeName);
-
-            // finally write to the runtime variable map
-            incrementNumberOfAcquiredNodesWithLockAndPersist();
-            persistedInfraVariables.put(NODES_PER_INSTANCES_KEY, Maps.newHashMap(nodesPerInstance));
-
-            return null;
+            getAcquisitionDemandEstimator().recordNodesAcquired(nodeNames, System.currentTimeMillis());
         });
     }
 
@@ -314,34 +738,84 @@ public abstract class AbstractAddonInfrastructure extends InfrastructureManager
      * @param terminateInstanceIfEmpty whether the instance termination will 
      *                                 be requested to the cloud provider
      */
-    @SuppressWarnings("unchecked")
     protected void unregisterNodeAndRemoveInstanceIfNeeded(final String instanceId, final String nodeName,
             final String infrastructureId, final boolean terminateInstanceIfEmpty) {
-        setPersistedInfraVariable(() -> {
-            // first read from the runtime variables map
-            nodesPerInstance = (Map<String, Set<String>>) persistedInfraVariables.get(NODES_PER_INSTANCES_KEY);
-            // make modifications to the nodesPerInstance map
-            if (nodesPerInstance.get(instanceId) != null) {
-                nodesPerInstance.get(instanceId).remove(nodeName);
-                logger.info("Removed node: " + nodeName);
-                if (nodesPerInstance.get(instanceId).isEmpty()) {
-                    if (terminateInstanceIfEmpty) {
-                        connectorIaasController.terminateInstance(infrastructureId, instanceId);
-                        logger.info("Instance terminated: " + instanceId);
-                    }
-                    nodesPerInstance.remove(instanceId);
-                    logger.info("Removed instance : " + instanceId);
-                }
-                // finally write to the runtime variable map
+        unregisterNodesAndRemoveInstanceIfNeeded(instanceId,
+                                                 Collections.singleton(nodeName),
+                                                 infrastructureId,
+                                                 terminateInstanceIfEmpty);
+    }
 
-                persistedInfraVariables.put(NODES_PER_INSTANCES_KEY, Maps.newHashMap(nodesPerInstance));
+    /**
+     * Removes the name of several nodes that leave the given instance
+     * together, within a single write lock and a single save of the
+     * nodesPerInstance map in database, and call the instance termination
+     * mechanism if there no more nodes attached to this instance and if the
+     * terminate instance flag is set. The termination is queued once the map
+     * is saved, outside of the write lock. Infrastructures that need a
+     * specific termination or bookkeeping override this method.
+     * @param instanceId the identifier of the instance
+     * @param nodeNames the name of the nodes that belong to this instance
+     * @param infrastructureId the identifier of the infrastructure
+     * @param terminateInstanceIfEmpty whether the instance termination will
+     *                                 be requested to the cloud provider
+     */
+    protected void unregisterNodesAndRemoveInstanceIfNeeded(final String instanceId,
+            final Collection<String> nodeNames, final String infrastructureId,
+            final boolean terminateInstanceIfEmpty) {
+        updatePersistedInfraVariables(() -> removeNodesOfInstance(instanceId, nodeNames, emptyInstanceId -> {
+            if (terminateInstanceIfEmpty) {
+                runAfterPersist(() -> queueInstanceTermination(infrastructureId, emptyInstanceId, () -> {
+                    connectorIaasController.terminateInstance(infrastructureId, emptyInstanceId);
+                    logger.info("Instance terminated: " + emptyInstanceId);
+                }));
+            }
+        }));
+    }
 
-            } else {
-                logger.error("Cannot remove node " + nodeName + " because instance " + instanceId +
-                             " is not registered");
+    /**
+     * Removes node name entries for the given instance, and the instance
+     * itself if there are no more nodes attached to it. This method must be
+     * called within the write lock exposed by the super class, the
+     * nodesPerInstance map is saved in database at the end of the lock.
+     * @param instanceId the identifier of the instance
+     * @param nodeNames the name of the nodes that belong to this instance
+     * @param emptyInstanceHandler called with the identifier of the instance
+     *                             when its last node is removed, before the
+     *                             instance is removed
+     * @return the number of nodes that were registered on the instance, so
+     * that were removed
+     */
+    @SuppressWarnings("unchecked")
+    protected int removeNodesOfInstance(final String instanceId, final Collection<String> nodeNames,
+            final Consumer<String> emptyInstanceHandler) {
+        // first read from the runtime variables map
+        nodesPerInstance = (Map<String, Set<String>>) persistedInfraVariables.get(NODES_PER_INSTANCES_KEY);
+        Set<String> nodesOfInstance = nodesPerInstance.get(instanceId);
+        if (nodesOfInstance == null) {
+            logger.error("Cannot remove nodes " + nodeNames + " because instance " + instanceId +
+                         " is not registered");
+            return 0;
+        }
+        // make modifications to the nodesPerInstance map
+        Map<String, String> nodesIndex = getInstanceIdPerNodeName(nodesPerInstance);
+        List<String> removedNodes = new ArrayList<>(nodeNames.size());
+        for (String nodeName : nodeNames) {
+            if (nodesOfInstance.remove(nodeName)) {
+                removedNodes.add(nodeName);
+                logger.info("Removed node: " + nodeName);
             }
-            return null;
-        });
+            nodesIndex.remove(nodeName, instanceId);
+        }
+        getAcquisitionDemandEstimator().recordNodesRemoved(removedNodes, System.currentTimeMillis());
+        if (nodesOfInstance.isEmpty()) {
+            logger.info("Instance " + instanceId + " is empty");
+            emptyInstanceHandler.accept(instanceId);
+            nodesPerInstance.remove(instanceId);
+            logger.info("Removed instance: " + instanceId);
+        }
+        // the map is modified in place in the runtime variables
+        return removedNodes.size();
     }
 
     /**
@@ -356,6 +830,10 @@ public abstract class AbstractAddonInfrastructure extends InfrastructureManager
      * the infrastructureCreatedFlag was updated
      */
     protected boolean expectInstancesAlreadyCreated(final boolean expected, final boolean updated) {
+        // a deployment phase starts or ends, so the recovery of the nodes is
+        // over, if any, and the pending changes are saved
+        endNodesRecovery();
+        flushPersistedInfraVariables();
         return setPersistedInfraVariable(() -> {
             boolean infraCreated = (boolean) persistedInfraVariables.get(INFRASTRUCTURE_CREATED_FLAG_KEY);
             if (infraCreated == expected) {
@@ -373,6 +851,7 @@ public abstract class AbstractAddonInfrastructure extends InfrastructureManager
      */
     @SuppressWarnings("unchecked")
     protected Map<String, Integer> getInstancesWithoutNodesMapCopy() {
+        flushPersistedInfraVariables();
         return getPersistedInfraVariable(() -> {
             instancesWithoutNodesMap = ((Map<String, Integer>) persistedInfraVariables.get(INSTANCES_WITHOUT_NODES_MAP_KEY));
             return new HashMap<>(instancesWithoutNodesMap);
@@ -385,6 +864,7 @@ public abstract class AbstractAddonInfrastructure extends InfrastructureManager
      */
     @SuppressWarnings("unchecked")
     protected void clearInstancesWithoutNodesMap() {
+        flushPersistedInfraVariables();
         setPersistedInfraVariable(() -> {
             ((Map<String, Integer>) persistedInfraVariables.get(INSTANCES_WITHOUT_NODES_MAP_KEY)).clear();
             return null;
@@ -398,12 +878,265 @@ public abstract class AbstractAddonInfrastructure extends InfrastructureManager
      */
     @SuppressWarnings("unchecked")
     protected void removeFromInstancesWithoutNodesMap(final String instanceId) {
-        setPersistedInfraVariable(() -> {
-            ((Map<String, Integer>) persistedInfraVariables.get(INSTANCES_WITHOUT_NODES_MAP_KEY)).remove(instanceId);
-            return null;
+        updatePersistedInfraVariables(() -> ((Map<String, Integer>) persistedInfraVariables.get(INSTANCES_WITHOUT_NODES_MAP_KEY)).remove(instanceId));
+    }
+
+    /**
+     * Create booted instances on which no node is deployed, to fill the warm
+     * pool. This is called in the background, by
+     * {@link #refillWarmPool(Map, int)}. The infrastructures that do not
+     * support the warm pool keep this default implementation, which creates
+     * nothing.
+     * @param nbInstances the number of instances to create
+     * @return the identifiers of the created instances
+     */
+    protected Set<String> createWarmPoolInstances(int nbInstances) {
+        return Collections.emptySet();
+    }
+
+    /**
+     * Take instances out of the warm pool, to deploy nodes on them by running
+     * the startup script.
+     * @param nbInstances the number of instances wanted
+     * @return the identifiers of at most nbInstances instances of the pool,
+     * that are not part of the pool anymore
+     */
+    protected List<String> takeWarmPoolInstances(final int nbInstances) {
+        if (nbInstances <= 0) {
+            return Collections.emptyList();
+        }
+        flushPersistedInfraVariables();
+        return setPersistedInfraVariable(() -> {
+            List<String> takenInstances = new ArrayList<>(nbInstances);
+            Iterator<String> warmInstances = getWarmPoolInstances().iterator();
+            while (warmInstances.hasNext() && takenInstances.size() < nbInstances) {
+                takenInstances.add(warmInstances.next());
+                warmInstances.remove();
+            }
+            return takenInstances;
+        });
+    }
+
+    /**
+     * Record an acquisition of the dynamic policy in the history used to
+     * predict the next ones.
+     * @param numberOfNodes the number of nodes requested
+     */
+    protected void recordAcquisitionRequest(int numberOfNodes) {
+        getAcquisitionDemandEstimator().recordRequest(System.currentTimeMillis(), numberOfNodes);
+    }
+
+    /**
+     * Deploy the nodes requested by the dynamic policy in the background, by
+     * rounds. The requests received while a round is running are not dropped:
+     * they are merged into the next round, summing the numbers of nodes of
+     * the requests with the same node configuration. The number of nodes of
+     * a merged round is reduced so that the node source does not exceed the
+     * maximal number of nodes of the policy.
+     * @param numberOfNodes the number of nodes requested
+     * @param nodeConfiguration the node configuration of the request
+     * @param deploymentRound deploys the number of nodes of a round with its
+     *                        node configuration
+     */
+    protected void acquireNodesByRounds(final int numberOfNodes, final Map<String, ?> nodeConfiguration,
+            final BiConsumer<Integer, Map<String, ?>> deploymentRound) {
+        endNodesRecovery();
+        final AcquireRequestQueue queue = getAcquireRequestQueue();
+        if (!queue.add(numberOfNodes, nodeConfiguration)) {
+            logger.info(String.format("Infrastructure is busy, the acquisition of %d nodes is merged into the next deployment round.",
+                                      numberOfNodes));
+            return;
+        }
+        try {
+            nodeSource.executeInParallel(() -> deployAcquireRequestsByRounds(queue, deploymentRound));
+        } catch (RuntimeException e) {
+            // nobody drains the queue, the requests merged in the meantime are
+            // dropped so that the next request starts a new round
+            logger.error(String.format("The deployment rounds cannot be started, %d acquisitions dropped.",
+                                       queue.clear()),
+                         e);
+            throw e;
+        }
+    }
+
+    private void deployAcquireRequestsByRounds(AcquireRequestQueue queue,
+            BiConsumer<Integer, Map<String, ?>> deploymentRound) {
+        AcquireRequestQueue.AcquireRequest request;
+        while ((request = queue.poll()) != null) {
+            int nbNodesOfRound = request.getNumberOfNodes();
+            Map<String, ?> roundConfiguration = request.getNodeConfiguration();
+            if (roundConfiguration.containsKey(MAX_NODES_KEY)) {
+                // the previous rounds changed the number of nodes since the
+                // total number of nodes of the request was computed
+                int nbExistingNodes = nodeSource.getNodesCount();
+                nbNodesOfRound = Math.min(nbNodesOfRound,
+                                          (Integer) roundConfiguration.get(MAX_NODES_KEY) - nbExistingNodes);
+                Map<String, Object> updatedConfiguration = new HashMap<>(roundConfiguration);
+                updatedConfiguration.put(TOTAL_NUMBER_OF_NODES_KEY, nbExistingNodes + nbNodesOfRound);
+                roundConfiguration = updatedConfiguration;
+            }
+            if (request.getNumberOfMergedRequests() > 1) {
+                logger.info(String.format("%d acquisitions merged into a deployment round of %d nodes.",
+                                          request.getNumberOfMergedRequests(),
+                                          nbNodesOfRound));
+            }
+            if (nbNodesOfRound <= 0) {
+                logger.info("The maximal number of nodes is reached, deployment round skipped.");
+                continue;
+            }
+            try {
+                deploymentRound.accept(nbNodesOfRound, roundConfiguration);
+            } catch (Exception e) {
+                logger.error("Error during node acquisition", e);
+            }
+        }
+    }
+
+    /**
+     * Bring the warm pool to its target size in the background. The target
+     * size is the size configured by
+     * {@link org.ow2.proactive.resourcemanager.nodesource.infrastructure.util.NSProperties#WARM_POOL_SIZE},
+     * or the number of instances needed by the nodes predicted for the next
+     * slot of the day when it is higher, see
+     * {@link org.ow2.proactive.resourcemanager.nodesource.infrastructure.util.NSProperties#DEMAND_PREDICTION_SLOT_DURATION}.
+     * The instances beyond the target size, created for a peak that is over,
+     * are terminated. Nothing is done when neither the pool nor the
+     * prediction is enabled, or when a refill is already running.
+     * @param nodeParameters the parameters of the last acquisition, whose
+     *                       maximum number of nodes bounds the predicted nodes
+     * @param numberOfNodesPerInstance the number of nodes deployed on each
+     *                                 instance
+     */
+    protected void refillWarmPool(final Map<String, ?> nodeParameters, final int numberOfNodesPerInstance) {
+        WarmInstancePool pool = getWarmInstancePool();
+        AcquisitionDemandEstimator estimator = getAcquisitionDemandEstimator();
+        if ((!pool.isEnabled() && !estimator.isEnabled()) || !pool.startRefill()) {
+            return;
+        }
+        try {
+            nodeSource.executeInParallel(() -> {
+                try {
+                    int targetSize = Math.max(pool.getSize(),
+                                              getPredictedInstancesNumber(estimator,
+                                                                          nodeParameters,
+                                                                          numberOfNodesPerInstance));
+                    int nbWarmInstances = getWarmPoolInstancesNumber();
+                    if (nbWarmInstances < targetSize) {
+                        Set<String> createdInstances = createWarmPoolInstances(targetSize - nbWarmInstances);
+                        setPersistedInfraVariable(() -> getWarmPoolInstances().addAll(createdInstances));
+                        logger.info("Instances added to the warm pool: " + createdInstances);
+                    } else if (nbWarmInstances > targetSize) {
+                        String infrastructureId = getInfrastructureId();
+                        List<String> excessInstances = takeWarmPoolInstances(nbWarmInstances - targetSize);
+                        logger.info("Instances removed from the warm pool: " + excessInstances);
+                        for (String excessInstance : excessInstances) {
+                            queueInstanceTermination(infrastructureId,
+                                                     excessInstance,
+                                                     () -> connectorIaasController.terminateInstance(infrastructureId,
+                                                                                                     excessInstance));
+                        }
+                    }
+                } catch (RuntimeException e) {
+                    logger.error("Failed to refill the warm pool", e);
+                } finally {
+                    pool.endRefill();
+                }
+            });
+        } catch (RuntimeException e) {
+            pool.endRefill();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the number of instances needed by the nodes predicted for the
+     * next slot of the day, without exceeding the maximum number of nodes of
+     * the dynamic policy. It is 0 when the acquisition does not give the
+     * maximum number of nodes.
+     */
+    private int getPredictedInstancesNumber(AcquisitionDemandEstimator estimator, Map<String, ?> nodeParameters,
+            int numberOfNodesPerInstance) {
+        if (nodeParameters == null || !nodeParameters.containsKey(MAX_NODES_KEY) ||
+            !nodeParameters.containsKey(TOTAL_NUMBER_OF_NODES_KEY) || numberOfNodesPerInstance <= 0) {
+            return 0;
+        }
+        int predictedNodes = estimator.predictNodes(System.currentTimeMillis());
+        if (predictedNodes <= 0) {
+            return 0;
+        }
+        int nbAvailableNodes = (Integer) nodeParameters.get(MAX_NODES_KEY) -
+                               (Integer) nodeParameters.get(TOTAL_NUMBER_OF_NODES_KEY);
+        int predictedInstances = (predictedNodes + numberOfNodesPerInstance - 1) / numberOfNodesPerInstance;
+        return Math.max(0, Math.min(predictedInstances, nbAvailableNodes / numberOfNodesPerInstance));
+    }
+
+    /**
+     * @return the number of instances in the warm pool
+     */
+    protected int getWarmPoolInstancesNumber() {
+        return getPersistedInfraVariable(() -> {
+            Set<?> warmInstances = (Set<?>) persistedInfraVariables.get(WARM_POOL_INSTANCES_KEY);
+            return warmInstances == null ? 0 : warmInstances.size();
         });
     }
 
+    /**
+     * @return the set of the instances of the warm pool, created if the
+     * runtime variables were saved by a version without warm pool. Must be
+     * called within the write lock.
+     */
+    @SuppressWarnings("unchecked")
+    private Set<String> getWarmPoolInstances() {
+        Set<String> warmInstances = (Set<String>) persistedInfraVariables.get(WARM_POOL_INSTANCES_KEY);
+        if (warmInstances == null) {
+            warmInstances = new HashSet<>();
+            persistedInfraVariables.put(WARM_POOL_INSTANCES_KEY, (Serializable) warmInstances);
+        }
+        return warmInstances;
+    }
+
+    private AcquisitionDemandEstimator getAcquisitionDemandEstimator() {
+        AcquisitionDemandEstimator estimator = acquisitionDemandEstimator;
+        if (estimator == null) {
+            synchronized (this) {
+                estimator = acquisitionDemandEstimator;
+                if (estimator == null) {
+                    estimator = AcquisitionDemandEstimator.fromConfiguration();
+                    acquisitionDemandEstimator = estimator;
+                }
+            }
+        }
+        return estimator;
+    }
+
+    private AcquireRequestQueue getAcquireRequestQueue() {
+        AcquireRequestQueue queue = acquireRequestQueue;
+        if (queue == null) {
+            synchronized (this) {
+                queue = acquireRequestQueue;
+                if (queue == null) {
+                    queue = new AcquireRequestQueue();
+                    acquireRequestQueue = queue;
+                }
+            }
+        }
+        return queue;
+    }
+
+    private WarmInstancePool getWarmInstancePool() {
+        WarmInstancePool pool = warmInstancePool;
+        if (pool == null) {
+            synchronized (this) {
+                pool = warmInstancePool;
+                if (pool == null) {
+                    pool = WarmInstancePool.fromConfiguration();
+                    warmInstancePool = pool;
+                }
+            }
+        }
+        return pool;
+    }
+
     protected boolean handleScriptNotExecutedException(boolean existPersistedInstanceIds, String currentInstanceId,
             ScriptNotExecutedException exception) {
         boolean acquireNodeTriggered = false;
@@ -424,6 +1157,19 @@ public abstract class AbstractAddonInfrastructure extends InfrastructureManager
         return acquireNodeTriggered;
     }
 
+    /**
+     * @param throwable the failure of an asynchronous script execution
+     * @return the {@link ScriptNotExecutedException} wrapped in the failure, or a new one wrapping its cause
+     */
+    protected static ScriptNotExecutedException toScriptNotExecutedException(Throwable throwable) {
+        Throwable cause = throwable instanceof CompletionException ? throwable.getCause() : throwable;
+        if (cause instanceof ScriptNotExecutedException) {
+            return (ScriptNotExecutedException) cause;
+        }
+        return new ScriptNotExecutedException(cause instanceof Exception ? (Exception) cause
+                                                                         : new RuntimeException(cause));
+    }
+
     /**
      * Calculate the required number of instances to deploy, with numberOfNodesPerInstance nodes on each instance,
      * while conforming to the constraint of max instances number and max nodes number.
@@ -492,12 +1238,18 @@ public abstract class AbstractAddonInfrastructure extends InfrastructureManager
     }
 
     private int getExistingInstancesNumber() {
-        return getNodesPerInstancesMapCopy().size();
+        flushPersistedInfraVariables();
+        return getPersistedInfraVariable(() -> ((Map<?, ?>) persistedInfraVariables.get(NODES_PER_INSTANCES_KEY)).size());
     }
 
+    @SuppressWarnings("unchecked")
     protected boolean existRegisteredNodesOnInstance(String instanceTag) {
-        nodesPerInstance = getNodesPerInstancesMap();
-        return nodesPerInstance.get(instanceTag) != null && !nodesPerInstance.get(instanceTag).isEmpty();
+        // the map is modified in place, so it must be read within the lock
+        flushPersistedInfraVariables();
+        return getPersistedInfraVariable(() -> {
+            nodesPerInstance = (Map<String, Set<String>>) persistedInfraVariables.get(NODES_PER_INSTANCES_KEY);
+            return nodesPerInstance.get(instanceTag) != null && !nodesPerInstance.get(instanceTag).isEmpty();
+        });
     }
 
     /**
@@ -509,7 +1261,7 @@ public abstract class AbstractAddonInfrastructure extends InfrastructureManager
     @SuppressWarnings("unchecked")
     private void incrementRemovedNodesAndSetInstanceWithoutNodesIfNeeded(final String nodeName,
             final String instanceId) {
-        setPersistedInfraVariable(() -> {
+        updatePersistedInfraVariables(() -> {
             // first read from the runtime variables map
             nodesPerInstance = (Map<String, Set<String>>) persistedInfraVariables.get(NODES_PER_INSTANCES_KEY);
             nbRemovedNodesPerInstance = (Map<String, Integer>) persistedInfraVariables.get(NB_REMOVED_NODES_PER_INSTANCE_KEY);
@@ -538,11 +1290,7 @@ public abstract class AbstractAddonInfrastructure extends InfrastructureManager
             }
             logDataStructureContent("Node " + nodeName + " added to the removed nodes set");
 
-            // finally write to the runtime variable map
-            persistedInfraVariables.put(NODES_PER_INSTANCES_KEY, Maps.newHashMap(nodesPerInstance));
-            persistedInfraVariables.put(NB_REMOVED_NODES_PER_INSTANCE_KEY, Maps.newHashMap(nbRemovedNodesPerInstance));
-            persistedInfraVariables.put(INSTANCES_WITHOUT_NODES_MAP_KEY, Maps.newHashMap(instancesWithoutNodesMap));
-            return null;
+            // the maps are modified in place in the runtime variables
         });
     }
 
@@ -553,7 +1301,7 @@ public abstract class AbstractAddonInfrastructure extends InfrastructureManager
      */
     @SuppressWarnings("unchecked")
     private void decrementNbRemovedNodesAndRegisterNode(final String nodeName, final String instanceId) {
-        setPersistedInfraVariable(() -> {
+        updatePersistedInfraVariables(() -> {
             // first read from the runtime variables map
             nodesPerInstance = (Map<String, Set<String>>) persistedInfraVariables.get(NODES_PER_INSTANCES_KEY);
             nbRemovedNodesPerInstance = (Map<String, Integer>) persistedInfraVariables.get(NB_REMOVED_NODES_PER_INSTANCE_KEY);
@@ -566,31 +1314,54 @@ public abstract class AbstractAddonInfrastructure extends InfrastructureManager
                     int updatedNbRemovedNodes = nbRemovedNodesPerInstance.get(instanceId) - 1;
                     nbRemovedNodesPerInstance.put(instanceId, updatedNbRemovedNodes);
                     nodesPerInstance.get(instanceId).add(nodeName);
+                    getInstanceIdPerNodeName(nodesPerInstance).put(nodeName, instanceId);
                     logDataStructureContent("Node " + nodeName + " removed from the removed nodes set");
-
-                    // finally write to the runtime variable map
-                    persistedInfraVariables.put(NODES_PER_INSTANCES_KEY, Maps.newHashMap(nodesPerInstance));
-                    persistedInfraVariables.put(NB_REMOVED_NODES_PER_INSTANCE_KEY,
-                                                Maps.newHashMap(nbRemovedNodesPerInstance));
+                    // the maps are modified in place in the runtime variables
                 }
             } else {
                 logger.warn("Down node " + nodeName + " is trying to reconnect, but the instance " + instanceId +
                             " does not exist any more. Instance may be redeployed shortly.");
             }
+        });
+    }
+
+    /**
+     * Retrieve the instance identifier for a given node name in the index of
+     * the {@link AbstractAddonInfrastructure#nodesPerInstance} map.
+     * @param nodeName the name of the node
+     * @return the instance id under which the node is registered, or
+     * {@code null} if the node is not indexed
+     */
+    @SuppressWarnings("unchecked")
+    private String findIndexedInstanceIdOfNode(final String nodeName) {
+        return getPersistedInfraVariable(() -> {
+            Map<String, Set<String>> savedNodesPerInstance = (Map<String, Set<String>>) persistedInfraVariables.get(NODES_PER_INSTANCES_KEY);
+            String instanceId = getInstanceIdPerNodeName(savedNodesPerInstance).get(nodeName);
+            // the index is checked against the map, which may have been
+            // modified without the index
+            if (instanceId != null &&
+                savedNodesPerInstance.getOrDefault(instanceId, Collections.emptySet()).contains(nodeName)) {
+                return instanceId;
+            }
             return null;
         });
     }
 
     /**
      * Attempt to retrieve the instance identifier for a given node name. It
-     * looks into the {@link AbstractAddonInfrastructure#nodesPerInstance} map
+     * looks into the index of the {@link AbstractAddonInfrastructure#nodesPerInstance}
+     * map, and then into the map itself in case it was modified without the
+     * index, in which case the index is repaired.
      * @param nodeName
      * @return the instance id under which the node is registered, or
      * {@code null} if the node could not be found
      */
     @SuppressWarnings("unchecked")
-
     private String tryToFindInstanceIdOfNode(final String nodeName) {
+        String indexedInstanceId = findIndexedInstanceIdOfNode(nodeName);
+        if (indexedInstanceId != null) {
+            return indexedInstanceId;
+        }
         return getPersistedInfraVariable(() -> {
             // first read from the runtime variables map
             nodesPerInstance = (Map<String, Set<String>>) persistedInfraVariables.get(NODES_PER_INSTANCES_KEY);
@@ -598,13 +1369,34 @@ public abstract class AbstractAddonInfrastructure extends InfrastructureManager
             // through the map entries to find the key of this node
             // break as soon as possible because we are holding a lock
             for (Map.Entry<String, Set<String>> entry : nodesPerInstance.entrySet()) {
-                if (entry.getValue().contains(nodeName))
+                if (entry.getValue().contains(nodeName)) {
+                    getInstanceIdPerNodeName(nodesPerInstance).put(nodeName, entry.getKey());
                     return entry.getKey();
+                }
             }
             return null;
         });
     }
 
+    /**
+     * @return the index of the given nodes per instance map, built if the
+     * current index is not the one of this map
+     */
+    private Map<String, String> getInstanceIdPerNodeName(Map<String, Set<String>> indexedMap) {
+        Map<String, String> index = instanceIdPerNodeName;
+        if (index == null || indexedNodesPerInstance != indexedMap) {
+            index = new ConcurrentHashMap<>();
+            for (Map.Entry<String, Set<String>> entry : indexedMap.entrySet()) {
+                for (String nodeName : entry.getValue()) {
+                    index.put(nodeName, entry.getKey());
+                }
+            }
+            instanceIdPerNodeName = index;
+            indexedNodesPerInstance = indexedMap;
+        }
+        return index;
+    }
+
     private void logDataStructureContent(String action) {
         logger.info(action + " - node sets are now: nodes per instance=" + nodesPerInstance +
                     ", number of removed nodes per instance=" + nbRemovedNodesPerInstance + ", free instances map=" +
@@ -0,0 +1,128 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.resourcemanager.nodesource.infrastructure;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * Queue of the acquisitions requested by the dynamic policy while a deployment is running. The requests of the same
+ * node configuration are merged into a single request of the next deployment round, with the sum of their numbers of
+ * nodes, instead of being dropped because the infrastructure is busy. The node configurations are compared without
+ * their total number of nodes, which differs from a request to the next one. A single caller drains the queue at a
+ * time, see {@link AbstractAddonInfrastructure#acquireNodesByRounds}.
+ */
+class AcquireRequestQueue {
+
+    private final Map<Map<String, ?>, AcquireRequest> pendingRequests = new LinkedHashMap<>();
+
+    private boolean draining = false;
+
+    /**
+     * @return whether the caller is in charge of draining the queue, false if
+     * the request is merged into the round of the caller already draining it
+     */
+    synchronized boolean add(int numberOfNodes, Map<String, ?> nodeConfiguration) {
+        Map<String, Object> mergeKey = new HashMap<>(nodeConfiguration);
+        mergeKey.remove(AbstractAddonInfrastructure.TOTAL_NUMBER_OF_NODES_KEY);
+        AcquireRequest pendingRequest = pendingRequests.get(mergeKey);
+        if (pendingRequest == null) {
+            pendingRequests.put(mergeKey, new AcquireRequest(numberOfNodes, nodeConfiguration, 1));
+        } else {
+            // the latest configuration holds the latest total and maximal numbers of nodes
+            pendingRequests.put(mergeKey,
+                                new AcquireRequest(pendingRequest.getNumberOfNodes() + numberOfNodes,
+                                                   nodeConfiguration,
+                                                   pendingRequest.getNumberOfMergedRequests() + 1));
+        }
+        if (draining) {
+            return false;
+        }
+        draining = true;
+        return true;
+    }
+
+    /**
+     * @return the next request to deploy, or null when the queue is empty, in
+     * which case the caller is no longer in charge of draining it
+     */
+    synchronized AcquireRequest poll() {
+        Iterator<AcquireRequest> iterator = pendingRequests.values().iterator();
+        if (!iterator.hasNext()) {
+            draining = false;
+            return null;
+        }
+        AcquireRequest request = iterator.next();
+        iterator.remove();
+        return request;
+    }
+
+    /**
+     * Drop the pending requests, when the caller in charge of draining the
+     * queue cannot drain it, so that the next request starts a new round
+     * @return the number of requests dropped
+     */
+    synchronized int clear() {
+        int nbDroppedRequests = 0;
+        for (AcquireRequest request : pendingRequests.values()) {
+            nbDroppedRequests += request.getNumberOfMergedRequests();
+        }
+        pendingRequests.clear();
+        draining = false;
+        return nbDroppedRequests;
+    }
+
+    static class AcquireRequest {
+
+        private final int numberOfNodes;
+
+        private final Map<String, ?> nodeConfiguration;
+
+        private final int numberOfMergedRequests;
+
+        AcquireRequest(int numberOfNodes, Map<String, ?> nodeConfiguration, int numberOfMergedRequests) {
+            this.numberOfNodes = numberOfNodes;
+            this.nodeConfiguration = Collections.unmodifiableMap(nodeConfiguration);
+            this.numberOfMergedRequests = numberOfMergedRequests;
+        }
+
+        int getNumberOfNodes() {
+            return numberOfNodes;
+        }
+
+        Map<String, ?> getNodeConfiguration() {
+            return nodeConfiguration;
+        }
+
+        int getNumberOfMergedRequests() {
+            return numberOfMergedRequests;
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.resourcemanager.nodesource.infrastructure;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.configuration2.Configuration;
+import org.apache.commons.configuration2.ex.ConfigurationException;
+import org.apache.log4j.Logger;
+import org.ow2.proactive.resourcemanager.nodesource.infrastructure.util.NSProperties;
+
+
+/**
+ * Estimates the number of nodes a node source will be asked for in the near future, from the history of the
+ * acquisitions of its dynamic policy. The day is divided in slots of the configured duration, and the number of
+ * nodes requested during each slot is smoothed over the days, so that the daily peaks of the scheduled workloads are
+ * predicted one slot ahead. When the nodes live less than a slot, the nodes of the slot do not all run at the same
+ * time, and the prediction is reduced accordingly.
+ * <p>
+ * The history is kept in memory only: it starts again after a restart of the resource manager.
+ */
+class AcquisitionDemandEstimator {
+
+    private static final Logger logger = Logger.getLogger(AcquisitionDemandEstimator.class);
+
+    private static final long DEFAULT_SLOT_DURATION = 0;
+
+    private static final long DAY_DURATION = TimeUnit.DAYS.toMillis(1);
+
+    // weight of the last day in the smoothed demand of a slot, and of the last node in the smoothed node lifetime
+    private static final double SMOOTHING_FACTOR = 0.3;
+
+    private static Configuration nsConfig;
+
+    static {
+        try {
+            nsConfig = NSProperties.loadConfig();
+        } catch (ConfigurationException e) {
+            logger.error("Exception when loading NodeSource properties", e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    private final long slotDuration;
+
+    private final double[] smoothedNodesPerSlotOfDay;
+
+    private final Map<String, Long> acquisitionTimePerNodeName = new HashMap<>();
+
+    // the slot since the epoch in which the last requests were recorded, -1 before the first request
+    private long currentSlot = -1;
+
+    private int nodesRequestedInCurrentSlot = 0;
+
+    // 0 until the first node is removed
+    private double smoothedNodeLifetime = 0;
+
+    /**
+     * @param slotDuration the duration in milliseconds of the slots of the day, 0 disables the estimation
+     */
+    AcquisitionDemandEstimator(long slotDuration) {
+        this.slotDuration = Math.max(0, Math.min(slotDuration, DAY_DURATION));
+        this.smoothedNodesPerSlotOfDay = new double[isEnabled() ? (int) (DAY_DURATION / this.slotDuration) : 0];
+    }
+
+    static AcquisitionDemandEstimator fromConfiguration() {
+        return new AcquisitionDemandEstimator(nsConfig.getLong(NSProperties.DEMAND_PREDICTION_SLOT_DURATION,
+                                                               DEFAULT_SLOT_DURATION));
+    }
+
+    boolean isEnabled() {
+        return slotDuration > 0;
+    }
+
+    synchronized void recordRequest(long time, int nbNodes) {
+        if (!isEnabled() || nbNodes <= 0) {
+            return;
+        }
+        advanceTo(time);
+        nodesRequestedInCurrentSlot += nbNodes;
+    }
+
+    synchronized void recordNodesAcquired(Collection<String> nodeNames, long time) {
+        if (!isEnabled()) {
+            return;
+        }
+        for (String nodeName : nodeNames) {
+            acquisitionTimePerNodeName.putIfAbsent(nodeName, time);
+        }
+    }
+
+    synchronized void recordNodesRemoved(Collection<String> nodeNames, long time) {
+        if (!isEnabled()) {
+            return;
+        }
+        for (String nodeName : nodeNames) {
+            Long acquisitionTime = acquisitionTimePerNodeName.remove(nodeName);
+            if (acquisitionTime != null) {
+                long lifetime = Math.max(0, time - acquisitionTime);
+                smoothedNodeLifetime = smoothedNodeLifetime == 0 ? lifetime
+                                                                 : smooth(smoothedNodeLifetime, lifetime);
+            }
+        }
+    }
+
+    /**
+     * @param time the current time
+     * @return the number of nodes predicted to be requested during the next slot and running at the same time, 0 when
+     * the estimation is disabled
+     */
+    synchronized int predictNodes(long time) {
+        if (!isEnabled()) {
+            return 0;
+        }
+        advanceTo(time);
+        double predictedNodes = smoothedNodesPerSlotOfDay[getSlotOfDay(time / slotDuration + 1)];
+        if (smoothedNodeLifetime > 0 && smoothedNodeLifetime < slotDuration) {
+            predictedNodes *= smoothedNodeLifetime / slotDuration;
+        }
+        return (int) Math.round(predictedNodes);
+    }
+
+    /**
+     * Fold the nodes requested in the slots that are over into the smoothed demand of their slot of the day. The slots
+     * without request count as no demand, up to one day of them.
+     */
+    private void advanceTo(long time) {
+        long slot = time / slotDuration;
+        if (currentSlot < 0) {
+            currentSlot = slot;
+            return;
+        }
+        if (slot <= currentSlot) {
+            return;
+        }
+        foldSlot(currentSlot, nodesRequestedInCurrentSlot);
+        long lastSlotWithoutRequest = Math.min(slot - 1, currentSlot + smoothedNodesPerSlotOfDay.length - 1);
+        for (long slotWithoutRequest = currentSlot + 1; slotWithoutRequest <= lastSlotWithoutRequest;
+                slotWithoutRequest++) {
+            foldSlot(slotWithoutRequest, 0);
+        }
+        currentSlot = slot;
+        nodesRequestedInCurrentSlot = 0;
+    }
+
+    private void foldSlot(long slot, int nodesRequested) {
+        int slotOfDay = getSlotOfDay(slot);
+        smoothedNodesPerSlotOfDay[slotOfDay] = smooth(smoothedNodesPerSlotOfDay[slotOfDay], nodesRequested);
+    }
+
+    private int getSlotOfDay(long slot) {
+        return (int) (slot % smoothedNodesPerSlotOfDay.length);
+    }
+
+    private static double smooth(double smoothedValue, double newValue) {
+        return smoothedValue + SMOOTHING_FACTOR * (newValue - smoothedValue);
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.resourcemanager.nodesource.infrastructure;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.util.EntityUtils;
+
+
+/**
+ * Non-blocking counterpart of {@link RestClient}. The requests are sent on the shared non-blocking http client of
+ * the connector-iaas url, so that a pending request does not hold any thread: the returned futures are completed by
+ * the I/O dispatcher threads of the http client once the response is received. Callers must therefore not run
+ * blocking work directly in the callbacks of the returned futures.
+ */
+public class AsyncRestClient {
+
+    private final CloseableHttpAsyncClient httpClient;
+
+    private final String connectorIaasURL;
+
+    public AsyncRestClient(String connectorIaasURL) {
+        this(ConnectorIaasHttpClientPool.getAsyncHttpClient(connectorIaasURL), connectorIaasURL);
+    }
+
+    AsyncRestClient(CloseableHttpAsyncClient httpClient, String connectorIaasURL) {
+        this.httpClient = httpClient;
+        this.connectorIaasURL = connectorIaasURL;
+    }
+
+    public CompletableFuture<String> getInstancesByInfrastructure(String infrastructureId) {
+        HttpGet request = new HttpGet(connectorIaasURL + "/infrastructures/" + infrastructureId + "/instances");
+        request.setHeader("Accept", ContentType.APPLICATION_JSON.getMimeType());
+        return execute(request);
+    }
+
+    public CompletableFuture<String> postInstances(String infrastructureId, String instanceJson) {
+        HttpPost request = new HttpPost(connectorIaasURL + "/infrastructures/" + infrastructureId + "/instances");
+        request.setEntity(new StringEntity(instanceJson, ContentType.APPLICATION_JSON));
+        return execute(request);
+    }
+
+    public CompletableFuture<String> deleteInstance(String infrastructureId, String key, String value) {
+        try {
+            URI uri = new URIBuilder(connectorIaasURL + "/infrastructures/" + infrastructureId +
+                                     "/instances").addParameter(key, value).build();
+            HttpDelete request = new HttpDelete(uri);
+            request.setHeader("Accept", ContentType.APPLICATION_JSON.getMimeType());
+            return execute(request);
+        } catch (URISyntaxException e) {
+            return failedFuture(e);
+        }
+    }
+
+    public CompletableFuture<String> postScript(String infrastructureId, String key, String value, String scriptJson) {
+        try {
+            URI uri = new URIBuilder(connectorIaasURL + "/infrastructures/" + infrastructureId +
+                                     "/instances/scripts").addParameter(key, value).build();
+            HttpPost request = new HttpPost(uri);
+            request.setEntity(new StringEntity(scriptJson, ContentType.APPLICATION_JSON));
+            return execute(request);
+        } catch (URISyntaxException e) {
+            return failedFuture(e);
+        }
+    }
+
+    private CompletableFuture<String> execute(HttpUriRequest request) {
+        CompletableFuture<String> result = new CompletableFuture<>();
+        httpClient.execute(request, new FutureCallback<HttpResponse>() {
+            @Override
+            public void completed(HttpResponse response) {
+                try {
+                    result.complete(checkAndGetResponse(response));
+                } catch (IOException | RuntimeException e) {
+                    result.completeExceptionally(e);
+                }
+            }
+
+            @Override
+            public void failed(Exception e) {
+                result.completeExceptionally(e);
+            }
+
+            @Override
+            public void cancelled() {
+                result.cancel(false);
+            }
+        });
+        return result;
+    }
+
+    private String checkAndGetResponse(HttpResponse response) throws IOException {
+        String entity = response.getEntity() == null ? ""
+                                                     : EntityUtils.toString(response.getEntity(),
+                                                                            StandardCharsets.UTF_8);
+        int status = response.getStatusLine().getStatusCode();
+        if (status != HttpURLConnection.HTTP_OK) {
+            throw new ConnectorIaasHttpException(status, entity);
+        }
+        return entity;
+    }
+
+    private static <T> CompletableFuture<T> failedFuture(Throwable throwable) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        result.completeExceptionally(throwable);
+        return result;
+    }
+}
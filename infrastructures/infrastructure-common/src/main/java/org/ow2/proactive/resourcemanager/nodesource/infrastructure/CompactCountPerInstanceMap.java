@@ -0,0 +1,228 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.resourcemanager.nodesource.infrastructure;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+
+/**
+ * Compact map of a number per instance, such as the number of removed nodes per instance, for node sources with many
+ * instances. The numbers are stored as primitive ints in an open addressing table indexed by the interned instance
+ * identifiers, and the map is serialized as the list of the identifiers with their number. The map does not accept
+ * null numbers, and its entries cannot be removed through its views. The map is not thread-safe, it is guarded by the
+ * lock of the persisted infrastructure variables.
+ */
+public class CompactCountPerInstanceMap extends AbstractMap<String, Integer> implements Serializable {
+
+    // explicit, as the removed nodes counts of the existing node sources are read back from the database
+    private static final long serialVersionUID = 1L;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private transient String[] instanceIds;
+
+    private transient int[] counts;
+
+    private transient int size;
+
+    public CompactCountPerInstanceMap() {
+        clear();
+    }
+
+    public CompactCountPerInstanceMap(Map<String, Integer> countPerInstance) {
+        this();
+        putAll(countPerInstance);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean containsKey(Object instanceId) {
+        return instanceId instanceof String && instanceIds[indexOf((String) instanceId)] != null;
+    }
+
+    @Override
+    public Integer get(Object instanceId) {
+        if (!(instanceId instanceof String)) {
+            return null;
+        }
+        int index = indexOf((String) instanceId);
+        return instanceIds[index] == null ? null : counts[index];
+    }
+
+    @Override
+    public Integer put(String instanceId, Integer count) {
+        int index = indexOf(instanceId);
+        if (instanceIds[index] != null) {
+            int previousCount = counts[index];
+            counts[index] = count;
+            return previousCount;
+        }
+        instanceIds[index] = CompactNodesPerInstanceMap.intern(instanceId);
+        counts[index] = count;
+        size++;
+        // keep the table at most half full, so that the searches are short
+        if (size * 2 > instanceIds.length) {
+            resize(instanceIds.length * 2);
+        }
+        return null;
+    }
+
+    @Override
+    public Integer remove(Object instanceId) {
+        if (!(instanceId instanceof String)) {
+            return null;
+        }
+        int index = indexOf((String) instanceId);
+        if (instanceIds[index] == null) {
+            return null;
+        }
+        int removedCount = counts[index];
+        instanceIds[index] = null;
+        size--;
+        // move back the following entries of the cluster, so that a search never stops before its entry
+        int mask = instanceIds.length - 1;
+        int next = (index + 1) & mask;
+        while (instanceIds[next] != null) {
+            String movedInstanceId = instanceIds[next];
+            int movedCount = counts[next];
+            instanceIds[next] = null;
+            int newIndex = indexOf(movedInstanceId);
+            instanceIds[newIndex] = movedInstanceId;
+            counts[newIndex] = movedCount;
+            next = (next + 1) & mask;
+        }
+        return removedCount;
+    }
+
+    @Override
+    public void clear() {
+        instanceIds = new String[INITIAL_CAPACITY];
+        counts = new int[INITIAL_CAPACITY];
+        size = 0;
+    }
+
+    @Override
+    public Set<Entry<String, Integer>> entrySet() {
+        return new AbstractSet<Entry<String, Integer>>() {
+            @Override
+            public Iterator<Entry<String, Integer>> iterator() {
+                return new Iterator<Entry<String, Integer>>() {
+                    private int nextIndex = nextIndex(0);
+
+                    @Override
+                    public boolean hasNext() {
+                        return nextIndex < instanceIds.length;
+                    }
+
+                    @Override
+                    public Entry<String, Integer> next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        Entry<String, Integer> entry = new SimpleImmutableEntry<>(instanceIds[nextIndex],
+                                                                                  counts[nextIndex]);
+                        nextIndex = nextIndex(nextIndex + 1);
+                        return entry;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    private int nextIndex(int fromIndex) {
+        int index = fromIndex;
+        while (index < instanceIds.length && instanceIds[index] == null) {
+            index++;
+        }
+        return index;
+    }
+
+    /**
+     * @return the index of the instance in the table, or the index of the free slot where it would be put
+     */
+    private int indexOf(String instanceId) {
+        int mask = instanceIds.length - 1;
+        int hash = instanceId.hashCode();
+        int index = (hash ^ (hash >>> 16)) & mask;
+        while (instanceIds[index] != null && !instanceIds[index].equals(instanceId)) {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    private void resize(int capacity) {
+        String[] oldInstanceIds = instanceIds;
+        int[] oldCounts = counts;
+        instanceIds = new String[capacity];
+        counts = new int[capacity];
+        for (int i = 0; i < oldInstanceIds.length; i++) {
+            if (oldInstanceIds[i] != null) {
+                int index = indexOf(oldInstanceIds[i]);
+                instanceIds[index] = oldInstanceIds[i];
+                counts[index] = oldCounts[i];
+            }
+        }
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeInt(size);
+        for (int i = 0; i < instanceIds.length; i++) {
+            if (instanceIds[i] != null) {
+                out.writeUTF(instanceIds[i]);
+                out.writeInt(counts[i]);
+            }
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        int nbInstances = in.readInt();
+        clear();
+        for (int i = 0; i < nbInstances; i++) {
+            put(in.readUTF(), in.readInt());
+        }
+    }
+
+}
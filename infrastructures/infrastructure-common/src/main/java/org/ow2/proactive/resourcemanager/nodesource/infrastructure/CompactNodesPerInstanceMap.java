@@ -0,0 +1,410 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.resourcemanager.nodesource.infrastructure;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.Function;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+
+/**
+ * Compact map of the names of the nodes per instance, for node sources with many nodes. The nodes of an instance are
+ * typically named after the instance followed by a number, so the names of the nodes of each instance are stored as
+ * the common prefix of the names and a bit set of the node numbers. The other names are stored as they are. The
+ * instance identifiers are interned, so that they are shared with the other maps of the node bookkeeping.
+ * <p>
+ * The sets of the map are live views, modifiable like the sets of a {@link HashMap} of {@link HashSet}, and a set
+ * put in the map is copied. The map is serialized as the list of the instances with their prefix, the words of the
+ * bit set and the other names, instead of one serialized set per instance. The map is not thread-safe, it is guarded
+ * by the lock of the persisted infrastructure variables.
+ */
+public class CompactNodesPerInstanceMap extends AbstractMap<String, Set<String>> implements Serializable {
+
+    // the serialized form is saved with the node bookkeeping in database, it must stay readable across versions
+    private static final long serialVersionUID = 1L;
+
+    private static final Interner<String> instanceIds = Interners.newWeakInterner();
+
+    /**
+     * A node number is kept below 10^9 so that it fits in an int
+     */
+    private static final int MAX_NODE_NUMBER_DIGITS = 9;
+
+    private transient Map<String, NodeNames> nodesPerInstance = new HashMap<>();
+
+    public CompactNodesPerInstanceMap() {
+    }
+
+    public CompactNodesPerInstanceMap(Map<String, ? extends Set<String>> nodesPerInstance) {
+        putAll(nodesPerInstance);
+    }
+
+    /**
+     * @param instanceId the identifier of an instance
+     * @return the instance of the identifier that is shared by the maps of the node bookkeeping
+     */
+    static String intern(String instanceId) {
+        return instanceIds.intern(instanceId);
+    }
+
+    @Override
+    public int size() {
+        return nodesPerInstance.size();
+    }
+
+    @Override
+    public boolean containsKey(Object instanceId) {
+        return nodesPerInstance.containsKey(instanceId);
+    }
+
+    @Override
+    public Set<String> get(Object instanceId) {
+        return nodesPerInstance.get(instanceId);
+    }
+
+    @Override
+    public Set<String> put(String instanceId, Set<String> nodeNames) {
+        NodeNames compactNodeNames = new NodeNames();
+        compactNodeNames.addAll(nodeNames);
+        return nodesPerInstance.put(intern(instanceId), compactNodeNames);
+    }
+
+    /**
+     * @return the set stored in the map, which is a copy of the set returned by the mapping function
+     */
+    @Override
+    public Set<String> computeIfAbsent(String instanceId, Function<? super String, ? extends Set<String>> mapping) {
+        Set<String> nodeNames = get(instanceId);
+        if (nodeNames == null) {
+            Set<String> newNodeNames = mapping.apply(instanceId);
+            if (newNodeNames != null) {
+                put(instanceId, newNodeNames);
+                nodeNames = get(instanceId);
+            }
+        }
+        return nodeNames;
+    }
+
+    @Override
+    public Set<String> remove(Object instanceId) {
+        return nodesPerInstance.remove(instanceId);
+    }
+
+    @Override
+    public void clear() {
+        nodesPerInstance.clear();
+    }
+
+    @Override
+    public Set<Entry<String, Set<String>>> entrySet() {
+        return new AbstractSet<Entry<String, Set<String>>>() {
+            @Override
+            public Iterator<Entry<String, Set<String>>> iterator() {
+                Iterator<Entry<String, NodeNames>> entries = nodesPerInstance.entrySet().iterator();
+                return new Iterator<Entry<String, Set<String>>>() {
+                    @Override
+                    public boolean hasNext() {
+                        return entries.hasNext();
+                    }
+
+                    @Override
+                    public Entry<String, Set<String>> next() {
+                        Entry<String, NodeNames> entry = entries.next();
+                        return new SimpleImmutableEntry<>(entry.getKey(), entry.getValue());
+                    }
+
+                    @Override
+                    public void remove() {
+                        entries.remove();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return nodesPerInstance.size();
+            }
+        };
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeInt(nodesPerInstance.size());
+        for (Entry<String, NodeNames> entry : nodesPerInstance.entrySet()) {
+            out.writeUTF(entry.getKey());
+            entry.getValue().writeTo(out);
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        int nbInstances = in.readInt();
+        nodesPerInstance = new HashMap<>();
+        for (int i = 0; i < nbInstances; i++) {
+            String instanceId = intern(in.readUTF());
+            nodesPerInstance.put(instanceId, NodeNames.readFrom(in));
+        }
+    }
+
+    /**
+     * @return the length of the prefix of a name made of a prefix followed by a node number written without leading
+     * zero, or -1 if the name does not end with such a number
+     */
+    private static int prefixLength(String nodeName) {
+        int prefixLength = nodeName.length();
+        while (prefixLength > 0 && isDigit(nodeName.charAt(prefixLength - 1))) {
+            prefixLength--;
+        }
+        int nbDigits = nodeName.length() - prefixLength;
+        if (nbDigits == 0 || nbDigits > MAX_NODE_NUMBER_DIGITS ||
+            (nbDigits > 1 && nodeName.charAt(prefixLength) == '0')) {
+            return -1;
+        }
+        return prefixLength;
+    }
+
+    private static int nodeNumber(String nodeName, int prefixLength) {
+        int nodeNumber = 0;
+        for (int i = prefixLength; i < nodeName.length(); i++) {
+            nodeNumber = nodeNumber * 10 + (nodeName.charAt(i) - '0');
+        }
+        return nodeNumber;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * The names of the nodes of an instance
+     */
+    static final class NodeNames extends AbstractSet<String> {
+
+        /**
+         * The prefix of the names whose number is in {@link #nodeNumbers}, it is the prefix of the first name added
+         */
+        private String prefix;
+
+        private final BitSet nodeNumbers = new BitSet();
+
+        private int nbNumberedNodes;
+
+        /**
+         * The names that do not start with the prefix followed by a number, created when the first one is added
+         */
+        private Set<String> otherNodeNames;
+
+        /**
+         * @return the number of the node if its name is the prefix followed by a number, otherwise -1
+         */
+        private int numberOf(Object o) {
+            if (!(o instanceof String)) {
+                return -1;
+            }
+            String nodeName = (String) o;
+            int prefixLength = prefixLength(nodeName);
+            if (prefixLength < 0) {
+                return -1;
+            }
+            if (prefix == null) {
+                if (nbNumberedNodes > 0) {
+                    return -1;
+                }
+                prefix = nodeName.substring(0, prefixLength);
+            } else if (prefix.length() != prefixLength || !nodeName.startsWith(prefix)) {
+                return -1;
+            }
+            return nodeNumber(nodeName, prefixLength);
+        }
+
+        @Override
+        public boolean add(String nodeName) {
+            int nodeNumber = numberOf(nodeName);
+            if (nodeNumber >= 0) {
+                if (nodeNumbers.get(nodeNumber)) {
+                    return false;
+                }
+                nodeNumbers.set(nodeNumber);
+                nbNumberedNodes++;
+                return true;
+            }
+            if (otherNodeNames == null) {
+                otherNodeNames = new HashSet<>();
+            }
+            return otherNodeNames.add(nodeName);
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (prefix != null) {
+                int nodeNumber = numberOf(o);
+                if (nodeNumber >= 0) {
+                    return nodeNumbers.get(nodeNumber);
+                }
+            }
+            return otherNodeNames != null && otherNodeNames.contains(o);
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            if (prefix != null) {
+                int nodeNumber = numberOf(o);
+                if (nodeNumber >= 0) {
+                    return removeNodeNumber(nodeNumber);
+                }
+            }
+            return otherNodeNames != null && otherNodeNames.remove(o);
+        }
+
+        private boolean removeNodeNumber(int nodeNumber) {
+            if (!nodeNumbers.get(nodeNumber)) {
+                return false;
+            }
+            nodeNumbers.clear(nodeNumber);
+            nbNumberedNodes--;
+            return true;
+        }
+
+        @Override
+        public int size() {
+            return nbNumberedNodes + (otherNodeNames == null ? 0 : otherNodeNames.size());
+        }
+
+        @Override
+        public void clear() {
+            nodeNumbers.clear();
+            nbNumberedNodes = 0;
+            otherNodeNames = null;
+        }
+
+        @Override
+        public Iterator<String> iterator() {
+            return new Iterator<String>() {
+                private int nextNodeNumber = nodeNumbers.nextSetBit(0);
+
+                private int lastNodeNumber = -1;
+
+                private Iterator<String> otherNodeNamesIterator;
+
+                private boolean lastFromOtherNodeNames = false;
+
+                @Override
+                public boolean hasNext() {
+                    return nextNodeNumber >= 0 || otherNodeNames().hasNext();
+                }
+
+                @Override
+                public String next() {
+                    if (nextNodeNumber >= 0) {
+                        lastNodeNumber = nextNodeNumber;
+                        lastFromOtherNodeNames = false;
+                        nextNodeNumber = nodeNumbers.nextSetBit(nextNodeNumber + 1);
+                        return prefix + lastNodeNumber;
+                    }
+                    if (!otherNodeNames().hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    lastFromOtherNodeNames = true;
+                    return otherNodeNamesIterator.next();
+                }
+
+                @Override
+                public void remove() {
+                    if (lastFromOtherNodeNames) {
+                        otherNodeNamesIterator.remove();
+                    } else if (lastNodeNumber >= 0) {
+                        removeNodeNumber(lastNodeNumber);
+                        lastNodeNumber = -1;
+                    } else {
+                        throw new IllegalStateException();
+                    }
+                }
+
+                private Iterator<String> otherNodeNames() {
+                    if (otherNodeNamesIterator == null) {
+                        otherNodeNamesIterator = otherNodeNames == null ? new HashSet<String>().iterator()
+                                                                        : otherNodeNames.iterator();
+                    }
+                    return otherNodeNamesIterator;
+                }
+            };
+        }
+
+        private void writeTo(ObjectOutputStream out) throws IOException {
+            out.writeBoolean(prefix != null);
+            if (prefix != null) {
+                out.writeUTF(prefix);
+            }
+            long[] words = nodeNumbers.toLongArray();
+            out.writeInt(words.length);
+            for (long word : words) {
+                out.writeLong(word);
+            }
+            out.writeInt(otherNodeNames == null ? 0 : otherNodeNames.size());
+            if (otherNodeNames != null) {
+                for (String nodeName : otherNodeNames) {
+                    out.writeUTF(nodeName);
+                }
+            }
+        }
+
+        private static NodeNames readFrom(ObjectInputStream in) throws IOException {
+            NodeNames nodeNames = new NodeNames();
+            if (in.readBoolean()) {
+                nodeNames.prefix = in.readUTF();
+            }
+            long[] words = new long[in.readInt()];
+            for (int i = 0; i < words.length; i++) {
+                words[i] = in.readLong();
+            }
+            nodeNames.nodeNumbers.or(BitSet.valueOf(words));
+            nodeNames.nbNumberedNodes = nodeNames.nodeNumbers.cardinality();
+            int nbOtherNodeNames = in.readInt();
+            for (int i = 0; i < nbOtherNodeNames; i++) {
+                if (nodeNames.otherNodeNames == null) {
+                    nodeNames.otherNodeNames = new HashSet<>();
+                }
+                nodeNames.otherNodeNames.add(in.readUTF());
+            }
+            return nodeNames;
+        }
+    }
+
+}
@@ -0,0 +1,171 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.resourcemanager.nodesource.infrastructure;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.apache.commons.configuration2.Configuration;
+import org.apache.commons.configuration2.ex.ConfigurationException;
+import org.apache.log4j.Logger;
+import org.ow2.proactive.resourcemanager.nodesource.infrastructure.util.NSProperties;
+
+
+/**
+ * Circuit breaker in front of a connector-iaas url, shared by all the clients of this url.
+ *
+ * The circuit is closed as long as the connector-iaas answers. After a number of consecutive failures to reach it, it
+ * opens and the calls are rejected without being sent. An answer with an error status, like a script failing on an
+ * instance which is not ready, proves that the connector-iaas is up and is not a failure. Once the open duration is
+ * elapsed, the circuit becomes half-open: a single call is let through as a probe, the other ones are still
+ * rejected. The probe closes the circuit if it succeeds, or opens it again otherwise.
+ */
+public class ConnectorIaasCircuitBreaker {
+
+    private static final Logger logger = Logger.getLogger(ConnectorIaasCircuitBreaker.class);
+
+    private static final int DEFAULT_FAILURE_THRESHOLD = 5;
+
+    private static final int DEFAULT_OPEN_DURATION_IN_SECONDS = 30;
+
+    private static final Map<String, ConnectorIaasCircuitBreaker> circuitBreakersPerUrl = new ConcurrentHashMap<>();
+
+    private static Configuration nsConfig;
+
+    static {
+        try {
+            nsConfig = NSProperties.loadConfig();
+        } catch (ConfigurationException e) {
+            logger.error("Exception when loading NodeSource properties", e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final String name;
+
+    private final int failureThreshold;
+
+    private final long openDurationNanos;
+
+    private final LongSupplier nanoClock;
+
+    private State state = State.CLOSED;
+
+    private int consecutiveFailures = 0;
+
+    // when the circuit is open, the time at which a probe is allowed. When it is half-open, the time at which
+    // another probe is allowed if the current one never reported its result.
+    private long nextProbeTime;
+
+    /**
+     * @param connectorIaasURL the url of the connector-iaas
+     * @return the circuit breaker shared by all the clients of the given url
+     */
+    public static ConnectorIaasCircuitBreaker forUrl(String connectorIaasURL) {
+        return circuitBreakersPerUrl.computeIfAbsent(connectorIaasURL, ConnectorIaasCircuitBreaker::createCircuitBreaker);
+    }
+
+    private static ConnectorIaasCircuitBreaker createCircuitBreaker(String connectorIaasURL) {
+        int failureThreshold = nsConfig.getInt(NSProperties.CONNECTOR_IAAS_CIRCUIT_BREAKER_FAILURE_THRESHOLD,
+                                               DEFAULT_FAILURE_THRESHOLD);
+        int openDuration = nsConfig.getInt(NSProperties.CONNECTOR_IAAS_CIRCUIT_BREAKER_OPEN_DURATION,
+                                           DEFAULT_OPEN_DURATION_IN_SECONDS);
+        return new ConnectorIaasCircuitBreaker(connectorIaasURL,
+                                               failureThreshold,
+                                               TimeUnit.SECONDS.toMillis(openDuration));
+    }
+
+    public ConnectorIaasCircuitBreaker(String name, int failureThreshold, long openDurationMillis) {
+        this(name, failureThreshold, openDurationMillis, System::nanoTime);
+    }
+
+    ConnectorIaasCircuitBreaker(String name, int failureThreshold, long openDurationMillis, LongSupplier nanoClock) {
+        this.name = name;
+        this.failureThreshold = failureThreshold;
+        this.openDurationNanos = TimeUnit.MILLISECONDS.toNanos(openDurationMillis);
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * Must be called before each call to the connector-iaas. When it returns, the caller must report the result of
+     * its call with {@link #onSuccess()} or {@link #onFailure()}.
+     *
+     * @throws ConnectorIaasNotAvailableException if the connector-iaas is known to be down
+     */
+    public synchronized void acquirePermission() {
+        long now = nanoClock.getAsLong();
+        switch (state) {
+            case CLOSED:
+                return;
+            case OPEN:
+            case HALF_OPEN:
+                if (now - nextProbeTime >= 0) {
+                    logger.info("Connector-iaas " + name + " is considered down, probing it");
+                    state = State.HALF_OPEN;
+                    nextProbeTime = now + openDurationNanos;
+                    return;
+                }
+                throw new ConnectorIaasNotAvailableException("Connector-iaas " + name + " is considered down after " +
+                                                             consecutiveFailures +
+                                                             " consecutive failures, the call is not sent",
+                                                             state == State.HALF_OPEN);
+            default:
+                throw new IllegalStateException("Unknown circuit breaker state " + state);
+        }
+    }
+
+    public synchronized void onSuccess() {
+        if (state != State.CLOSED) {
+            logger.info("Connector-iaas " + name + " is up again");
+        }
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+    }
+
+    public synchronized void onFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+            logger.warn("Connector-iaas " + name + " is considered down after " + consecutiveFailures +
+                        " consecutive failures, the calls are rejected for the next " +
+                        TimeUnit.NANOSECONDS.toMillis(openDurationNanos) + " ms");
+            state = State.OPEN;
+            nextProbeTime = nanoClock.getAsLong() + openDurationNanos;
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+}
@@ -25,9 +25,18 @@
  */
 package org.ow2.proactive.resourcemanager.nodesource.infrastructure;
 
+import java.io.IOException;
 import java.util.AbstractMap.SimpleImmutableEntry;
 import java.util.Iterator;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 import org.apache.log4j.Logger;
 import org.json.JSONArray;
@@ -40,42 +49,145 @@ public class ConnectorIaasClient {
 
     private static final Logger logger = Logger.getLogger(ConnectorIaasClient.class);
 
-    private static final int MAX_RETRIES_IN_CASE_OF_ERROR = 20;
+    private static final int MAX_ATTEMPTS_IN_CASE_OF_ERROR = 20;
 
-    private static final int SLEEP_TIME_RETRIES_IN_CASE_OF_ERROR = 10000;
+    private static final long INITIAL_RETRY_DELAY = 1000;
+
+    private static final long MAX_RETRY_DELAY = 30000;
+
+    private static final long MAX_RETRY_ELAPSED_TIME = 200000;
+
+    private static final int RETRY_BUDGET_MAX_RETRIES = 20;
+
+    private static final double RETRY_BUDGET_RETRIES_PER_SUCCESS = 0.1;
+
+    private static final long RETRY_BUDGET_REFILL_PERIOD = 10000;
+
+    public static final RetryPolicy DEFAULT_RETRY_POLICY = new ExponentialBackoffRetryPolicy(INITIAL_RETRY_DELAY,
+                                                                                             MAX_RETRY_DELAY,
+                                                                                             MAX_RETRY_ELAPSED_TIME,
+                                                                                             MAX_ATTEMPTS_IN_CASE_OF_ERROR);
+
+    /**
+     * Only schedules the re-attempts of the asynchronous calls, the calls themselves do not block any thread
+     */
+    private static final ScheduledExecutorService asyncRetryScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "connector-iaas-async-retry-scheduler");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     private final RestClient restClient;
 
+    private final AsyncRestClient asyncRestClient;
+
+    private final RetryPolicy retryPolicy;
+
+    private final ConnectorIaasCircuitBreaker circuitBreaker;
+
+    private final ConnectorIaasLivenessCache livenessCache;
+
+    /**
+     * The calls of this client, which are accounted differently when they fail
+     */
+    private enum CallType {
+        /**
+         * The check that the connector-iaas is up, any failure of which tells that it is down
+         */
+        LIVENESS_CHECK,
+        /**
+         * A call about the infrastructure, whose retries are limited by the retry budget of the client
+         */
+        INFRASTRUCTURE,
+        /**
+         * A script run on instances, which commonly fails while the instances boot. Its retries are only limited
+         * by the retry policy, so that the bootstrap of many instances at once does not exhaust the retry budget.
+         */
+        INSTANCE_SCRIPT
+    }
+
+    private final RetryBudget retryBudget = new RetryBudget(RETRY_BUDGET_MAX_RETRIES,
+                                                            RETRY_BUDGET_RETRIES_PER_SUCCESS,
+                                                            RETRY_BUDGET_REFILL_PERIOD);
+
     public static RestClient generateRestClient(String connectorIaasURL) {
         return new RestClient(connectorIaasURL);
     }
 
+    public static AsyncRestClient generateAsyncRestClient(String connectorIaasURL) {
+        return new AsyncRestClient(connectorIaasURL);
+    }
+
+    /**
+     * Without an {@link AsyncRestClient}, the asynchronous methods of this client run the blocking calls in the
+     * calling thread and return completed futures.
+     */
     public ConnectorIaasClient(RestClient restClient) {
+        this(restClient, null);
+    }
+
+    public ConnectorIaasClient(RestClient restClient, AsyncRestClient asyncRestClient) {
+        this(restClient, asyncRestClient, DEFAULT_RETRY_POLICY);
+    }
+
+    /**
+     * @param retryPolicy the policy applied to the failed calls that can be safely attempted again. The retries of
+     *                    this client are also limited by a retry budget, shared by all its calls but the scripts
+     *                    run on instances.
+     */
+    public ConnectorIaasClient(RestClient restClient, AsyncRestClient asyncRestClient, RetryPolicy retryPolicy) {
+        this(restClient,
+             asyncRestClient,
+             retryPolicy,
+             getCircuitBreaker(restClient.getConnectorIaasURL()),
+             getLivenessCache(restClient.getConnectorIaasURL()));
+    }
+
+    ConnectorIaasClient(RestClient restClient, AsyncRestClient asyncRestClient, RetryPolicy retryPolicy,
+            ConnectorIaasCircuitBreaker circuitBreaker, ConnectorIaasLivenessCache livenessCache) {
         this.restClient = restClient;
+        this.asyncRestClient = asyncRestClient;
+        this.retryPolicy = retryPolicy;
+        this.circuitBreaker = circuitBreaker;
+        this.livenessCache = livenessCache;
     }
 
-    public void waitForConnectorIaasToBeUP() {
-        int count = 0;
-        while (true) {
-            try {
-                restClient.getInfrastructures();
-                return;
-            } catch (Exception e) {
-                if (++count == MAX_RETRIES_IN_CASE_OF_ERROR) {
-                    logger.error(e);
-                    throw e;
-                } else {
-                    sleepFor(SLEEP_TIME_RETRIES_IN_CASE_OF_ERROR);
-                }
-            }
+    // a client which is not bound to a known url cannot share the connector-iaas state with other clients
+
+    private static ConnectorIaasCircuitBreaker getCircuitBreaker(String connectorIaasURL) {
+        if (connectorIaasURL == null) {
+            return new ConnectorIaasCircuitBreaker("unknown", Integer.MAX_VALUE, 0);
+        }
+        return ConnectorIaasCircuitBreaker.forUrl(connectorIaasURL);
+    }
+
+    private static ConnectorIaasLivenessCache getLivenessCache(String connectorIaasURL) {
+        if (connectorIaasURL == null) {
+            return new ConnectorIaasLivenessCache(0);
         }
+        return ConnectorIaasLivenessCache.forUrl(connectorIaasURL);
+    }
 
+    /**
+     * Returns immediately if the connector-iaas answered a call recently, otherwise checks that it is up, with
+     * retries.
+     */
+    public void waitForConnectorIaasToBeUP() {
+        if (livenessCache.isUp()) {
+            return;
+        }
+        callWithRetries("check that connector-iaas is up", retryPolicy, CallType.LIVENESS_CHECK, () -> {
+            restClient.checkConnectorIaasIsUp();
+            return null;
+        });
     }
 
     public Set<JSONObject> getAllJsonInstancesByInfrastructureId(String infrastructureId) {
         Set<JSONObject> existingInstances = Sets.newHashSet();
 
-        JSONArray instancesJSONObjects = new JSONArray(restClient.getInstancesByInfrastructure(infrastructureId));
+        JSONArray instancesJSONObjects = new JSONArray(callWithRetries("get instances of " + infrastructureId,
+                                                                       retryPolicy,
+                                                                       () -> restClient.getInstancesByInfrastructure(infrastructureId)));
 
         Iterator<Object> instancesJSONObjectsIterator = instancesJSONObjects.iterator();
 
@@ -86,27 +198,93 @@ public class ConnectorIaasClient {
         return existingInstances;
     }
 
+    /**
+     * @return the ids of the instances of the infrastructure per tag, parsed without building the JSON representation
+     * of the instances
+     */
+    public InstancesIndex getInstancesIndexByInfrastructureId(String infrastructureId) {
+        return callWithRetries("get instances of " + infrastructureId,
+                               retryPolicy,
+                               () -> restClient.getInstancesIndexByInfrastructure(infrastructureId));
+    }
+
+    public CompletableFuture<InstancesIndex> getInstancesIndexByInfrastructureIdAsync(String infrastructureId) {
+        if (asyncRestClient == null) {
+            return callAsyncWithRetries("get instances of " + infrastructureId,
+                                        retryPolicy,
+                                        null,
+                                        () -> restClient.getInstancesIndexByInfrastructure(infrastructureId));
+        }
+        return callAsyncWithRetries("get instances of " + infrastructureId,
+                                    retryPolicy,
+                                    () -> asyncRestClient.getInstancesByInfrastructure(infrastructureId),
+                                    null).thenApply(instancesJson -> {
+                                        try {
+                                            return InstancesIndex.parse(instancesJson);
+                                        } catch (IOException e) {
+                                            throw new CompletionException(e);
+                                        }
+                                    });
+    }
+
     public String createInfrastructure(String infrastructureId, String infrastructureJson) {
         try {
-            terminateInfrastructure(infrastructureId, false);
+            // the infrastructure usually does not exist yet, there is no point in retrying
+            callWithRetries("delete infrastructure " + infrastructureId, RetryPolicy.NEVER, () -> {
+                restClient.deleteInfrastructure(infrastructureId, false);
+                return null;
+            });
         } catch (RuntimeException re) {
             logger.error("Infrastructure termination runtime exception: ", re);
         }
-        return restClient.postInfrastructures(infrastructureJson);
+        return callWithRetries("create infrastructure " + infrastructureId,
+                               retryPolicy,
+                               () -> restClient.postInfrastructures(infrastructureJson));
     }
 
     public Set<String> createInstancesIfNotExist(String infrastructureId, String instanceTag, String instanceJson,
             Set<JSONObject> existingInstances) {
-        Set<String> instancesIds = getExistingInstanceIds(instanceTag, existingInstances);
+        return createInstancesIfNoneExist(infrastructureId,
+                                          instanceJson,
+                                          getExistingInstanceIds(instanceTag, existingInstances));
+    }
+
+    public Set<String> createInstancesIfNotExist(String infrastructureId, String instanceTag, String instanceJson,
+            InstancesIndex existingInstances) {
+        return createInstancesIfNoneExist(infrastructureId,
+                                          instanceJson,
+                                          Sets.newHashSet(existingInstances.getInstanceIds(instanceTag)));
+    }
 
+    public CompletableFuture<Set<String>> createInstancesIfNotExistAsync(String infrastructureId, String instanceTag,
+            String instanceJson) {
+        return getInstancesIndexByInfrastructureIdAsync(infrastructureId).thenCompose(existingInstances -> createInstancesIfNotExistAsync(infrastructureId,
+                                                                                                                                          instanceTag,
+                                                                                                                                          instanceJson,
+                                                                                                                                          existingInstances));
+    }
+
+    public CompletableFuture<Set<String>> createInstancesIfNotExistAsync(String infrastructureId, String instanceTag,
+            String instanceJson, InstancesIndex existingInstances) {
+        Set<String> instancesIds = Sets.newHashSet(existingInstances.getInstanceIds(instanceTag));
         if (instancesIds.isEmpty()) {
-            instancesIds = createInstances(infrastructureId, instanceJson);
+            return createInstancesAsync(infrastructureId, instanceJson);
         } else {
             logger.info("Existing instances have been found when trying to create instances. Reusing instance ids: " +
                         instancesIds);
+            return CompletableFuture.completedFuture(instancesIds);
         }
+    }
 
-        return instancesIds;
+    private Set<String> createInstancesIfNoneExist(String infrastructureId, String instanceJson,
+            Set<String> existingInstancesIds) {
+        if (existingInstancesIds.isEmpty()) {
+            return createInstances(infrastructureId, instanceJson);
+        } else {
+            logger.info("Existing instances have been found when trying to create instances. Reusing instance ids: " +
+                        existingInstancesIds);
+            return existingInstancesIds;
+        }
     }
 
     private Set<String> getExistingInstanceIds(String instanceTag, Set<JSONObject> existingInstances) {
@@ -122,9 +300,21 @@ public class ConnectorIaasClient {
     }
 
     private Set<String> createInstances(String infrastructureId, String instanceJson) {
-        String response = restClient.postInstances(infrastructureId, instanceJson);
+        // creating instances is not idempotent, a retry after a timeout could create the instances twice
+        return getInstanceIds(callWithRetries("create instances in " + infrastructureId,
+                                              RetryPolicy.NEVER,
+                                              () -> restClient.postInstances(infrastructureId, instanceJson)));
+    }
+
+    private CompletableFuture<Set<String>> createInstancesAsync(String infrastructureId, String instanceJson) {
+        return callAsyncWithRetries("create instances in " + infrastructureId,
+                                    RetryPolicy.NEVER,
+                                    () -> asyncRestClient.postInstances(infrastructureId, instanceJson),
+                                    () -> restClient.postInstances(infrastructureId, instanceJson)).thenApply(this::getInstanceIds);
+    }
 
-        JSONArray instancesJSONObjects = new JSONArray(response);
+    private Set<String> getInstanceIds(String postInstancesResponse) {
+        JSONArray instancesJSONObjects = new JSONArray(postInstancesResponse);
 
         Set<String> instancesIds = Sets.newHashSet();
 
@@ -138,7 +328,10 @@ public class ConnectorIaasClient {
     }
 
     public SimpleImmutableEntry<String, String> createAwsEc2KeyPair(String infrastructureId, String instanceJson) {
-        String response = restClient.postKeyPairs(infrastructureId, instanceJson);
+        // a retry could create a key pair whose private key is never received
+        String response = callWithRetries("create key pair in " + infrastructureId,
+                                          RetryPolicy.NEVER,
+                                          () -> restClient.postKeyPairs(infrastructureId, instanceJson));
 
         JSONObject keyPairInfoJson = new JSONObject(response);
 
@@ -152,44 +345,326 @@ public class ConnectorIaasClient {
     }
 
     public void deleteKeyPair(String infrastructureId, String keyPairName, String region) {
-        restClient.deleteKeyPair(infrastructureId, keyPairName, region);
+        callWithRetries("delete key pair " + keyPairName,
+                        retryPolicy,
+                        () -> restClient.deleteKeyPair(infrastructureId, keyPairName, region));
     }
 
     public void terminateInfrastructure(String infrastructureId, boolean deleteInstances) {
-        restClient.deleteInfrastructure(infrastructureId, deleteInstances);
+        callWithRetries("delete infrastructure " + infrastructureId, retryPolicy, () -> {
+            restClient.deleteInfrastructure(infrastructureId, deleteInstances);
+            return null;
+        });
     }
 
     public void terminateInstance(String infrastructureId, String instanceId) {
-        restClient.deleteInstance(infrastructureId, "instanceId", instanceId);
+        deleteInstance(infrastructureId, "instanceId", instanceId);
     }
 
     public void terminateInstanceByTag(String infrastructureId, String instanceTag) {
-        restClient.deleteInstance(infrastructureId, "instanceTag", instanceTag);
+        deleteInstance(infrastructureId, "instanceTag", instanceTag);
+    }
+
+    private void deleteInstance(String infrastructureId, String key, String value) {
+        callWithRetries("delete instance " + key + "=" + value, retryPolicy, () -> {
+            restClient.deleteInstance(infrastructureId, key, value);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Void> terminateInstanceAsync(String infrastructureId, String instanceId) {
+        return deleteInstanceAsync(infrastructureId, "instanceId", instanceId);
+    }
+
+    public CompletableFuture<Void> terminateInstanceByTagAsync(String infrastructureId, String instanceTag) {
+        return deleteInstanceAsync(infrastructureId, "instanceTag", instanceTag);
+    }
+
+    private CompletableFuture<Void> deleteInstanceAsync(String infrastructureId, String key, String value) {
+        return callAsyncWithRetries("delete instance " + key + "=" + value,
+                                    retryPolicy,
+                                    () -> asyncRestClient.deleteInstance(infrastructureId, key, value),
+                                    () -> {
+                                        restClient.deleteInstance(infrastructureId, key, value);
+                                        return null;
+                                    }).thenApply(response -> null);
     }
 
     public String runScriptOnInstance(String infrastructureId, String instanceId, String instanceScriptJson) {
-        int count = 0;
+        return callWithRetries("run script on instance " + instanceId,
+                               retryPolicy,
+                               CallType.INSTANCE_SCRIPT,
+                               () -> restClient.postScript(infrastructureId,
+                                                           "instanceId",
+                                                           instanceId,
+                                                           instanceScriptJson));
+    }
+
+    /**
+     * Asynchronous version of {@link #runScriptOnInstance(String, String, String)}: the retries are scheduled
+     * instead of sleeping, so no thread is held while waiting for the script result or for the next attempt.
+     */
+    public CompletableFuture<String> runScriptOnInstanceAsync(String infrastructureId, String instanceId,
+            String instanceScriptJson) {
+        return callAsyncWithRetries("run script on instance " + instanceId,
+                                    retryPolicy,
+                                    CallType.INSTANCE_SCRIPT,
+                                    () -> asyncRestClient.postScript(infrastructureId,
+                                                                     "instanceId",
+                                                                     instanceId,
+                                                                     instanceScriptJson),
+                                    () -> restClient.postScript(infrastructureId,
+                                                                "instanceId",
+                                                                instanceId,
+                                                                instanceScriptJson));
+    }
+
+    /**
+     * Runs a script on all the instances having the given tag in a single request. The result of each instance is
+     * passed to the given consumer as soon as it is received. The request is retried only as long as no result was
+     * received: retrying it afterwards would run the script again on the instances that already ran it. An error of
+     * the consumer is logged, it does not interrupt the other results.
+     */
+    public void runScriptOnInstancesByTag(String infrastructureId, String instanceTag, String instanceScriptJson,
+            Consumer<InstanceScriptResult> resultConsumer) {
+        Set<String> notifiedInstanceIds = ConcurrentHashMap.newKeySet();
+        Consumer<InstanceScriptResult> firstResultConsumer = result -> {
+            String instanceId = String.valueOf(result.getInstanceId());
+            if (notifiedInstanceIds.add(instanceId)) {
+                try {
+                    resultConsumer.accept(result);
+                } catch (RuntimeException e) {
+                    logger.error("Error while handling the script result of instance id:" + instanceId, e);
+                }
+            }
+        };
+        RetryPolicy policyUntilFirstResult = (failedAttempts, elapsedTimeMillis) -> {
+            if (!notifiedInstanceIds.isEmpty()) {
+                return RetryPolicy.NO_RETRY;
+            }
+            return retryPolicy.getDelayBeforeRetry(failedAttempts, elapsedTimeMillis);
+        };
+        callWithRetries("run script on instances with tag " + instanceTag,
+                        policyUntilFirstResult,
+                        CallType.INSTANCE_SCRIPT,
+                        () -> restClient.postScriptAndStreamResults(infrastructureId,
+                                                                    "instanceTag",
+                                                                    instanceTag,
+                                                                    instanceScriptJson,
+                                                                    firstResultConsumer));
+    }
+
+    /**
+     * Runs the given call, and attempts it again as long as it fails with a retryable error and both the given
+     * policy and the retry budget of this client allow it. An interruption while waiting for the next attempt stops
+     * the retries, the interrupted flag of the thread is restored. A call rejected by the circuit breaker of the
+     * connector-iaas fails right away, unless a probe of the connector-iaas is running: it then waits once for it.
+     */
+    private <T> T callWithRetries(String callDescription, RetryPolicy policy, Supplier<T> call) {
+        return callWithRetries(callDescription, policy, CallType.INFRASTRUCTURE, call);
+    }
+
+    private <T> T callWithRetries(String callDescription, RetryPolicy policy, CallType callType, Supplier<T> call) {
+        long startTime = System.currentTimeMillis();
+        int failedAttempts = 0;
+        boolean probeAwaited = false;
         while (true) {
             try {
-                return restClient.postScript(infrastructureId, "instanceId", instanceId, instanceScriptJson);
-            } catch (Exception e) {
-                if (++count == MAX_RETRIES_IN_CASE_OF_ERROR) {
-                    logger.error(e);
+                T result = callThroughCircuitBreaker(callType, call);
+                retryBudget.onSuccess();
+                return result;
+            } catch (RuntimeException e) {
+                long delay = getDelayBeforeRetry(callDescription,
+                                                 policy,
+                                                 callType,
+                                                 e,
+                                                 ++failedAttempts,
+                                                 startTime,
+                                                 probeAwaited);
+                if (delay == RetryPolicy.NO_RETRY) {
                     throw e;
-                } else {
-                    sleepFor(SLEEP_TIME_RETRIES_IN_CASE_OF_ERROR);
+                }
+                probeAwaited |= e instanceof ConnectorIaasNotAvailableException;
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    RuntimeException interrupted = new RuntimeException("Interrupted while waiting to retry " +
+                                                                        callDescription, ie);
+                    interrupted.addSuppressed(e);
+                    throw interrupted;
                 }
             }
         }
+    }
 
+    /**
+     * Asynchronous version of {@link #callWithRetries(String, RetryPolicy, Supplier)}, the next attempts are
+     * scheduled. Without asynchronous rest client, the blocking call is made with retries in the calling thread.
+     */
+    private <T> CompletableFuture<T> callAsyncWithRetries(String callDescription, RetryPolicy policy,
+            Supplier<CompletableFuture<T>> asyncCall, Supplier<T> blockingCall) {
+        return callAsyncWithRetries(callDescription, policy, CallType.INFRASTRUCTURE, asyncCall, blockingCall);
     }
 
-    private void sleepFor(long millisecondsToSleep) {
+    private <T> CompletableFuture<T> callAsyncWithRetries(String callDescription, RetryPolicy policy,
+            CallType callType, Supplier<CompletableFuture<T>> asyncCall, Supplier<T> blockingCall) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        if (asyncRestClient == null) {
+            try {
+                result.complete(callWithRetries(callDescription, policy, callType, blockingCall));
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        } else {
+            attemptAsync(callDescription, policy, callType, asyncCall, 1, System.currentTimeMillis(), false, result);
+        }
+        return result;
+    }
+
+    private <T> void attemptAsync(String callDescription, RetryPolicy policy, CallType callType,
+            Supplier<CompletableFuture<T>> asyncCall, int attempt, long startTime, boolean probeAwaited,
+            CompletableFuture<T> result) {
+        CompletableFuture<T> call;
         try {
-            Thread.sleep(millisecondsToSleep);
-        } catch (InterruptedException e) {
-            logger.warn("Failed to sleep", e);
+            circuitBreaker.acquirePermission();
+            call = asyncCall.get().whenComplete((value, throwable) -> recordResult(callType, throwable));
+        } catch (ConnectorIaasNotAvailableException e) {
+            call = new CompletableFuture<>();
+            call.completeExceptionally(e);
+        } catch (RuntimeException e) {
+            recordResult(callType, e);
+            call = new CompletableFuture<>();
+            call.completeExceptionally(e);
+        }
+        call.whenComplete((value, throwable) -> {
+            if (throwable == null) {
+                retryBudget.onSuccess();
+                result.complete(value);
+                return;
+            }
+            Throwable cause = unwrap(throwable);
+            long delay = getDelayBeforeRetry(callDescription,
+                                             policy,
+                                             callType,
+                                             cause,
+                                             attempt,
+                                             startTime,
+                                             probeAwaited);
+            if (delay == RetryPolicy.NO_RETRY) {
+                result.completeExceptionally(cause);
+            } else {
+                boolean nextProbeAwaited = probeAwaited || cause instanceof ConnectorIaasNotAvailableException;
+                asyncRetryScheduler.schedule(() -> attemptAsync(callDescription,
+                                                                policy,
+                                                                callType,
+                                                                asyncCall,
+                                                                attempt + 1,
+                                                                startTime,
+                                                                nextProbeAwaited,
+                                                                result),
+                                             delay,
+                                             TimeUnit.MILLISECONDS);
+            }
+        });
+    }
+
+    private long getDelayBeforeRetry(String callDescription, RetryPolicy policy, CallType callType, Throwable error,
+            int failedAttempts, long startTime, boolean probeAwaited) {
+        if (error instanceof ConnectorIaasNotAvailableException) {
+            return getDelayBeforeProbeResult(callDescription, (ConnectorIaasNotAvailableException) error, probeAwaited);
+        }
+        if (!isRetryable(callType, error)) {
+            logger.error("Failed to " + callDescription + ", the error cannot be recovered by retrying", error);
+            return RetryPolicy.NO_RETRY;
+        }
+        long delay = policy.getDelayBeforeRetry(failedAttempts, System.currentTimeMillis() - startTime);
+        if (delay == RetryPolicy.NO_RETRY) {
+            logger.error("Failed to " + callDescription + " after " + failedAttempts + " attempt(s)", error);
+            return RetryPolicy.NO_RETRY;
+        }
+        if (callType != CallType.INSTANCE_SCRIPT && !retryBudget.tryAcquireRetry()) {
+            logger.error("Failed to " + callDescription + ", the retry budget of the client is exhausted", error);
+            return RetryPolicy.NO_RETRY;
+        }
+        logger.warn("Failed to " + callDescription + " (attempt " + failedAttempts + "), retrying in " + delay +
+                    " ms: " + error.getMessage());
+        return delay;
+    }
+
+    /**
+     * A call rejected by the circuit breaker fails right away, so that the callers do not wait for a connector-iaas
+     * known to be down. Only when a probe of the connector-iaas is running, the call is attempted once more after
+     * the first delay of the retry policy of the client: it was not sent, so it can be attempted again even if it is
+     * not idempotent, and the retry budget is not consumed.
+     */
+    private long getDelayBeforeProbeResult(String callDescription, ConnectorIaasNotAvailableException error,
+            boolean probeAwaited) {
+        long delay = error.isProbeRunning() && !probeAwaited ? retryPolicy.getDelayBeforeRetry(1, 0)
+                                                             : RetryPolicy.NO_RETRY;
+        if (delay == RetryPolicy.NO_RETRY) {
+            logger.error("Failed to " + callDescription + ", the connector-iaas is considered down", error);
+            return RetryPolicy.NO_RETRY;
+        }
+        logger.warn("Failed to " + callDescription + ", waiting for the running probe of connector-iaas: " +
+                    error.getMessage());
+        return delay;
+    }
+
+    private <T> T callThroughCircuitBreaker(CallType callType, Supplier<T> call) {
+        circuitBreaker.acquirePermission();
+        T result;
+        try {
+            result = call.get();
+        } catch (RuntimeException e) {
+            recordResult(callType, e);
+            throw e;
+        }
+        recordResult(callType, null);
+        return result;
+    }
+
+    private void recordResult(CallType callType, Throwable error) {
+        Throwable cause = error == null ? null : unwrap(error);
+        if (cause instanceof ConnectorIaasNotAvailableException) {
+            // the call was not sent
+            return;
+        }
+        if (cause != null && (callType == CallType.LIVENESS_CHECK || isTransportError(cause))) {
+            livenessCache.markDown();
+            circuitBreaker.onFailure();
+        } else {
+            livenessCache.markUp();
+            circuitBreaker.onSuccess();
+        }
+    }
+
+    /**
+     * Client errors are returned again if the same request is sent. All the other errors may be transient. The
+     * scripts are however run on instances that may be just created: the connector-iaas answers with a not found or
+     * a conflict until the instance is known and running, so these client errors are retried for the scripts.
+     */
+    private static boolean isRetryable(CallType callType, Throwable error) {
+        if (!(error instanceof ConnectorIaasHttpException)) {
+            return true;
+        }
+        ConnectorIaasHttpException httpError = (ConnectorIaasHttpException) error;
+        return httpError.isServerError() || (callType == CallType.INSTANCE_SCRIPT && httpError.isInstanceNotReady());
+    }
+
+    /**
+     * @return true if the connector-iaas could not be reached. Any answer of the connector-iaas, even a server error
+     * about a single instance, proves that it is up.
+     */
+    private static boolean isTransportError(Throwable error) {
+        return !(error instanceof ConnectorIaasHttpException);
+    }
+
+    static Throwable unwrap(Throwable throwable) {
+        if (throwable instanceof CompletionException && throwable.getCause() != null) {
+            return throwable.getCause();
         }
+        return throwable;
     }
 
 }
@@ -28,9 +28,12 @@ package org.ow2.proactive.resourcemanager.nodesource.infrastructure;
 import java.util.AbstractMap.SimpleImmutableEntry;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 import org.apache.log4j.Logger;
-import org.json.JSONObject;
 import org.json.simple.parser.JSONParser;
 
 
@@ -42,15 +45,25 @@ public class ConnectorIaasController {
 
     private final String infrastructureType;
 
+    private final InstancesIndexCache instancesIndexCache;
+
     public ConnectorIaasController(String connectorIaasURL, String infrastructureType) {
-        this.connectorIaasClient = new ConnectorIaasClient(ConnectorIaasClient.generateRestClient(connectorIaasURL));
+        this.connectorIaasClient = new ConnectorIaasClient(ConnectorIaasClient.generateRestClient(connectorIaasURL),
+                                                           ConnectorIaasClient.generateAsyncRestClient(connectorIaasURL));
         this.infrastructureType = infrastructureType;
+        this.instancesIndexCache = new InstancesIndexCache();
 
     }
 
     public ConnectorIaasController(ConnectorIaasClient connectorIaasClient, String infrastructureType) {
+        this(connectorIaasClient, infrastructureType, new InstancesIndexCache());
+    }
+
+    ConnectorIaasController(ConnectorIaasClient connectorIaasClient, String infrastructureType,
+            InstancesIndexCache instancesIndexCache) {
         this.connectorIaasClient = connectorIaasClient;
         this.infrastructureType = infrastructureType;
+        this.instancesIndexCache = instancesIndexCache;
 
     }
 
@@ -76,6 +89,7 @@ public class ConnectorIaasController {
                                   endPoint,
                                   destroyOnShutdown));
 
+        instancesIndexCache.invalidate(infrastructureId);
         connectorIaasClient.createInfrastructure(infrastructureId, infrastructureJson);
 
         logger.info("Infrastructure created");
@@ -103,6 +117,7 @@ public class ConnectorIaasController {
                                   region,
                                   destroyOnShutdown));
 
+        instancesIndexCache.invalidate(infrastructureId);
         connectorIaasClient.createInfrastructure(infrastructureId, infrastructureJson);
 
         logger.info("Infrastructure created");
@@ -139,6 +154,7 @@ public class ConnectorIaasController {
                                   endPoint,
                                   destroyOnShutdown));
 
+        instancesIndexCache.invalidate(infrastructureId);
         connectorIaasClient.createInfrastructure(infrastructureId, infrastructureJson);
 
         logger.info("Infrastructure created");
@@ -175,6 +191,7 @@ public class ConnectorIaasController {
                                   graphEndpoint,
                                   destroyOnShutdown));
 
+        instancesIndexCache.invalidate(infrastructureId);
         connectorIaasClient.createInfrastructure(infrastructureId, infrastructureJson);
 
         logger.info("Azure infrastructure created");
@@ -261,23 +278,68 @@ public class ConnectorIaasController {
             String subnetId, String macAddresses, int[] portsToOpen, String username, String publicKeyName)
             throws InstanceNotCreatedException {
 
-        String instanceJson = ConnectorIaasJSONTransformer.getAwsEc2InstanceJSON(instanceTag,
-                                                                                 image,
-                                                                                 "" + numberOfInstances,
-                                                                                 "" + cores,
-                                                                                 "" + ram,
-                                                                                 vmType,
-                                                                                 spotPrice,
-                                                                                 securityGroupNames,
-                                                                                 subnetId,
-                                                                                 macAddresses,
-                                                                                 portsToOpen,
-                                                                                 username,
-                                                                                 publicKeyName);
+        String instanceJson = getAwsEc2InstanceJSON(instanceTag,
+                                                    image,
+                                                    numberOfInstances,
+                                                    cores,
+                                                    ram,
+                                                    vmType,
+                                                    spotPrice,
+                                                    securityGroupNames,
+                                                    subnetId,
+                                                    macAddresses,
+                                                    portsToOpen,
+                                                    username,
+                                                    publicKeyName);
 
         return createInstance(infrastructureId, instanceTag, instanceJson);
     }
 
+    /**
+     * Asynchronous version of
+     * {@link #createAwsEc2InstancesWithOptions(String, String, String, int, int, int, String, String, String, String, String, int[], String, String)}.
+     * The returned future fails with an {@link InstanceNotCreatedException}.
+     */
+    public CompletableFuture<Set<String>> createAwsEc2InstancesWithOptionsAsync(String infrastructureId,
+            String instanceTag, String image, int numberOfInstances, int cores, int ram, String vmType,
+            String spotPrice, String securityGroupNames, String subnetId, String macAddresses, int[] portsToOpen,
+            String username, String publicKeyName) {
+
+        String instanceJson = getAwsEc2InstanceJSON(instanceTag,
+                                                    image,
+                                                    numberOfInstances,
+                                                    cores,
+                                                    ram,
+                                                    vmType,
+                                                    spotPrice,
+                                                    securityGroupNames,
+                                                    subnetId,
+                                                    macAddresses,
+                                                    portsToOpen,
+                                                    username,
+                                                    publicKeyName);
+
+        return createInstanceAsync(infrastructureId, instanceTag, instanceJson);
+    }
+
+    private String getAwsEc2InstanceJSON(String instanceTag, String image, int numberOfInstances, int cores, int ram,
+            String vmType, String spotPrice, String securityGroupNames, String subnetId, String macAddresses,
+            int[] portsToOpen, String username, String publicKeyName) {
+        return ConnectorIaasJSONTransformer.getAwsEc2InstanceJSON(instanceTag,
+                                                                  image,
+                                                                  "" + numberOfInstances,
+                                                                  "" + cores,
+                                                                  "" + ram,
+                                                                  vmType,
+                                                                  spotPrice,
+                                                                  securityGroupNames,
+                                                                  subnetId,
+                                                                  macAddresses,
+                                                                  portsToOpen,
+                                                                  username,
+                                                                  publicKeyName);
+    }
+
     public Set<String> createGCEInstances(String infrastructureId, String instanceTag, int numberOfInstances,
             String vmUsername, String vmPublicKey, String vmPrivateKey, List<String> initScripts, String image,
             String region, int ram, int cores) throws InstanceNotCreatedException {
@@ -338,6 +400,165 @@ public class ConnectorIaasController {
         runScriptOnInstance(infrastructureId, instanceId, instanceScriptJson);
     }
 
+    /**
+     * Asynchronous version of {@link #executeScriptWithCredentials(String, String, List, String, String)}. The
+     * returned future fails with a {@link ScriptNotExecutedException}.
+     */
+    public CompletableFuture<String> executeScriptWithCredentialsAsync(String infrastructureId, String instanceId,
+            List<String> scripts, String username, String password) {
+
+        String instanceScriptJson = ConnectorIaasJSONTransformer.getScriptInstanceJSONWithCredentials(scripts,
+                                                                                                      username,
+                                                                                                      password);
+
+        return runScriptOnInstanceAsync(infrastructureId, instanceId, instanceScriptJson);
+    }
+
+    /**
+     * Asynchronous version of {@link #executeScriptWithKeyAuthentication(String, String, List, String, String)}. The
+     * returned future fails with a {@link ScriptNotExecutedException}.
+     */
+    public CompletableFuture<String> executeScriptWithKeyAuthenticationAsync(String infrastructureId,
+            String instanceId, List<String> scripts, String username, String privateKey) {
+
+        String instanceScriptJson = ConnectorIaasJSONTransformer.getScriptInstanceJSONWithKeyAuthentication(scripts,
+                                                                                                            username,
+                                                                                                            privateKey);
+
+        return runScriptOnInstanceAsync(infrastructureId, instanceId, instanceScriptJson);
+    }
+
+    /**
+     * Executes the same script on all the instances having the given tag, in a single request to the
+     * connector-iaas. The result of each instance is passed to the given consumer as soon as it is received.
+     *
+     * @throws ScriptNotExecutedException if the request failed
+     */
+    public void executeScriptOnInstancesByTagWithCredentials(String infrastructureId, String instanceTag,
+            List<String> scripts, String username, String password, Consumer<InstanceScriptResult> resultConsumer)
+            throws ScriptNotExecutedException {
+        String instanceScriptJson = ConnectorIaasJSONTransformer.getScriptInstanceJSONWithCredentials(scripts,
+                                                                                                      username,
+                                                                                                      password);
+        runScriptOnInstancesByTag(infrastructureId, instanceTag, instanceScriptJson, resultConsumer);
+    }
+
+    /**
+     * Same as {@link #executeScriptOnInstancesByTagWithCredentials(String, String, List, String, String, Consumer)}
+     * with a private key authentication.
+     */
+    public void executeScriptOnInstancesByTagWithKeyAuthentication(String infrastructureId, String instanceTag,
+            List<String> scripts, String username, String privateKey, Consumer<InstanceScriptResult> resultConsumer)
+            throws ScriptNotExecutedException {
+        String instanceScriptJson = ConnectorIaasJSONTransformer.getScriptInstanceJSONWithKeyAuthentication(scripts,
+                                                                                                            username,
+                                                                                                            privateKey);
+        runScriptOnInstancesByTag(infrastructureId, instanceTag, instanceScriptJson, resultConsumer);
+    }
+
+    /**
+     * Executes a script on each of the given instances, the script of an instance being given by the
+     * scriptsForInstance function so that it can refer to the instance. All the executions are started at once, and
+     * their retries are scheduled without holding any thread. The result of each instance, successful or not, is
+     * passed to the given consumer as soon as it is known.
+     *
+     * @return a future completed once the results of all the instances are passed to the consumer, it never fails
+     */
+    public CompletableFuture<Void> executeScriptOnInstancesWithCredentials(String infrastructureId,
+            Set<String> instanceIds, Function<String, List<String>> scriptsForInstance, String username,
+            String password, Consumer<InstanceScriptResult> resultConsumer) {
+        return runScriptOnInstances(infrastructureId,
+                                    instanceIds,
+                                    instanceId -> ConnectorIaasJSONTransformer.getScriptInstanceJSONWithCredentials(scriptsForInstance.apply(instanceId),
+                                                                                                                    username,
+                                                                                                                    password),
+                                    resultConsumer);
+    }
+
+    /**
+     * Same as
+     * {@link #executeScriptOnInstancesWithCredentials(String, Set, Function, String, String, Consumer)} with a
+     * private key authentication.
+     */
+    public CompletableFuture<Void> executeScriptOnInstancesWithKeyAuthentication(String infrastructureId,
+            Set<String> instanceIds, Function<String, List<String>> scriptsForInstance, String username,
+            String privateKey, Consumer<InstanceScriptResult> resultConsumer) {
+        return runScriptOnInstances(infrastructureId,
+                                    instanceIds,
+                                    instanceId -> ConnectorIaasJSONTransformer.getScriptInstanceJSONWithKeyAuthentication(scriptsForInstance.apply(instanceId),
+                                                                                                                          username,
+                                                                                                                          privateKey),
+                                    resultConsumer);
+    }
+
+    private void runScriptOnInstancesByTag(String infrastructureId, String instanceTag, String instanceScriptJson,
+            Consumer<InstanceScriptResult> resultConsumer) throws ScriptNotExecutedException {
+        try {
+            logger.info("Trying to execute script for instances with tag:" + instanceTag);
+            connectorIaasClient.runScriptOnInstancesByTag(infrastructureId,
+                                                          instanceTag,
+                                                          instanceScriptJson,
+                                                          result -> {
+                                                              logger.info("Script result: " + result);
+                                                              resultConsumer.accept(result);
+                                                          });
+        } catch (Exception e) {
+            logger.error("Error while executing script for instances with tag:" + instanceTag, e);
+            throw new ScriptNotExecutedException(e);
+        }
+    }
+
+    private CompletableFuture<Void> runScriptOnInstances(String infrastructureId, Set<String> instanceIds,
+            Function<String, String> instanceScriptJsonForInstance, Consumer<InstanceScriptResult> resultConsumer) {
+        long startTime = System.currentTimeMillis();
+        CompletableFuture<?>[] results = instanceIds.stream().map(instanceId -> {
+            CompletableFuture<String> scriptResult;
+            try {
+                scriptResult = runScriptOnInstanceAsync(infrastructureId,
+                                                        instanceId,
+                                                        instanceScriptJsonForInstance.apply(instanceId));
+            } catch (RuntimeException e) {
+                scriptResult = new CompletableFuture<>();
+                scriptResult.completeExceptionally(e);
+            }
+            return scriptResult.handle((output, throwable) -> {
+                long duration = System.currentTimeMillis() - startTime;
+                try {
+                    resultConsumer.accept(throwable == null ? InstanceScriptResult.executed(instanceId,
+                                                                                            output,
+                                                                                            null,
+                                                                                            duration)
+                                                            : InstanceScriptResult.failed(instanceId,
+                                                                                          ConnectorIaasClient.unwrap(throwable),
+                                                                                          duration));
+                } catch (RuntimeException e) {
+                    // the results of the other instances are still passed to the consumer
+                    logger.error("Error while handling the script result of instance id:" + instanceId, e);
+                }
+                return null;
+            });
+        }).toArray(CompletableFuture[]::new);
+        return CompletableFuture.allOf(results);
+    }
+
+    private CompletableFuture<String> runScriptOnInstanceAsync(String infrastructureId, String instanceId,
+            String instanceScriptJson) {
+        logger.info("Trying to execute script asynchronously for instance id:" + instanceId);
+
+        return connectorIaasClient.runScriptOnInstanceAsync(infrastructureId, instanceId, instanceScriptJson)
+                                  .handle((scriptResult, throwable) -> {
+                                      if (throwable != null) {
+                                          Throwable cause = ConnectorIaasClient.unwrap(throwable);
+                                          logger.error("Error while executing script for instance id:" + instanceId,
+                                                       cause);
+                                          throw new CompletionException(new ScriptNotExecutedException(asException(cause)));
+                                      }
+                                      logger.info("Executed successfully script for instance id:" + instanceId);
+                                      logger.info("Script result: " + scriptResult);
+                                      return scriptResult;
+                                  });
+    }
+
     private void runScriptOnInstance(String infrastructureId, String instanceId, String instanceScriptJson)
             throws ScriptNotExecutedException {
         String scriptResult = null;
@@ -362,23 +583,64 @@ public class ConnectorIaasController {
     }
 
     public void terminateInfrastructure(String infrastructureId, boolean deleteInstances) {
+        instancesIndexCache.invalidate(infrastructureId);
         connectorIaasClient.terminateInfrastructure(infrastructureId, deleteInstances);
     }
 
     public void terminateInstance(String infrastructureId, String instanceId) {
         logger.info("Deleting instance : " + instanceId + " in infrastructure " + infrastructureId);
-        connectorIaasClient.terminateInstance(infrastructureId, instanceId);
+        try {
+            connectorIaasClient.terminateInstance(infrastructureId, instanceId);
+        } catch (RuntimeException e) {
+            instancesIndexCache.invalidate(infrastructureId);
+            throw e;
+        }
+        instancesIndexCache.onInstanceTerminated(infrastructureId, instanceId);
     }
 
     public void terminateInstanceByTag(String infrastructureId, String instanceTag) {
         logger.info("Deleting instance by tag: " + instanceTag + " in infrastructure " + infrastructureId);
-        connectorIaasClient.terminateInstanceByTag(infrastructureId, instanceTag);
+        try {
+            connectorIaasClient.terminateInstanceByTag(infrastructureId, instanceTag);
+        } catch (RuntimeException e) {
+            instancesIndexCache.invalidate(infrastructureId);
+            throw e;
+        }
+        instancesIndexCache.onInstancesTerminatedByTag(infrastructureId, instanceTag);
+    }
+
+    public CompletableFuture<Void> terminateInstanceAsync(String infrastructureId, String instanceId) {
+        logger.info("Deleting instance asynchronously : " + instanceId + " in infrastructure " + infrastructureId);
+        return connectorIaasClient.terminateInstanceAsync(infrastructureId, instanceId)
+                                  .whenComplete((result, throwable) -> {
+                                      if (throwable != null) {
+                                          instancesIndexCache.invalidate(infrastructureId);
+                                      } else {
+                                          instancesIndexCache.onInstanceTerminated(infrastructureId, instanceId);
+                                      }
+                                  });
+    }
+
+    public CompletableFuture<Void> terminateInstanceByTagAsync(String infrastructureId, String instanceTag) {
+        logger.info("Deleting instance asynchronously by tag: " + instanceTag + " in infrastructure " +
+                    infrastructureId);
+        return connectorIaasClient.terminateInstanceByTagAsync(infrastructureId, instanceTag)
+                                  .whenComplete((result, throwable) -> {
+                                      if (throwable != null) {
+                                          instancesIndexCache.invalidate(infrastructureId);
+                                      } else {
+                                          instancesIndexCache.onInstancesTerminatedByTag(infrastructureId,
+                                                                                         instanceTag);
+                                      }
+                                  });
     }
 
     private Set<String> createInstance(String infrastructureId, String instanceTag, String instanceJson)
             throws InstanceNotCreatedException {
         try {
-            Set<JSONObject> existingInstancesByInfrastructureId = connectorIaasClient.getAllJsonInstancesByInfrastructureId(infrastructureId);
+            InstancesIndex existingInstancesByInfrastructureId = instancesIndexCache.get(infrastructureId,
+                                                                                         instanceTag,
+                                                                                         () -> connectorIaasClient.getInstancesIndexByInfrastructureId(infrastructureId));
 
             logger.info("Total existing Instances By Infrastructure Id : " +
                         existingInstancesByInfrastructureId.size());
@@ -387,6 +649,7 @@ public class ConnectorIaasController {
                                                                                      instanceTag,
                                                                                      instanceJson,
                                                                                      existingInstancesByInfrastructureId);
+            instancesIndexCache.onInstancesCreated(infrastructureId, instanceTag);
 
             logger.info("Instances ids created : " + instancesIds);
 
@@ -397,6 +660,32 @@ public class ConnectorIaasController {
         }
     }
 
+    private CompletableFuture<Set<String>> createInstanceAsync(String infrastructureId, String instanceTag,
+            String instanceJson) {
+        return instancesIndexCache.getAsync(infrastructureId,
+                                            instanceTag,
+                                            () -> connectorIaasClient.getInstancesIndexByInfrastructureIdAsync(infrastructureId))
+                                  .thenCompose(existingInstances -> connectorIaasClient.createInstancesIfNotExistAsync(infrastructureId,
+                                                                                                                       instanceTag,
+                                                                                                                       instanceJson,
+                                                                                                                       existingInstances))
+                                  .handle((instancesIds, throwable) -> {
+                                      if (throwable != null) {
+                                          Throwable cause = ConnectorIaasClient.unwrap(throwable);
+                                          logger.error("Error while creating the instance: " + instanceTag + "; " +
+                                                       instanceJson, cause);
+                                          throw new CompletionException(new InstanceNotCreatedException(cause));
+                                      }
+                                      instancesIndexCache.onInstancesCreated(infrastructureId, instanceTag);
+                                      logger.info("Instances ids created : " + instancesIds);
+                                      return instancesIds;
+                                  });
+    }
+
+    private static Exception asException(Throwable throwable) {
+        return throwable instanceof Exception ? (Exception) throwable : new RuntimeException(throwable);
+    }
+
     public SimpleImmutableEntry<String, String> createAwsEc2KeyPair(String infrastructureId, String instanceTag,
             String image, int numberOfInstances, int cores, int ram) {
         String instanceJson = ConnectorIaasJSONTransformer.getInstanceJSON(instanceTag,
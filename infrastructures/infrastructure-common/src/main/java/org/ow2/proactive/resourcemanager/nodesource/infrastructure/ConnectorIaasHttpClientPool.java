@@ -0,0 +1,245 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.resourcemanager.nodesource.infrastructure;
+
+import java.security.KeyManagementException;
+import java.security.KeyStoreException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLContext;
+
+import org.apache.commons.configuration2.Configuration;
+import org.apache.commons.configuration2.ex.ConfigurationException;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.NoopHostnameVerifier;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.conn.ssl.TrustStrategy;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.StandardHttpRequestRetryHandler;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.nio.conn.NoopIOSessionStrategy;
+import org.apache.http.nio.conn.SchemeIOSessionStrategy;
+import org.apache.http.nio.conn.ssl.SSLIOSessionStrategy;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.ssl.SSLContexts;
+import org.apache.log4j.Logger;
+import org.ow2.proactive.resourcemanager.nodesource.infrastructure.util.NSProperties;
+import org.ow2.proactive.web.WebProperties;
+
+
+/**
+ * Holds one pooled http client per connector-iaas url, shared by all the {@link RestClient} of the resource manager.
+ * Node sources talking to the same connector-iaas thus reuse the same TCP/TLS connections instead of opening a new
+ * connection pool (and a new TLS handshake) for each infrastructure. The same applies to the non-blocking http
+ * clients used by the {@link AsyncRestClient}.
+ *
+ * The pool sizes and timeouts are read from the NodeSource properties file.
+ */
+public class ConnectorIaasHttpClientPool {
+
+    private static final Logger logger = Logger.getLogger(ConnectorIaasHttpClientPool.class);
+
+    private static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 50;
+
+    private static final int DEFAULT_MAX_CONNECTIONS_TOTAL = 200;
+
+    private static final int DEFAULT_IDLE_CONNECTION_TIMEOUT_IN_SECONDS = 60;
+
+    private static final int DEFAULT_KEEP_ALIVE_TIMEOUT_IN_SECONDS = 30;
+
+    private static final Map<String, CloseableHttpClient> httpClientsPerUrl = new ConcurrentHashMap<>();
+
+    private static final Map<String, CloseableHttpAsyncClient> asyncHttpClientsPerUrl = new ConcurrentHashMap<>();
+
+    private static ScheduledExecutorService asyncConnectionsEvictor;
+
+    private static Configuration nsConfig;
+
+    static {
+        try {
+            nsConfig = NSProperties.loadConfig();
+        } catch (ConfigurationException e) {
+            logger.error("Exception when loading NodeSource properties", e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    private ConnectorIaasHttpClientPool() {
+    }
+
+    /**
+     * @param connectorIaasURL the url of the connector-iaas
+     * @return the http client shared by all the clients of the given connector-iaas url. The returned client must not
+     * be closed by the caller.
+     */
+    public static CloseableHttpClient getHttpClient(String connectorIaasURL) {
+        return httpClientsPerUrl.computeIfAbsent(connectorIaasURL, url -> createPooledHttpClient());
+    }
+
+    /**
+     * @param connectorIaasURL the url of the connector-iaas
+     * @return the started non-blocking http client shared by all the asynchronous clients of the given connector-iaas
+     * url. The returned client must not be closed by the caller.
+     */
+    public static CloseableHttpAsyncClient getAsyncHttpClient(String connectorIaasURL) {
+        return asyncHttpClientsPerUrl.computeIfAbsent(connectorIaasURL, url -> createPooledAsyncHttpClient());
+    }
+
+    static int getMaxConnectionsPerRoute() {
+        return nsConfig.getInt(NSProperties.CONNECTOR_IAAS_MAX_CONNECTIONS_PER_ROUTE,
+                               DEFAULT_MAX_CONNECTIONS_PER_ROUTE);
+    }
+
+    static int getMaxConnectionsTotal() {
+        return nsConfig.getInt(NSProperties.CONNECTOR_IAAS_MAX_CONNECTIONS_TOTAL, DEFAULT_MAX_CONNECTIONS_TOTAL);
+    }
+
+    static int getIdleConnectionTimeoutInSeconds() {
+        return nsConfig.getInt(NSProperties.CONNECTOR_IAAS_IDLE_CONNECTION_TIMEOUT,
+                               DEFAULT_IDLE_CONNECTION_TIMEOUT_IN_SECONDS);
+    }
+
+    static int getKeepAliveTimeoutInSeconds() {
+        return nsConfig.getInt(NSProperties.CONNECTOR_IAAS_KEEP_ALIVE_TIMEOUT, DEFAULT_KEEP_ALIVE_TIMEOUT_IN_SECONDS);
+    }
+
+    private static CloseableHttpClient createPooledHttpClient() {
+        RegistryBuilder<ConnectionSocketFactory> registryBuilder = RegistryBuilder.create();
+        registryBuilder.register("http", PlainConnectionSocketFactory.getSocketFactory());
+        registryBuilder.register("https", createSSLConnectionSocketFactory());
+        Registry<ConnectionSocketFactory> socketFactoryRegistry = registryBuilder.build();
+
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(socketFactoryRegistry);
+        connectionManager.setDefaultMaxPerRoute(getMaxConnectionsPerRoute());
+        connectionManager.setMaxTotal(getMaxConnectionsTotal());
+
+        return HttpClientBuilder.create()
+                                .useSystemProperties()
+                                .setConnectionManager(connectionManager)
+                                .setKeepAliveStrategy(createKeepAliveStrategy())
+                                .setRetryHandler(new StandardHttpRequestRetryHandler())
+                                .evictExpiredConnections()
+                                .evictIdleConnections(getIdleConnectionTimeoutInSeconds(), TimeUnit.SECONDS)
+                                .build();
+    }
+
+    private static CloseableHttpAsyncClient createPooledAsyncHttpClient() {
+        RegistryBuilder<SchemeIOSessionStrategy> registryBuilder = RegistryBuilder.create();
+        registryBuilder.register("http", NoopIOSessionStrategy.INSTANCE);
+        registryBuilder.register("https", new SSLIOSessionStrategy(createSSLContext(), createHostnameVerifier()));
+
+        PoolingNHttpClientConnectionManager connectionManager;
+        try {
+            connectionManager = new PoolingNHttpClientConnectionManager(new DefaultConnectingIOReactor(),
+                                                                        registryBuilder.build());
+        } catch (IOReactorException e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+        connectionManager.setDefaultMaxPerRoute(getMaxConnectionsPerRoute());
+        connectionManager.setMaxTotal(getMaxConnectionsTotal());
+        scheduleAsyncConnectionsEviction(connectionManager);
+
+        CloseableHttpAsyncClient asyncHttpClient = HttpAsyncClients.custom()
+                                                                   .useSystemProperties()
+                                                                   .setConnectionManager(connectionManager)
+                                                                   .setKeepAliveStrategy(createKeepAliveStrategy())
+                                                                   .build();
+        asyncHttpClient.start();
+        return asyncHttpClient;
+    }
+
+    /**
+     * The non-blocking connection managers have no built-in idle connection evictor, contrary to the blocking ones.
+     */
+    private static synchronized void scheduleAsyncConnectionsEviction(
+            PoolingNHttpClientConnectionManager connectionManager) {
+        if (asyncConnectionsEvictor == null) {
+            asyncConnectionsEvictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "connector-iaas-async-connections-evictor");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        long idleConnectionTimeout = getIdleConnectionTimeoutInSeconds();
+        asyncConnectionsEvictor.scheduleWithFixedDelay(() -> {
+            connectionManager.closeExpiredConnections();
+            connectionManager.closeIdleConnections(idleConnectionTimeout, TimeUnit.SECONDS);
+        }, idleConnectionTimeout, idleConnectionTimeout, TimeUnit.SECONDS);
+    }
+
+    private static ConnectionKeepAliveStrategy createKeepAliveStrategy() {
+        long keepAliveTimeout = TimeUnit.SECONDS.toMillis(getKeepAliveTimeoutInSeconds());
+        return (response, context) -> {
+            long serverKeepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+            return serverKeepAlive > 0 ? serverKeepAlive : keepAliveTimeout;
+        };
+    }
+
+    private static SSLConnectionSocketFactory createSSLConnectionSocketFactory() {
+        return new SSLConnectionSocketFactory(createSSLContext(), createHostnameVerifier());
+    }
+
+    private static SSLContext createSSLContext() {
+        SSLContext sslContext;
+        if (WebProperties.WEB_HTTPS_ALLOW_ANY_CERTIFICATE.getValueAsBoolean()) {
+            TrustStrategy acceptingTrustStrategy = (cert, authType) -> true;
+            try {
+                sslContext = SSLContexts.custom().loadTrustMaterial(null, acceptingTrustStrategy).build();
+            } catch (NoSuchAlgorithmException | KeyManagementException | KeyStoreException e) {
+                throw new RuntimeException(e.getMessage(), e);
+            }
+        } else {
+            sslContext = SSLContexts.createSystemDefault();
+        }
+        return sslContext;
+    }
+
+    private static HostnameVerifier createHostnameVerifier() {
+        HostnameVerifier hostnameVerifier;
+        if (WebProperties.WEB_HTTPS_ALLOW_ANY_HOSTNAME.getValueAsBoolean()) {
+            hostnameVerifier = NoopHostnameVerifier.INSTANCE;
+        } else {
+            hostnameVerifier = SSLConnectionSocketFactory.getDefaultHostnameVerifier();
+        }
+        return hostnameVerifier;
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.resourcemanager.nodesource.infrastructure;
+
+/**
+ * Signals that the connector-iaas answered a request with an unexpected http status.
+ */
+public class ConnectorIaasHttpException extends RuntimeException {
+
+    private final int status;
+
+    public ConnectorIaasHttpException(int status, String errorMessage) {
+        super(String.format("Failed: HTTP error code %s with error message: %s. ", status, errorMessage));
+        this.status = status;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * @return true if the error is on the connector-iaas side, so that the same request may succeed later
+     */
+    public boolean isServerError() {
+        return status >= 500;
+    }
+
+    /**
+     * @return true if the instance targeted by the request is not found, or not in a state to handle it, which only
+     * lasts while the instance is being created
+     */
+    public boolean isInstanceNotReady() {
+        return status == 404 || status == 409;
+    }
+
+}
@@ -0,0 +1,108 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.resourcemanager.nodesource.infrastructure;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import org.apache.commons.configuration2.Configuration;
+import org.apache.commons.configuration2.ex.ConfigurationException;
+import org.apache.log4j.Logger;
+import org.ow2.proactive.resourcemanager.nodesource.infrastructure.util.NSProperties;
+
+
+/**
+ * Remembers when a connector-iaas url was last seen up, shared by all the clients of this url. Any call answered by
+ * the connector-iaas refreshes it, so that the liveness check done before each deployment is free as long as the
+ * connector-iaas is being used.
+ */
+public class ConnectorIaasLivenessCache {
+
+    private static final Logger logger = Logger.getLogger(ConnectorIaasLivenessCache.class);
+
+    private static final long DEFAULT_TIME_TO_LIVE = 5000;
+
+    private static final long NEVER_SEEN_UP = Long.MIN_VALUE;
+
+    private static final Map<String, ConnectorIaasLivenessCache> livenessCachesPerUrl = new ConcurrentHashMap<>();
+
+    private static Configuration nsConfig;
+
+    static {
+        try {
+            nsConfig = NSProperties.loadConfig();
+        } catch (ConfigurationException e) {
+            logger.error("Exception when loading NodeSource properties", e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    private final long timeToLiveNanos;
+
+    private final LongSupplier nanoClock;
+
+    private final AtomicLong lastSeenUpTime = new AtomicLong(NEVER_SEEN_UP);
+
+    /**
+     * @param connectorIaasURL the url of the connector-iaas
+     * @return the liveness cache shared by all the clients of the given url
+     */
+    public static ConnectorIaasLivenessCache forUrl(String connectorIaasURL) {
+        return livenessCachesPerUrl.computeIfAbsent(connectorIaasURL, url -> {
+            long timeToLive = nsConfig.getLong(NSProperties.CONNECTOR_IAAS_LIVENESS_CACHE_TTL, DEFAULT_TIME_TO_LIVE);
+            return new ConnectorIaasLivenessCache(timeToLive);
+        });
+    }
+
+    public ConnectorIaasLivenessCache(long timeToLiveMillis) {
+        this(timeToLiveMillis, System::nanoTime);
+    }
+
+    ConnectorIaasLivenessCache(long timeToLiveMillis, LongSupplier nanoClock) {
+        this.timeToLiveNanos = TimeUnit.MILLISECONDS.toNanos(timeToLiveMillis);
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * @return true if the connector-iaas answered a call less than the time to live ago
+     */
+    public boolean isUp() {
+        long lastSeenUp = lastSeenUpTime.get();
+        return lastSeenUp != NEVER_SEEN_UP && nanoClock.getAsLong() - lastSeenUp < timeToLiveNanos;
+    }
+
+    public void markUp() {
+        lastSeenUpTime.set(nanoClock.getAsLong());
+    }
+
+    public void markDown() {
+        lastSeenUpTime.set(NEVER_SEEN_UP);
+    }
+
+}
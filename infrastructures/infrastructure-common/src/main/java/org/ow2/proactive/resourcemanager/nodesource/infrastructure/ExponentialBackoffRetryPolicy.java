@@ -0,0 +1,77 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.resourcemanager.nodesource.infrastructure;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+
+/**
+ * Exponential backoff with full jitter: the delay before the n-th retry is drawn uniformly between 0 and
+ * min(maxDelay, initialDelay * 2^(n-1)), so that the clients failing at the same time do not retry in lockstep.
+ * The retries stop after a maximum number of attempts, or when the next attempt would start after the maximum
+ * elapsed time.
+ */
+public class ExponentialBackoffRetryPolicy implements RetryPolicy {
+
+    private final long initialDelayMillis;
+
+    private final long maxDelayMillis;
+
+    private final long maxElapsedTimeMillis;
+
+    private final int maxAttempts;
+
+    public ExponentialBackoffRetryPolicy(long initialDelayMillis, long maxDelayMillis, long maxElapsedTimeMillis,
+            int maxAttempts) {
+        if (initialDelayMillis <= 0 || maxDelayMillis < initialDelayMillis) {
+            throw new IllegalArgumentException("Invalid retry delays: initial delay " + initialDelayMillis +
+                                               ", max delay " + maxDelayMillis);
+        }
+        this.initialDelayMillis = initialDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.maxElapsedTimeMillis = maxElapsedTimeMillis;
+        this.maxAttempts = maxAttempts;
+    }
+
+    @Override
+    public long getDelayBeforeRetry(int failedAttempts, long elapsedTimeMillis) {
+        if (failedAttempts >= maxAttempts) {
+            return NO_RETRY;
+        }
+        long delay = ThreadLocalRandom.current().nextLong(getMaxDelayBeforeRetry(failedAttempts) + 1);
+        if (elapsedTimeMillis + delay > maxElapsedTimeMillis) {
+            return NO_RETRY;
+        }
+        return delay;
+    }
+
+    long getMaxDelayBeforeRetry(int failedAttempts) {
+        // avoid the overflow of the shift, the max delay is reached long before anyway
+        int exponent = Math.min(failedAttempts - 1, 30);
+        return Math.min(maxDelayMillis, initialDelayMillis << exponent);
+    }
+
+}
@@ -0,0 +1,174 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.resourcemanager.nodesource.infrastructure;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.function.Consumer;
+
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+
+
+/**
+ * Result of a script executed on one instance, as part of a script execution on several instances. Either the
+ * connector-iaas answered with the output of the script on the instance, or the execution failed.
+ */
+public class InstanceScriptResult {
+
+    private static final JsonFactory jsonFactory = new JsonFactory();
+
+    private static final String INSTANCE_ID_FIELD = "instanceId";
+
+    private static final String OUTPUT_FIELD = "output";
+
+    private static final String ERROR_FIELD = "error";
+
+    private final String instanceId;
+
+    private final String output;
+
+    private final String error;
+
+    private final Throwable failure;
+
+    private final long durationMillis;
+
+    private InstanceScriptResult(String instanceId, String output, String error, Throwable failure,
+            long durationMillis) {
+        this.instanceId = instanceId;
+        this.output = output;
+        this.error = error;
+        this.failure = failure;
+        this.durationMillis = durationMillis;
+    }
+
+    public static InstanceScriptResult executed(String instanceId, String output, String error, long durationMillis) {
+        return new InstanceScriptResult(instanceId, output, error, null, durationMillis);
+    }
+
+    public static InstanceScriptResult failed(String instanceId, Throwable failure, long durationMillis) {
+        return new InstanceScriptResult(instanceId, null, null, failure, durationMillis);
+    }
+
+    /**
+     * Reads the script results returned by the connector-iaas for a script executed on several instances, and
+     * passes each of them to the given consumer as soon as it is read, before the rest of the response is received.
+     *
+     * @return the number of results read
+     */
+    public static int parse(InputStream scriptResultsJson, long startTime, Consumer<InstanceScriptResult> consumer)
+            throws IOException {
+        try (JsonParser parser = jsonFactory.createJsonParser(scriptResultsJson)) {
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.START_OBJECT) {
+                consumer.accept(parseResult(parser, startTime));
+                return 1;
+            }
+            if (token != JsonToken.START_ARRAY) {
+                throw new IOException("Expected an array of script results but got " + token);
+            }
+            int count = 0;
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                consumer.accept(parseResult(parser, startTime));
+                count++;
+            }
+            if (parser.getCurrentToken() != JsonToken.END_ARRAY) {
+                throw new IOException("Expected the end of the array of script results but got " +
+                                      parser.getCurrentToken());
+            }
+            return count;
+        }
+    }
+
+    private static InstanceScriptResult parseResult(JsonParser parser, long startTime) throws IOException {
+        String instanceId = null;
+        String output = null;
+        String error = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String fieldName = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if (!value.isScalarValue()) {
+                parser.skipChildren();
+            } else if (INSTANCE_ID_FIELD.equals(fieldName)) {
+                instanceId = parser.getText();
+            } else if (OUTPUT_FIELD.equals(fieldName)) {
+                output = parser.getText();
+            } else if (ERROR_FIELD.equals(fieldName)) {
+                error = parser.getText();
+            }
+        }
+        return executed(instanceId, output, error, System.currentTimeMillis() - startTime);
+    }
+
+    public String getInstanceId() {
+        return instanceId;
+    }
+
+    /**
+     * @return the standard output of the script, null if the execution failed
+     */
+    public String getOutput() {
+        return output;
+    }
+
+    /**
+     * @return the error output of the script, null if the execution failed
+     */
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * @return the reason why the script could not be executed on the instance, null if it was executed
+     */
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    public boolean isExecuted() {
+        return failure == null;
+    }
+
+    /**
+     * @return the time elapsed between the start of the execution and the reception of this result
+     */
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    @Override
+    public String toString() {
+        if (isExecuted()) {
+            return "InstanceScriptResult{instanceId=" + instanceId + ", output=" + output + ", error=" + error +
+                   ", durationMillis=" + durationMillis + "}";
+        }
+        return "InstanceScriptResult{instanceId=" + instanceId + ", failure=" + failure + ", durationMillis=" +
+               durationMillis + "}";
+    }
+
+}
@@ -0,0 +1,220 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.resourcemanager.nodesource.infrastructure;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.apache.commons.configuration2.Configuration;
+import org.apache.commons.configuration2.ex.ConfigurationException;
+import org.apache.log4j.Logger;
+import org.ow2.proactive.resourcemanager.nodesource.infrastructure.util.NSProperties;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+
+/**
+ * Terminates the instances emptied of their nodes in the background, so that the removal of many nodes, typically
+ * when a policy scales down a node source, does not wait for the deletions one after the other. The terminations
+ * requested while one is already pending for the same instance of the same infrastructure are merged with it. A
+ * bounded number of terminations runs at the same time, and a failed termination is retried up to the configured
+ * number of attempts, after a delay doubled at each attempt. A termination waiting for its next attempt does not hold
+ * a thread of the queue.
+ */
+public class InstanceTerminationQueue {
+
+    private static final Logger logger = Logger.getLogger(InstanceTerminationQueue.class);
+
+    public static final int DEFAULT_PARALLELISM = 10;
+
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+
+    public static final long DEFAULT_RETRY_DELAY = 60000;
+
+    private static final long IDLE_THREAD_KEEP_ALIVE_SECONDS = 60;
+
+    private static final ScheduledExecutorService retryScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("instance-termination-retry-%d")
+                                                                                                                                       .setDaemon(true)
+                                                                                                                                       .build());
+
+    private static Configuration nsConfig;
+
+    static {
+        try {
+            nsConfig = NSProperties.loadConfig();
+        } catch (ConfigurationException e) {
+            logger.error("Exception when loading NodeSource properties", e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    private final int maxAttempts;
+
+    private final long retryDelayMillis;
+
+    private final ThreadPoolExecutor workers;
+
+    private final Map<PendingTermination, CompletableFuture<Void>> pendingTerminations = new ConcurrentHashMap<>();
+
+    /**
+     * @param name the name of the threads of the queue, typically the name of the node source
+     */
+    public InstanceTerminationQueue(String name) {
+        this(name,
+             nsConfig.getInt(NSProperties.INSTANCES_TERMINATION_PARALLELISM, DEFAULT_PARALLELISM),
+             nsConfig.getInt(NSProperties.INSTANCES_TERMINATION_MAX_ATTEMPTS, DEFAULT_MAX_ATTEMPTS),
+             nsConfig.getLong(NSProperties.INSTANCES_TERMINATION_RETRY_DELAY, DEFAULT_RETRY_DELAY));
+    }
+
+    InstanceTerminationQueue(String name, int parallelism, int maxAttempts, long retryDelayMillis) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.retryDelayMillis = Math.max(0, retryDelayMillis);
+        int nbThreads = Math.max(1, parallelism);
+        // the threads are only kept while there are terminations to run
+        this.workers = new ThreadPoolExecutor(nbThreads,
+                                              nbThreads,
+                                              IDLE_THREAD_KEEP_ALIVE_SECONDS,
+                                              TimeUnit.SECONDS,
+                                              new LinkedBlockingQueue<>(),
+                                              new ThreadFactoryBuilder().setNameFormat(name + "-termination-%d")
+                                                                        .setDaemon(true)
+                                                                        .build());
+        this.workers.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Queue the termination of an instance, unless its termination is already pending.
+     * @param infrastructureId the identifier of the infrastructure of the instance
+     * @param instance the identifier or the tag of the instance, depending on the termination
+     * @param termination the call to the cloud provider that terminates the instance
+     * @return a future completed once the instance is terminated, or completed exceptionally once all the attempts
+     * have failed
+     */
+    public CompletableFuture<Void> submit(String infrastructureId, String instance, Runnable termination) {
+        PendingTermination pendingTermination = new PendingTermination(infrastructureId, instance);
+        CompletableFuture<Void> terminated = new CompletableFuture<>();
+        CompletableFuture<Void> alreadyPending = pendingTerminations.putIfAbsent(pendingTermination, terminated);
+        if (alreadyPending != null) {
+            logger.debug("Termination of instance " + instance + " is already pending");
+            return alreadyPending;
+        }
+        logger.info("Instance " + instance + " queued for termination, " + getBacklog() +
+                    " termination(s) pending in the queue");
+        workers.execute(() -> terminate(pendingTermination, termination, terminated, 1));
+        return terminated;
+    }
+
+    private void terminate(PendingTermination pendingTermination, Runnable termination,
+            CompletableFuture<Void> terminated, int attempt) {
+        try {
+            termination.run();
+        } catch (RuntimeException e) {
+            if (attempt < maxAttempts) {
+                // each attempt already retries the calls to the cloud provider, the next one is not worth running
+                // right away
+                long delay = getRetryDelay(attempt);
+                logger.warn("Attempt " + attempt + " to terminate instance " + pendingTermination.instance +
+                            " failed, retrying in " + delay + " ms", e);
+                retryScheduler.schedule(() -> workers.execute(() -> terminate(pendingTermination,
+                                                                              termination,
+                                                                              terminated,
+                                                                              attempt + 1)),
+                                        delay,
+                                        TimeUnit.MILLISECONDS);
+            } else {
+                logger.error("Failed to terminate instance " + pendingTermination.instance + " after " + attempt +
+                             " attempt(s)", e);
+                pendingTerminations.remove(pendingTermination, terminated);
+                terminated.completeExceptionally(e);
+            }
+            return;
+        }
+        pendingTerminations.remove(pendingTermination, terminated);
+        terminated.complete(null);
+    }
+
+    private long getRetryDelay(int failedAttempts) {
+        return retryDelayMillis << Math.min(failedAttempts - 1, 16);
+    }
+
+    /**
+     * @return the number of terminations queued or running
+     */
+    public int getBacklog() {
+        return pendingTerminations.size();
+    }
+
+    /**
+     * @param infrastructureId the identifier of an infrastructure
+     * @return the identifiers or tags of the instances of the infrastructure whose termination is queued or running
+     */
+    public Set<String> getPendingTerminations(String infrastructureId) {
+        return pendingTerminations.keySet()
+                                  .stream()
+                                  .filter(pendingTermination -> pendingTermination.infrastructureId.equals(infrastructureId))
+                                  .map(pendingTermination -> pendingTermination.instance)
+                                  .collect(Collectors.toSet());
+    }
+
+    private static final class PendingTermination {
+
+        private final String infrastructureId;
+
+        private final String instance;
+
+        private PendingTermination(String infrastructureId, String instance) {
+            this.infrastructureId = infrastructureId;
+            this.instance = instance;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof PendingTermination)) {
+                return false;
+            }
+            PendingTermination that = (PendingTermination) o;
+            return infrastructureId.equals(that.infrastructureId) && instance.equals(that.instance);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(infrastructureId, instance);
+        }
+    }
+
+}
@@ -0,0 +1,151 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.resourcemanager.nodesource.infrastructure;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+
+
+/**
+ * Index of the instance ids of an infrastructure per instance tag. It is built by streaming the instances listing
+ * returned by the connector-iaas: only the id and the tag of each instance are kept, the rest of the description of
+ * the instances is skipped without being materialized. The index can then be kept up to date locally when
+ * instances are terminated; all its methods are thread-safe.
+ */
+public class InstancesIndex {
+
+    private static final JsonFactory jsonFactory = new JsonFactory();
+
+    private static final String ID_FIELD = "id";
+
+    private static final String TAG_FIELD = "tag";
+
+    private final Map<String, Set<String>> instanceIdsPerTag = new HashMap<>();
+
+    private final Map<String, String> tagPerInstanceId = new HashMap<>();
+
+    public static InstancesIndex parse(InputStream instancesJson) throws IOException {
+        try (JsonParser parser = jsonFactory.createJsonParser(instancesJson)) {
+            return parse(parser);
+        }
+    }
+
+    public static InstancesIndex parse(String instancesJson) throws IOException {
+        try (JsonParser parser = jsonFactory.createJsonParser(instancesJson)) {
+            return parse(parser);
+        }
+    }
+
+    private static InstancesIndex parse(JsonParser parser) throws IOException {
+        InstancesIndex instancesIndex = new InstancesIndex();
+        if (parser.nextToken() != JsonToken.START_ARRAY) {
+            throw new IOException("Expected an array of instances but got " + parser.getCurrentToken());
+        }
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            String id = null;
+            String tag = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String fieldName = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if (ID_FIELD.equals(fieldName) && value.isScalarValue()) {
+                    id = parser.getText();
+                } else if (TAG_FIELD.equals(fieldName) && value.isScalarValue()) {
+                    tag = parser.getText();
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            if (id != null) {
+                instancesIndex.add(tag, id);
+            }
+        }
+        if (parser.getCurrentToken() != JsonToken.END_ARRAY) {
+            throw new IOException("Expected the end of the array of instances but got " + parser.getCurrentToken());
+        }
+        return instancesIndex;
+    }
+
+    public synchronized void add(String tag, String instanceId) {
+        if (tagPerInstanceId.containsKey(instanceId)) {
+            removeFromTag(tagPerInstanceId.get(instanceId), instanceId);
+        }
+        tagPerInstanceId.put(instanceId, tag);
+        instanceIdsPerTag.computeIfAbsent(tag, key -> new HashSet<>(1)).add(instanceId);
+    }
+
+    /**
+     * Removes the instance having the given id, whatever its tag
+     */
+    public synchronized void remove(String instanceId) {
+        if (tagPerInstanceId.containsKey(instanceId)) {
+            removeFromTag(tagPerInstanceId.remove(instanceId), instanceId);
+        }
+    }
+
+    /**
+     * Removes all the instances having the given tag
+     */
+    public synchronized void removeTag(String tag) {
+        Set<String> instanceIds = instanceIdsPerTag.remove(tag);
+        if (instanceIds != null) {
+            instanceIds.forEach(tagPerInstanceId::remove);
+        }
+    }
+
+    private void removeFromTag(String tag, String instanceId) {
+        Set<String> instanceIds = instanceIdsPerTag.get(tag);
+        instanceIds.remove(instanceId);
+        if (instanceIds.isEmpty()) {
+            instanceIdsPerTag.remove(tag);
+        }
+    }
+
+    /**
+     * @return a snapshot of the ids of the instances having the given tag, possibly empty
+     */
+    public synchronized Set<String> getInstanceIds(String tag) {
+        Set<String> instanceIds = instanceIdsPerTag.get(tag);
+        return instanceIds == null ? Collections.emptySet()
+                                   : Collections.unmodifiableSet(new HashSet<>(instanceIds));
+    }
+
+    /**
+     * @return the total number of instances
+     */
+    public synchronized int size() {
+        return tagPerInstanceId.size();
+    }
+
+}
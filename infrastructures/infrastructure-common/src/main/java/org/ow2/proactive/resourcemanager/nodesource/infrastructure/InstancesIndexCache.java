@@ -0,0 +1,187 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.resourcemanager.nodesource.infrastructure;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+import org.apache.commons.configuration2.Configuration;
+import org.apache.commons.configuration2.ex.ConfigurationException;
+import org.apache.log4j.Logger;
+import org.ow2.proactive.resourcemanager.nodesource.infrastructure.util.NSProperties;
+
+
+/**
+ * Cache of the instances listing of each infrastructure. A listing is fetched from the connector-iaas the first time
+ * it is needed and again once its time to live is over; in between, the instances terminated through the same
+ * controller are removed from it. The instances created through the controller are not added to it, as only the
+ * connector-iaas listing confirms them: the lookups of a tag used by a creation made after the listing was fetched
+ * go to the connector-iaas listing again.
+ */
+public class InstancesIndexCache {
+
+    private static final Logger logger = Logger.getLogger(InstancesIndexCache.class);
+
+    private static final long DEFAULT_TIME_TO_LIVE = 30000;
+
+    private static Configuration nsConfig;
+
+    static {
+        try {
+            nsConfig = NSProperties.loadConfig();
+        } catch (ConfigurationException e) {
+            logger.error("Exception when loading NodeSource properties", e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    private final Map<String, CachedInstancesIndex> instancesIndexPerInfrastructure = new ConcurrentHashMap<>();
+
+    // the time of the last creation of instances per tag, per infrastructure
+    private final Map<String, Map<String, Long>> creationTimePerTagPerInfrastructure = new ConcurrentHashMap<>();
+
+    private final long timeToLiveNanos;
+
+    private final LongSupplier nanoClock;
+
+    public InstancesIndexCache() {
+        this(nsConfig.getLong(NSProperties.CONNECTOR_IAAS_INSTANCES_CACHE_TTL, DEFAULT_TIME_TO_LIVE));
+    }
+
+    public InstancesIndexCache(long timeToLiveMillis) {
+        this(timeToLiveMillis, System::nanoTime);
+    }
+
+    InstancesIndexCache(long timeToLiveMillis, LongSupplier nanoClock) {
+        this.timeToLiveNanos = TimeUnit.MILLISECONDS.toNanos(timeToLiveMillis);
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * @return the cached instances listing of the given infrastructure, or the one returned by the given loader if
+     * none is cached or if the cached one has expired
+     */
+    public InstancesIndex get(String infrastructureId, Supplier<InstancesIndex> loader) {
+        return get(infrastructureId, null, loader);
+    }
+
+    /**
+     * @return the cached instances listing of the given infrastructure, or the one returned by the given loader if
+     * none is cached, if the cached one has expired, or if instances were created with the given tag since the
+     * cached one was loaded
+     */
+    public InstancesIndex get(String infrastructureId, String instanceTag, Supplier<InstancesIndex> loader) {
+        CachedInstancesIndex cached = getValidCachedInstancesIndex(infrastructureId, instanceTag);
+        if (cached != null) {
+            return cached.instancesIndex;
+        }
+        long loadTime = nanoClock.getAsLong();
+        InstancesIndex instancesIndex = loader.get();
+        instancesIndexPerInfrastructure.put(infrastructureId, new CachedInstancesIndex(instancesIndex, loadTime));
+        return instancesIndex;
+    }
+
+    /**
+     * Asynchronous version of {@link #get(String, String, Supplier)}
+     */
+    public CompletableFuture<InstancesIndex> getAsync(String infrastructureId, String instanceTag,
+            Supplier<CompletableFuture<InstancesIndex>> loader) {
+        CachedInstancesIndex cached = getValidCachedInstancesIndex(infrastructureId, instanceTag);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached.instancesIndex);
+        }
+        long loadTime = nanoClock.getAsLong();
+        return loader.get().thenApply(instancesIndex -> {
+            instancesIndexPerInfrastructure.put(infrastructureId, new CachedInstancesIndex(instancesIndex, loadTime));
+            return instancesIndex;
+        });
+    }
+
+    private CachedInstancesIndex getValidCachedInstancesIndex(String infrastructureId, String instanceTag) {
+        CachedInstancesIndex cached = instancesIndexPerInfrastructure.get(infrastructureId);
+        if (cached == null || nanoClock.getAsLong() - cached.loadTime >= timeToLiveNanos) {
+            return null;
+        }
+        if (instanceTag != null) {
+            Long creationTime = creationTimePerTagPerInfrastructure.getOrDefault(infrastructureId,
+                                                                                 Collections.emptyMap())
+                                                                   .get(instanceTag);
+            // the cached listing may not contain the instances created while or after it was loaded
+            if (creationTime != null && creationTime - cached.loadTime >= 0) {
+                return null;
+            }
+        }
+        return cached;
+    }
+
+    public void onInstancesCreated(String infrastructureId, String instanceTag) {
+        long now = nanoClock.getAsLong();
+        Map<String, Long> creationTimePerTag = creationTimePerTagPerInfrastructure.computeIfAbsent(infrastructureId,
+                                                                                                   id -> new ConcurrentHashMap<>());
+        // the creations older than the time to live precede the load of any valid listing
+        creationTimePerTag.values().removeIf(creationTime -> now - creationTime >= timeToLiveNanos);
+        creationTimePerTag.put(instanceTag, now);
+    }
+
+    public void onInstanceTerminated(String infrastructureId, String instanceId) {
+        CachedInstancesIndex cached = instancesIndexPerInfrastructure.get(infrastructureId);
+        if (cached != null) {
+            cached.instancesIndex.remove(instanceId);
+        }
+    }
+
+    public void onInstancesTerminatedByTag(String infrastructureId, String instanceTag) {
+        CachedInstancesIndex cached = instancesIndexPerInfrastructure.get(infrastructureId);
+        if (cached != null) {
+            cached.instancesIndex.removeTag(instanceTag);
+        }
+    }
+
+    /**
+     * Forgets the cached listing of the given infrastructure, so that it is fetched again the next time it is needed
+     */
+    public void invalidate(String infrastructureId) {
+        instancesIndexPerInfrastructure.remove(infrastructureId);
+    }
+
+    private static class CachedInstancesIndex {
+
+        private final InstancesIndex instancesIndex;
+
+        private final long loadTime;
+
+        private CachedInstancesIndex(InstancesIndex instancesIndex, long loadTime) {
+            this.instancesIndex = instancesIndex;
+            this.loadTime = loadTime;
+        }
+    }
+
+}
@@ -0,0 +1,146 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.resourcemanager.nodesource.infrastructure;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+import org.apache.commons.configuration2.Configuration;
+import org.apache.commons.configuration2.ex.ConfigurationException;
+import org.apache.log4j.Logger;
+import org.ow2.proactive.resourcemanager.nodesource.infrastructure.util.NSProperties;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+
+/**
+ * Runs a task for each instance of a set of instances, typically the execution of the node startup script, with a
+ * bounded number of tasks running at the same time. The threads are created for the duration of the call only, so
+ * that the tasks never wait for a thread of the resource manager which could itself be waiting for them.
+ */
+public class ParallelInstanceExecutor {
+
+    private static final Logger logger = Logger.getLogger(ParallelInstanceExecutor.class);
+
+    public static final int DEFAULT_PARALLELISM = 10;
+
+    private static Configuration nsConfig;
+
+    static {
+        try {
+            nsConfig = NSProperties.loadConfig();
+        } catch (ConfigurationException e) {
+            logger.error("Exception when loading NodeSource properties", e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    private ParallelInstanceExecutor() {
+    }
+
+    /**
+     * @param parallelismKey the NodeSource property holding the parallelism
+     * @return the configured parallelism, at least 1
+     */
+    public static int getConfiguredParallelism(String parallelismKey) {
+        return Math.max(1, nsConfig.getInt(parallelismKey, DEFAULT_PARALLELISM));
+    }
+
+    /**
+     * Runs the given task for each of the given instances, with at most parallelism tasks running at the same time,
+     * and returns once all the tasks are done. A task is expected to handle the failures of its instance: an
+     * exception thrown by a task is logged and does not prevent the other tasks from running.
+     * <p>
+     * The duration of each task is logged, as well as the total duration compared to the sum of the durations of
+     * the tasks, which is the time the tasks would have taken one after the other.
+     *
+     * @param name the name of the threads running the tasks
+     * @return the duration in milliseconds of the task of each instance
+     */
+    public static Map<String, Long> forEachInstance(String name, Collection<String> instanceIds, int parallelism,
+            Consumer<String> instanceTask) {
+        long startTime = System.currentTimeMillis();
+        Map<String, Long> durations = new ConcurrentHashMap<>(instanceIds.size());
+        if (parallelism <= 1 || instanceIds.size() <= 1) {
+            instanceIds.forEach(instanceId -> runInstanceTask(instanceId, instanceTask, durations));
+        } else {
+            runInParallel(name, instanceIds, parallelism, instanceTask, durations);
+        }
+        long sumOfDurations = durations.values().stream().mapToLong(Long::longValue).sum();
+        logger.info("Tasks of " + durations.size() + " instance(s) of " + name + " done in " +
+                    (System.currentTimeMillis() - startTime) + " ms with a parallelism of " + parallelism +
+                    ", they would have taken " + sumOfDurations + " ms one after the other");
+        return durations;
+    }
+
+    private static void runInParallel(String name, Collection<String> instanceIds, int parallelism,
+            Consumer<String> instanceTask, Map<String, Long> durations) {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, instanceIds.size()),
+                                                                new ThreadFactoryBuilder().setNameFormat(name +
+                                                                                                         "-instance-%d")
+                                                                                         .setDaemon(true)
+                                                                                         .build());
+        try {
+            List<Future<?>> instanceTasks = new ArrayList<>(instanceIds.size());
+            for (String instanceId : instanceIds) {
+                instanceTasks.add(executor.submit(() -> runInstanceTask(instanceId, instanceTask, durations)));
+            }
+            for (Future<?> task : instanceTasks) {
+                task.get();
+            }
+        } catch (InterruptedException e) {
+            logger.warn("Interrupted while waiting for the tasks of the instances " + instanceIds);
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            logger.error("Unexpected failure of an instance task", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void runInstanceTask(String instanceId, Consumer<String> instanceTask,
+            Map<String, Long> durations) {
+        long startTime = System.currentTimeMillis();
+        try {
+            instanceTask.accept(instanceId);
+        } catch (RuntimeException e) {
+            logger.error("Task failed for instance " + instanceId, e);
+        } finally {
+            long duration = System.currentTimeMillis() - startTime;
+            durations.put(instanceId, duration);
+            logger.info("Task done for instance " + instanceId + " in " + duration + " ms");
+        }
+    }
+
+}
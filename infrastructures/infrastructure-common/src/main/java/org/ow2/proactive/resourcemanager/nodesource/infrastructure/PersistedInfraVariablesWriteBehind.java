@@ -0,0 +1,298 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.resourcemanager.nodesource.infrastructure;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import org.apache.commons.configuration2.Configuration;
+import org.apache.commons.configuration2.ex.ConfigurationException;
+import org.apache.log4j.Logger;
+import org.ow2.proactive.resourcemanager.nodesource.infrastructure.util.NSProperties;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+
+/**
+ * Coalesces the updates of the persisted infrastructure variables made during a short window, so that they are
+ * applied and saved in database in a single write. The window starts with the first pending update and lasts the
+ * configured delay, or less if the maximum number of pending updates is reached before.
+ * <p>
+ * The writes can also be suspended, typically during the recovery of the nodes of a node source. The updates made
+ * in the meantime are applied in memory right away, one at a time, and only their save is deferred: they are all
+ * saved in a single write when the writes are resumed, or when no update has been submitted during a quiet period.
+ * <p>
+ * The updates are applied in the order they are submitted. The batch and memory writers are called with the flush
+ * lock held and take the lock of the persisted infrastructure variables: {@link #flush()} and {@link #submit} must
+ * then never be called with the lock of the persisted infrastructure variables held.
+ */
+class PersistedInfraVariablesWriteBehind {
+
+    private static final Logger logger = Logger.getLogger(PersistedInfraVariablesWriteBehind.class);
+
+    private static final long DEFAULT_DELAY = 0;
+
+    private static final int DEFAULT_MAX_PENDING_UPDATES = 100;
+
+    private static final long DEFAULT_QUIET_PERIOD = 5000;
+
+    private static final ScheduledExecutorService flushScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("persisted-infra-variables-flush-%d")
+                                                                                                                                       .setDaemon(true)
+                                                                                                                                       .build());
+
+    private static Configuration nsConfig;
+
+    static {
+        try {
+            nsConfig = NSProperties.loadConfig();
+        } catch (ConfigurationException e) {
+            logger.error("Exception when loading NodeSource properties", e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    private final long delayMillis;
+
+    private final int maxPendingUpdates;
+
+    private final Consumer<List<Runnable>> batchWriter;
+
+    private final Consumer<Runnable> memoryWriter;
+
+    private final Lock flushLock = new ReentrantLock();
+
+    private List<Runnable> pendingUpdates = new ArrayList<>();
+
+    private boolean flushScheduled = false;
+
+    private boolean suspended = false;
+
+    private int nbUnsavedUpdates = 0;
+
+    private long quietPeriodMillis;
+
+    private long lastSubmitNanoTime;
+
+    /**
+     * @param batchWriter applies the given updates, possibly none, and saves the persisted infrastructure variables
+     *                    once
+     * @param memoryWriter applies the given update without saving the persisted infrastructure variables, used
+     *                     while the writes are suspended
+     * @return a write-behind configured with the NodeSource properties, disabled if the configured delay is 0
+     */
+    static PersistedInfraVariablesWriteBehind fromConfiguration(Consumer<List<Runnable>> batchWriter,
+            Consumer<Runnable> memoryWriter) {
+        return new PersistedInfraVariablesWriteBehind(nsConfig.getLong(NSProperties.PERSISTED_VARIABLES_WRITE_BEHIND_DELAY,
+                                                                       DEFAULT_DELAY),
+                                                      nsConfig.getInt(NSProperties.PERSISTED_VARIABLES_WRITE_BEHIND_MAX_PENDING_UPDATES,
+                                                                      DEFAULT_MAX_PENDING_UPDATES),
+                                                      batchWriter,
+                                                      memoryWriter);
+    }
+
+    PersistedInfraVariablesWriteBehind(long delayMillis, int maxPendingUpdates, Consumer<List<Runnable>> batchWriter,
+            Consumer<Runnable> memoryWriter) {
+        this.delayMillis = delayMillis;
+        this.maxPendingUpdates = Math.max(1, maxPendingUpdates);
+        this.batchWriter = batchWriter;
+        this.memoryWriter = memoryWriter;
+    }
+
+    /**
+     * @return whether the updates are delayed, otherwise they must be written right away by the caller
+     */
+    synchronized boolean isEnabled() {
+        return delayMillis > 0 || suspended;
+    }
+
+    void submit(Runnable update) {
+        while (true) {
+            if (isSuspended() && applyWhileSuspended(update)) {
+                return;
+            }
+            synchronized (this) {
+                if (!suspended) {
+                    pendingUpdates.add(update);
+                    lastSubmitNanoTime = System.nanoTime();
+                    if (pendingUpdates.size() >= maxPendingUpdates) {
+                        scheduleFlush(0);
+                    } else if (!flushScheduled) {
+                        scheduleFlush(delayMillis);
+                    }
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Apply the update in memory if the writes are still suspended. The flush lock orders the update with the
+     * flushes, so that the save made when the writes are resumed includes it.
+     * @return whether the update was applied, otherwise the writes were resumed in the meantime
+     */
+    private boolean applyWhileSuspended(Runnable update) {
+        flushLock.lock();
+        try {
+            synchronized (this) {
+                if (!suspended) {
+                    return false;
+                }
+                nbUnsavedUpdates++;
+                lastSubmitNanoTime = System.nanoTime();
+            }
+            memoryWriter.accept(update);
+            return true;
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Suspend the writes until {@link #resume()} is called or until no update is submitted during the quiet period
+     * configured by {@link NSProperties#NODES_RECOVERY_QUIET_PERIOD}
+     * @return whether the writes were not already suspended
+     */
+    boolean suspend() {
+        return suspend(nsConfig.getLong(NSProperties.NODES_RECOVERY_QUIET_PERIOD, DEFAULT_QUIET_PERIOD));
+    }
+
+    boolean suspend(long quietPeriodMillis) {
+        flushLock.lock();
+        try {
+            List<Runnable> updates;
+            synchronized (this) {
+                if (suspended) {
+                    return false;
+                }
+                suspended = true;
+                this.quietPeriodMillis = quietPeriodMillis;
+                lastSubmitNanoTime = System.nanoTime();
+                if (quietPeriodMillis > 0) {
+                    flushScheduler.schedule(this::resumeIfQuiet, quietPeriodMillis, TimeUnit.MILLISECONDS);
+                }
+                // the updates still pending are applied in memory like the ones to come
+                updates = pendingUpdates;
+                pendingUpdates = new ArrayList<>();
+                flushScheduled = false;
+                nbUnsavedUpdates += updates.size();
+            }
+            updates.forEach(memoryWriter);
+            return true;
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    synchronized boolean isSuspended() {
+        return suspended;
+    }
+
+    /**
+     * Resume the writes and save the updates applied while they were suspended, in a single write
+     */
+    void resume() {
+        int nbUpdatesToSave;
+        synchronized (this) {
+            if (!suspended) {
+                return;
+            }
+            suspended = false;
+            nbUpdatesToSave = nbUnsavedUpdates;
+        }
+        logger.info("Saving the " + nbUpdatesToSave + " updates applied while the writes were suspended");
+        flush();
+    }
+
+    private void resumeIfQuiet() {
+        synchronized (this) {
+            if (!suspended) {
+                return;
+            }
+            long remainingMillis = quietPeriodMillis -
+                                   TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastSubmitNanoTime);
+            if (remainingMillis > 0) {
+                flushScheduler.schedule(this::resumeIfQuiet, remainingMillis, TimeUnit.MILLISECONDS);
+                return;
+            }
+        }
+        try {
+            resume();
+        } catch (RuntimeException e) {
+            logger.error("Failed to save the persisted infrastructure variables", e);
+        }
+    }
+
+    synchronized int getNumberOfPendingUpdates() {
+        return pendingUpdates.size();
+    }
+
+    private void scheduleFlush(long delay) {
+        flushScheduled = true;
+        flushScheduler.schedule(this::flushAndLogFailure, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Applies and saves the pending updates, if any, and returns once they are saved. Nothing is saved while the
+     * writes are suspended: the updates are then already applied, and they are saved when the writes are resumed.
+     */
+    void flush() {
+        flushLock.lock();
+        try {
+            List<Runnable> updates;
+            boolean saveNeeded;
+            synchronized (this) {
+                if (suspended) {
+                    return;
+                }
+                updates = pendingUpdates;
+                pendingUpdates = new ArrayList<>();
+                flushScheduled = false;
+                saveNeeded = !updates.isEmpty() || nbUnsavedUpdates > 0;
+                nbUnsavedUpdates = 0;
+            }
+            if (saveNeeded) {
+                batchWriter.accept(updates);
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void flushAndLogFailure() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            logger.error("Failed to save the persisted infrastructure variables", e);
+        }
+    }
+
+}
@@ -25,25 +25,17 @@
  */
 package org.ow2.proactive.resourcemanager.nodesource.infrastructure;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.HttpURLConnection;
-import java.security.KeyManagementException;
-import java.security.KeyStoreException;
-import java.security.NoSuchAlgorithmException;
+import java.util.function.Consumer;
 
-import javax.net.ssl.HostnameVerifier;
-import javax.net.ssl.SSLContext;
 import javax.ws.rs.client.Entity;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.MultivaluedHashMap;
 import javax.ws.rs.core.MultivaluedMap;
 import javax.ws.rs.core.Response;
 
-import org.apache.http.conn.ssl.NoopHostnameVerifier;
-import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
-import org.apache.http.conn.ssl.TrustStrategy;
-import org.apache.http.impl.client.HttpClientBuilder;
-import org.apache.http.impl.client.StandardHttpRequestRetryHandler;
-import org.apache.http.ssl.SSLContexts;
 import org.jboss.resteasy.client.jaxrs.ClientHttpEngine;
 import org.jboss.resteasy.client.jaxrs.ResteasyClient;
 import org.jboss.resteasy.client.jaxrs.ResteasyClientBuilder;
@@ -53,23 +45,18 @@ import org.jboss.resteasy.plugins.interceptors.encoding.AcceptEncodingGZIPFilter
 import org.jboss.resteasy.plugins.interceptors.encoding.GZIPDecodingInterceptor;
 import org.jboss.resteasy.plugins.interceptors.encoding.GZIPEncodingInterceptor;
 import org.jboss.resteasy.spi.ResteasyProviderFactory;
-import org.ow2.proactive.web.WebProperties;
 
 
 public class RestClient {
 
     private final ResteasyClient restEasyClient;
 
-    private static SSLContext sslContext;
-
     private final String connectorIaasURL;
 
     public RestClient(String connectorIaasURL) {
-        HttpClientBuilder httpClientBuilder = HttpClientBuilder.create()
-                                                               .useSystemProperties()
-                                                               .setRetryHandler(new StandardHttpRequestRetryHandler());
-        setSSLContext(httpClientBuilder);
-        ClientHttpEngine engine = new ApacheHttpClient4Engine(httpClientBuilder.build());
+        // the pooled http client is shared with the other node sources, it must not be closed with this client
+        ClientHttpEngine engine = new ApacheHttpClient4Engine(ConnectorIaasHttpClientPool.getHttpClient(connectorIaasURL),
+                                                              false);
 
         ResteasyProviderFactory providerFactory = ResteasyProviderFactory.getInstance();
         registerGzipEncoding(providerFactory);
@@ -77,6 +64,28 @@ public class RestClient {
         this.connectorIaasURL = connectorIaasURL;
     }
 
+    public String getConnectorIaasURL() {
+        return connectorIaasURL;
+    }
+
+    /**
+     * Checks that the connector-iaas answers, without transferring the list of the infrastructures
+     *
+     * @throws ConnectorIaasHttpException if the connector-iaas answers with a server error
+     */
+    public void checkConnectorIaasIsUp() {
+        ResteasyWebTarget target = initWebTarget(connectorIaasURL + "/infrastructures");
+        Response response = target.request(MediaType.APPLICATION_JSON_TYPE).head();
+        try {
+            // any answer other than a server error means that the connector-iaas is up
+            if (response.getStatus() >= HttpURLConnection.HTTP_INTERNAL_ERROR) {
+                throw new ConnectorIaasHttpException(response.getStatus(), response.getStatusInfo().getReasonPhrase());
+            }
+        } finally {
+            response.close();
+        }
+    }
+
     public String getInfrastructures() {
         ResteasyWebTarget target = initWebTarget(connectorIaasURL + "/infrastructures");
         Response response = target.request(MediaType.APPLICATION_JSON_TYPE).get();
@@ -90,6 +99,23 @@ public class RestClient {
         return checkAndGetResponse(response);
     }
 
+    /**
+     * Same as {@link #getInstancesByInfrastructure(String)}, but the response is parsed while it is read, into an
+     * index of the instance ids per tag
+     */
+    public InstancesIndex getInstancesIndexByInfrastructure(String infrastructureId) {
+        ResteasyWebTarget target = initWebTarget(connectorIaasURL + "/infrastructures/" + infrastructureId +
+                                                 "/instances");
+        Response response = target.request(MediaType.APPLICATION_JSON_TYPE).get();
+        try (InputStream instancesJson = checkResponseIsOK(response).readEntity(InputStream.class)) {
+            return InstancesIndex.parse(instancesJson);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read the instances of infrastructure " + infrastructureId, e);
+        } finally {
+            response.close();
+        }
+    }
+
     public String postInfrastructures(String infrastructureJson) {
         ResteasyWebTarget target = initWebTarget(connectorIaasURL + "/infrastructures");
         Response response = target.request().post(Entity.entity(infrastructureJson, MediaType.APPLICATION_JSON_TYPE));
@@ -150,6 +176,29 @@ public class RestClient {
         return checkAndGetResponse(response);
     }
 
+    /**
+     * Executes a script on all the instances selected by the given key and value, and passes the result of each
+     * instance to the given consumer as soon as it is read from the response
+     *
+     * @return the number of results read
+     */
+    public int postScriptAndStreamResults(String infrastructureId, String key, String value, String scriptJson,
+            Consumer<InstanceScriptResult> resultConsumer) {
+        long startTime = System.currentTimeMillis();
+        ResteasyWebTarget target = initWebTarget(connectorIaasURL + "/infrastructures/" + infrastructureId +
+                                                 "/instances/scripts");
+        Response response = target.queryParam(key, value)
+                                  .request(MediaType.APPLICATION_JSON_TYPE)
+                                  .post(Entity.entity(scriptJson, MediaType.APPLICATION_JSON_TYPE));
+        try (InputStream scriptResultsJson = checkResponseIsOK(response).readEntity(InputStream.class)) {
+            return InstanceScriptResult.parse(scriptResultsJson, startTime, resultConsumer);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read the script results of " + key + "=" + value, e);
+        } finally {
+            response.close();
+        }
+    }
+
     private void registerGzipEncoding(ResteasyProviderFactory providerFactory) {
         if (!providerFactory.isRegistered(AcceptEncodingGZIPFilter.class)) {
             providerFactory.registerProvider(AcceptEncodingGZIPFilter.class);
@@ -164,9 +213,7 @@ public class RestClient {
 
     private Response checkResponseIsOK(Response response) {
         if (response.getStatus() != HttpURLConnection.HTTP_OK) {
-            throw new RuntimeException(String.format("Failed: HTTP error code %s with error message: %s. ",
-                                                     response.getStatus(),
-                                                     response.readEntity(String.class)));
+            throw new ConnectorIaasHttpException(response.getStatus(), response.readEntity(String.class));
         }
         return response;
     }
@@ -175,28 +222,6 @@ public class RestClient {
         return restEasyClient.target(url);
     }
 
-    private void setSSLContext(HttpClientBuilder httpClientBuilder) {
-        if (WebProperties.WEB_HTTPS_ALLOW_ANY_CERTIFICATE.getValueAsBoolean()) {
-            TrustStrategy acceptingTrustStrategy = (cert, authType) -> true;
-            try {
-                sslContext = SSLContexts.custom().loadTrustMaterial(null, acceptingTrustStrategy).build();
-            } catch (NoSuchAlgorithmException | KeyManagementException | KeyStoreException e) {
-                throw new RuntimeException(e.getMessage(), e);
-            }
-        } else {
-            sslContext = SSLContexts.createSystemDefault();
-        }
-        HostnameVerifier hostnameVerifier;
-        if (WebProperties.WEB_HTTPS_ALLOW_ANY_HOSTNAME.getValueAsBoolean()) {
-            hostnameVerifier = NoopHostnameVerifier.INSTANCE;
-        } else {
-            hostnameVerifier = SSLConnectionSocketFactory.getDefaultHostnameVerifier();
-        }
-        SSLConnectionSocketFactory sslConnectionSocketFactory = new SSLConnectionSocketFactory(sslContext,
-                                                                                               hostnameVerifier);
-        httpClientBuilder.setSSLSocketFactory(sslConnectionSocketFactory);
-    }
-
     private String checkAndGetResponse(Response response) {
         try {
             return checkResponseIsOK(response).readEntity(String.class);
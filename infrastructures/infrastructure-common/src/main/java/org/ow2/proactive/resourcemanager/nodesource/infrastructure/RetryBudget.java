@@ -0,0 +1,86 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.resourcemanager.nodesource.infrastructure;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Limits the number of retries a client can make, so that a connector-iaas which fails for all its clients is not
+ * flooded with retries. Each retry consumes a token. Tokens are earned back with the successful calls and slowly
+ * over time, up to a maximum.
+ */
+public class RetryBudget {
+
+    private final double maxTokens;
+
+    private final double tokensPerSuccess;
+
+    private final long refillPeriodNanos;
+
+    private double tokens;
+
+    private long lastRefillTime;
+
+    /**
+     * @param maxTokens the maximum number of retries that can be done in a row, this is also the initial budget
+     * @param tokensPerSuccess the fraction of retry earned with each successful call
+     * @param refillPeriodMillis the period after which a retry is earned back even without successful call
+     */
+    public RetryBudget(int maxTokens, double tokensPerSuccess, long refillPeriodMillis) {
+        this.maxTokens = maxTokens;
+        this.tokensPerSuccess = tokensPerSuccess;
+        this.refillPeriodNanos = TimeUnit.MILLISECONDS.toNanos(refillPeriodMillis);
+        this.tokens = maxTokens;
+        this.lastRefillTime = System.nanoTime();
+    }
+
+    public synchronized void onSuccess() {
+        deposit(tokensPerSuccess);
+    }
+
+    /**
+     * @return true if a retry can be done, in which case it is withdrawn from the budget
+     */
+    public synchronized boolean tryAcquireRetry() {
+        long now = System.nanoTime();
+        long elapsedPeriods = (now - lastRefillTime) / refillPeriodNanos;
+        if (elapsedPeriods > 0) {
+            deposit(elapsedPeriods);
+            lastRefillTime += elapsedPeriods * refillPeriodNanos;
+        }
+        if (tokens >= 1) {
+            tokens--;
+            return true;
+        }
+        return false;
+    }
+
+    private void deposit(double amount) {
+        tokens = Math.min(maxTokens, tokens + amount);
+    }
+
+}
@@ -0,0 +1,50 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.resourcemanager.nodesource.infrastructure;
+
+/**
+ * Decides whether and when a failed call to the connector-iaas is attempted again.
+ */
+public interface RetryPolicy {
+
+    /**
+     * Value returned by {@link #getDelayBeforeRetry(int, long)} when the call must not be retried
+     */
+    long NO_RETRY = -1;
+
+    /**
+     * @param failedAttempts the number of attempts that failed so far, starting at 1
+     * @param elapsedTimeMillis the time spent since the first attempt
+     * @return the time to wait in milliseconds before the next attempt, or {@link #NO_RETRY} to give up
+     */
+    long getDelayBeforeRetry(int failedAttempts, long elapsedTimeMillis);
+
+    /**
+     * A policy that never retries
+     */
+    RetryPolicy NEVER = (failedAttempts, elapsedTimeMillis) -> NO_RETRY;
+
+}
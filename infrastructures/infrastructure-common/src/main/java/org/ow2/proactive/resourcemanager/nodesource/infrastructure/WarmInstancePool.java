@@ -0,0 +1,90 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.resourcemanager.nodesource.infrastructure;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.configuration2.Configuration;
+import org.apache.commons.configuration2.ex.ConfigurationException;
+import org.apache.log4j.Logger;
+import org.ow2.proactive.resourcemanager.nodesource.infrastructure.util.NSProperties;
+
+
+/**
+ * Size and refill guard of the pool of booted instances without nodes that a node source keeps ahead of the
+ * acquisitions of its dynamic policy, so that the nodes of an acquisition only wait for the startup script instead of
+ * the boot of new instances. The identifiers of the instances of the pool are saved with the node bookkeeping, see
+ * {@link AbstractAddonInfrastructure#takeWarmPoolInstances(int)}. The pool can grow beyond its configured size ahead
+ * of the predicted peaks of demand, see {@link AcquisitionDemandEstimator}. A single refill runs at a time.
+ */
+class WarmInstancePool {
+
+    private static final Logger logger = Logger.getLogger(WarmInstancePool.class);
+
+    static final int DEFAULT_SIZE = 0;
+
+    private static Configuration nsConfig;
+
+    static {
+        try {
+            nsConfig = NSProperties.loadConfig();
+        } catch (ConfigurationException e) {
+            logger.error("Exception when loading NodeSource properties", e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    private final int size;
+
+    private final AtomicBoolean refillInProgress = new AtomicBoolean(false);
+
+    WarmInstancePool(int size) {
+        this.size = Math.max(0, size);
+    }
+
+    static WarmInstancePool fromConfiguration() {
+        return new WarmInstancePool(nsConfig.getInt(NSProperties.WARM_POOL_SIZE, DEFAULT_SIZE));
+    }
+
+    boolean isEnabled() {
+        return size > 0;
+    }
+
+    int getSize() {
+        return size;
+    }
+
+    /**
+     * @return whether the caller is in charge of the refill, false if another refill is already running
+     */
+    boolean startRefill() {
+        return refillInProgress.compareAndSet(false, true);
+    }
+
+    void endRefill() {
+        refillInProgress.set(false);
+    }
+}
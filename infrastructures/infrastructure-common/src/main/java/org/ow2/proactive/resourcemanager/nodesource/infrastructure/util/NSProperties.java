@@ -60,6 +60,48 @@ public class NSProperties {
 
     public static final String DEFAULT_JYTHON_PATH = "ns.default.jython.path";
 
+    public static final String CONNECTOR_IAAS_MAX_CONNECTIONS_PER_ROUTE = "ns.connector.iaas.max.connections.per.route";
+
+    public static final String CONNECTOR_IAAS_MAX_CONNECTIONS_TOTAL = "ns.connector.iaas.max.connections.total";
+
+    public static final String CONNECTOR_IAAS_IDLE_CONNECTION_TIMEOUT = "ns.connector.iaas.idle.connection.timeout";
+
+    public static final String CONNECTOR_IAAS_KEEP_ALIVE_TIMEOUT = "ns.connector.iaas.keep.alive.timeout";
+
+    public static final String CONNECTOR_IAAS_CIRCUIT_BREAKER_FAILURE_THRESHOLD = "ns.connector.iaas.circuit.breaker.failure.threshold";
+
+    public static final String CONNECTOR_IAAS_CIRCUIT_BREAKER_OPEN_DURATION = "ns.connector.iaas.circuit.breaker.open.duration";
+
+    public static final String CONNECTOR_IAAS_LIVENESS_CACHE_TTL = "ns.connector.iaas.liveness.cache.ttl";
+
+    public static final String CONNECTOR_IAAS_INSTANCES_CACHE_TTL = "ns.connector.iaas.instances.cache.ttl";
+
+    public static final String AZURE_INSTANCES_BOOTSTRAP_PARALLELISM = "ns.azure.instances.bootstrap.parallelism";
+
+    public static final String VMWARE_INSTANCES_BOOTSTRAP_PARALLELISM = "ns.vmware.instances.bootstrap.parallelism";
+
+    public static final String PERSISTED_VARIABLES_WRITE_BEHIND_DELAY = "ns.persisted.variables.write.behind.delay";
+
+    public static final String PERSISTED_VARIABLES_WRITE_BEHIND_MAX_PENDING_UPDATES = "ns.persisted.variables.write.behind.max.pending.updates";
+
+    public static final String INSTANCES_TERMINATION_PARALLELISM = "ns.instances.termination.parallelism";
+
+    public static final String INSTANCES_TERMINATION_MAX_ATTEMPTS = "ns.instances.termination.max.attempts";
+
+    public static final String INSTANCES_TERMINATION_RETRY_DELAY = "ns.instances.termination.retry.delay";
+
+    public static final String NODES_RECOVERY_QUIET_PERIOD = "ns.nodes.recovery.quiet.period";
+
+    public static final String WARM_POOL_SIZE = "ns.warm.pool.size";
+
+    public static final String DEMAND_PREDICTION_SLOT_DURATION = "ns.demand.prediction.slot.duration";
+
+    public static final String AWS_INSTANCES_CREATION_CHUNK_SIZE = "ns.aws.instances.creation.chunk.size";
+
+    public static final String AWS_INSTANCES_CREATION_PARALLELISM = "ns.aws.instances.creation.parallelism";
+
+    public static final String AWS_SPOT_REQUEST_TIMEOUT = "ns.aws.spot.request.timeout";
+
     /**
      * loads NodeSource configuration.
      *
@@ -0,0 +1,97 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.resourcemanager.nodesource.infrastructure;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+
+public class AcquireRequestQueueTest {
+
+    @Test
+    public void testRequestsReceivedDuringARoundAreMergedIntoTheNextOne() {
+        AcquireRequestQueue queue = new AcquireRequestQueue();
+
+        assertThat(queue.add(2, dynamicPolicyConfiguration(2)), is(true));
+        assertThat(queue.poll().getNumberOfNodes(), is(2));
+
+        // the round of 2 nodes is running
+        assertThat(queue.add(3, dynamicPolicyConfiguration(5)), is(false));
+        assertThat(queue.add(1, dynamicPolicyConfiguration(6)), is(false));
+
+        AcquireRequestQueue.AcquireRequest mergedRequest = queue.poll();
+        assertThat(mergedRequest.getNumberOfNodes(), is(4));
+        assertThat(mergedRequest.getNumberOfMergedRequests(), is(2));
+        assertThat(mergedRequest.getNodeConfiguration().get(AbstractAddonInfrastructure.TOTAL_NUMBER_OF_NODES_KEY),
+                   is(6));
+
+        assertThat(queue.poll(), is(nullValue()));
+        // the queue is drained, the next request starts a new round
+        assertThat(queue.add(1, dynamicPolicyConfiguration(7)), is(true));
+    }
+
+    @Test
+    public void testRequestsWithDifferentConfigurationsAreNotMerged() {
+        AcquireRequestQueue queue = new AcquireRequestQueue();
+        Map<String, Object> otherConfiguration = dynamicPolicyConfiguration(3);
+        otherConfiguration.put("image", "other-image");
+
+        queue.add(2, dynamicPolicyConfiguration(2));
+        queue.add(1, otherConfiguration);
+
+        assertThat(queue.poll().getNumberOfNodes(), is(2));
+        assertThat(queue.poll().getNumberOfNodes(), is(1));
+        assertThat(queue.poll(), is(nullValue()));
+    }
+
+    @Test
+    public void testClearedQueueIsDrainedByTheNextRequest() {
+        AcquireRequestQueue queue = new AcquireRequestQueue();
+
+        assertThat(queue.add(2, dynamicPolicyConfiguration(2)), is(true));
+        assertThat(queue.add(1, dynamicPolicyConfiguration(3)), is(false));
+
+        // the round could not be started
+        assertThat(queue.clear(), is(2));
+
+        assertThat(queue.add(1, dynamicPolicyConfiguration(1)), is(true));
+        assertThat(queue.poll().getNumberOfNodes(), is(1));
+        assertThat(queue.poll(), is(nullValue()));
+    }
+
+    private Map<String, Object> dynamicPolicyConfiguration(int totalNumberOfNodes) {
+        Map<String, Object> nodeConfiguration = new HashMap<>();
+        nodeConfiguration.put(AbstractAddonInfrastructure.TOTAL_NUMBER_OF_NODES_KEY, totalNumberOfNodes);
+        nodeConfiguration.put(AbstractAddonInfrastructure.MAX_NODES_KEY, 10);
+        return nodeConfiguration;
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.resourcemanager.nodesource.infrastructure;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+
+public class AcquisitionDemandEstimatorTest {
+
+    private static final long SLOT_DURATION = TimeUnit.HOURS.toMillis(1);
+
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+
+    @Test
+    public void testDailyPeakIsPredictedOneSlotAhead() {
+        AcquisitionDemandEstimator estimator = estimatorWithThreeDailyPeaks();
+
+        // 10 nodes smoothed over 3 days
+        assertThat(estimator.predictNodes(3 * DAY + at(9, 30)), is(7));
+        assertThat(estimator.predictNodes(3 * DAY + at(12, 30)), is(0));
+    }
+
+    @Test
+    public void testShortLivedNodesReduceThePrediction() {
+        AcquisitionDemandEstimator estimator = estimatorWithThreeDailyPeaks();
+
+        estimator.recordNodesAcquired(Collections.singleton("node"), 2 * DAY + at(10, 30));
+        estimator.recordNodesRemoved(Collections.singleton("node"), 2 * DAY + at(11, 0));
+
+        // the nodes live half a slot
+        assertThat(estimator.predictNodes(3 * DAY + at(9, 30)), is(3));
+    }
+
+    @Test
+    public void testDisabledEstimatorPredictsNothing() {
+        AcquisitionDemandEstimator estimator = new AcquisitionDemandEstimator(0);
+
+        estimator.recordRequest(at(10, 30), 10);
+        estimator.recordRequest(DAY + at(10, 30), 10);
+
+        assertThat(estimator.isEnabled(), is(false));
+        assertThat(estimator.predictNodes(2 * DAY + at(9, 30)), is(0));
+    }
+
+    private static AcquisitionDemandEstimator estimatorWithThreeDailyPeaks() {
+        AcquisitionDemandEstimator estimator = new AcquisitionDemandEstimator(SLOT_DURATION);
+        for (int day = 0; day < 3; day++) {
+            estimator.recordRequest(day * DAY + at(10, 30), 10);
+        }
+        return estimator;
+    }
+
+    private static long at(int hours, int minutes) {
+        return TimeUnit.HOURS.toMillis(hours) + TimeUnit.MINUTES.toMillis(minutes);
+    }
+}
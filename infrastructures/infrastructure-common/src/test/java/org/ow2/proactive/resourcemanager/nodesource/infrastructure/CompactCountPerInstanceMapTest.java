@@ -0,0 +1,75 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.resourcemanager.nodesource.infrastructure;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+
+public class CompactCountPerInstanceMapTest {
+
+    @Test
+    public void testMapBehavesLikeAHashMap() {
+        Map<String, Integer> expected = new HashMap<>();
+        CompactCountPerInstanceMap countPerInstance = new CompactCountPerInstanceMap();
+
+        // enough instances to grow the table, removed in an order that moves back the following entries
+        for (int i = 0; i < 100; i++) {
+            assertThat(countPerInstance.put("i-" + i, i), is(nullValue()));
+            expected.put("i-" + i, i);
+        }
+        assertThat(countPerInstance.put("i-1", 10), is(1));
+        expected.put("i-1", 10);
+        for (int i = 0; i < 100; i += 3) {
+            assertThat(countPerInstance.remove("i-" + i), is(expected.remove("i-" + i)));
+        }
+
+        assertThat(countPerInstance.size(), is(expected.size()));
+        assertThat(countPerInstance, is(expected));
+        assertThat(new HashMap<>(countPerInstance), is(expected));
+        assertThat(countPerInstance.get("i-0"), is(nullValue()));
+        assertThat(countPerInstance.containsKey("i-2"), is(true));
+        assertThat(countPerInstance.remove("i-0"), is(nullValue()));
+    }
+
+    @Test
+    public void testMapIsSerialized() throws Exception {
+        CompactCountPerInstanceMap countPerInstance = new CompactCountPerInstanceMap();
+        countPerInstance.put("i-1", 1);
+        countPerInstance.put("i-2", 2);
+
+        Object deserializedMap = CompactNodesPerInstanceMapTest.deserialize(CompactNodesPerInstanceMapTest.serialize(countPerInstance));
+
+        assertThat(deserializedMap, is(countPerInstance));
+    }
+
+}
@@ -0,0 +1,131 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.resourcemanager.nodesource.infrastructure;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.google.common.collect.Sets;
+
+
+public class CompactNodesPerInstanceMapTest {
+
+    @Test
+    public void testNodesOfAnInstanceAreAddedAndRemovedLikeInASet() {
+        CompactNodesPerInstanceMap nodesPerInstance = new CompactNodesPerInstanceMap();
+
+        Set<String> nodeNames = nodesPerInstance.computeIfAbsent("i-1", instanceId -> new HashSet<>());
+        assertThat(nodeNames.add("i-1_0"), is(true));
+        assertThat(nodeNames.add("i-1_1"), is(true));
+        assertThat(nodeNames.add("i-1_1"), is(false));
+        // names that do not follow the pattern of the first name
+        assertThat(nodeNames.add("i-1_01"), is(true));
+        assertThat(nodeNames.add("custom-node"), is(true));
+
+        assertThat(nodesPerInstance.get("i-1"), is(sameInstance(nodeNames)));
+        assertThat(nodeNames, is(Sets.newHashSet("i-1_0", "i-1_1", "i-1_01", "custom-node")));
+        assertThat(nodeNames.contains("i-1_2"), is(false));
+        assertThat(nodeNames.contains("i-2_0"), is(false));
+
+        assertThat(nodeNames.remove("i-1_0"), is(true));
+        assertThat(nodeNames.remove("i-1_0"), is(false));
+        assertThat(nodeNames.remove("custom-node"), is(true));
+        assertThat(nodeNames, is(Sets.newHashSet("i-1_1", "i-1_01")));
+
+        Iterator<String> iterator = nodeNames.iterator();
+        while (iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+        assertThat(nodeNames.isEmpty(), is(true));
+    }
+
+    @Test
+    public void testMapIsEqualToTheMapItIsCopiedFrom() {
+        Map<String, Set<String>> expected = new HashMap<>();
+        expected.put("i-1", Sets.newHashSet("i-1_0", "i-1_1"));
+        expected.put("i-2", Sets.newHashSet("node"));
+
+        CompactNodesPerInstanceMap nodesPerInstance = new CompactNodesPerInstanceMap(expected);
+
+        assertThat(nodesPerInstance, is(expected));
+        assertThat(new HashMap<>(nodesPerInstance), is(expected));
+
+        nodesPerInstance.remove("i-2");
+        expected.remove("i-2");
+        assertThat(nodesPerInstance, is(expected));
+    }
+
+    @Test
+    public void testSerializedFormIsSmallerThanTheOneOfAHashMapOfHashSets() throws Exception {
+        Map<String, Set<String>> hashMap = new HashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            Set<String> nodeNames = new HashSet<>();
+            for (int j = 0; j < 4; j++) {
+                nodeNames.add("region__i-" + i + "_" + j);
+            }
+            hashMap.put("region/i-" + i, nodeNames);
+        }
+        CompactNodesPerInstanceMap nodesPerInstance = new CompactNodesPerInstanceMap(hashMap);
+
+        byte[] serializedMap = serialize(nodesPerInstance);
+        CompactNodesPerInstanceMap deserializedMap = (CompactNodesPerInstanceMap) deserialize(serializedMap);
+
+        assertThat(deserializedMap, is(hashMap));
+        assertThat(serializedMap.length, is(lessThan(serialize((Serializable) hashMap).length / 2)));
+    }
+
+    static byte[] serialize(Serializable object) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(object);
+        }
+        return bytes.toByteArray();
+    }
+
+    static Object deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return in.readObject();
+        }
+    }
+
+}
@@ -0,0 +1,121 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.resourcemanager.nodesource.infrastructure;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.ow2.proactive.resourcemanager.nodesource.infrastructure.ConnectorIaasCircuitBreaker.State;
+
+
+public class ConnectorIaasCircuitBreakerTest {
+
+    private static final long OPEN_DURATION = 1000;
+
+    private final AtomicLong now = new AtomicLong();
+
+    private ConnectorIaasCircuitBreaker circuitBreaker;
+
+    @Before
+    public void init() {
+        circuitBreaker = new ConnectorIaasCircuitBreaker("test", 2, OPEN_DURATION, now::get);
+    }
+
+    @Test
+    public void testCircuitOpensAfterConsecutiveFailures() {
+        circuitBreaker.acquirePermission();
+        circuitBreaker.onFailure();
+        assertThat(circuitBreaker.getState(), is(State.CLOSED));
+        circuitBreaker.acquirePermission();
+        circuitBreaker.onFailure();
+        assertThat(circuitBreaker.getState(), is(State.OPEN));
+    }
+
+    @Test
+    public void testSuccessResetsTheFailures() {
+        circuitBreaker.onFailure();
+        circuitBreaker.onSuccess();
+        circuitBreaker.onFailure();
+        assertThat(circuitBreaker.getState(), is(State.CLOSED));
+    }
+
+    @Test(expected = ConnectorIaasNotAvailableException.class)
+    public void testCallsAreRejectedWhenOpen() {
+        openCircuit();
+        circuitBreaker.acquirePermission();
+    }
+
+    @Test
+    public void testSingleProbeIsAllowedAfterTheOpenDuration() {
+        openCircuit();
+        elapse(OPEN_DURATION);
+
+        circuitBreaker.acquirePermission();
+        assertThat(circuitBreaker.getState(), is(State.HALF_OPEN));
+        try {
+            circuitBreaker.acquirePermission();
+            throw new AssertionError("Only one probe should be allowed");
+        } catch (ConnectorIaasNotAvailableException e) {
+            // expected
+        }
+
+        circuitBreaker.onSuccess();
+        assertThat(circuitBreaker.getState(), is(State.CLOSED));
+        circuitBreaker.acquirePermission();
+    }
+
+    @Test
+    public void testFailedProbeOpensTheCircuitAgain() {
+        openCircuit();
+        elapse(OPEN_DURATION);
+
+        circuitBreaker.acquirePermission();
+        circuitBreaker.onFailure();
+        assertThat(circuitBreaker.getState(), is(State.OPEN));
+    }
+
+    @Test
+    public void testCircuitBreakerIsSharedPerUrl() {
+        assertThat(ConnectorIaasCircuitBreaker.forUrl("http://localhost:8080/connector-iaas"),
+                   is(sameInstance(ConnectorIaasCircuitBreaker.forUrl("http://localhost:8080/connector-iaas"))));
+    }
+
+    private void openCircuit() {
+        circuitBreaker.onFailure();
+        circuitBreaker.onFailure();
+    }
+
+    private void elapse(long millis) {
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+}
@@ -29,7 +29,22 @@ import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
 import static org.mockito.Mockito.when;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 import org.json.JSONObject;
 import org.junit.Before;
@@ -51,6 +66,9 @@ public class ConnectorIaasClientTest {
     @Mock
     private RestClient restClient;
 
+    @Mock
+    private AsyncRestClient asyncRestClient;
+
     @Before
     public void init() {
         MockitoAnnotations.initMocks(this);
@@ -146,4 +164,368 @@ public class ConnectorIaasClientTest {
 
     }
 
+    @Test
+    public void testCreateInstancesIfNotExistAsync() throws Exception {
+        ConnectorIaasClient asyncConnectorIaasClient = new ConnectorIaasClient(restClient, asyncRestClient);
+        Mockito.when(asyncRestClient.getInstancesByInfrastructure("infra123"))
+               .thenReturn(CompletableFuture.completedFuture("[{\"id\" : \"instance123\", \"tag\" : \"otherTag\"}]"));
+        Mockito.when(asyncRestClient.postInstances("infra123", "{id=\"123\",tag=\"instanceTag123\"}"))
+               .thenReturn(CompletableFuture.completedFuture("[{'id' : 'instance456'}]"));
+
+        Set<String> instances = asyncConnectorIaasClient.createInstancesIfNotExistAsync("infra123",
+                                                                                        "instanceTag123",
+                                                                                        "{id=\"123\",tag=\"instanceTag123\"}")
+                                                        .get();
+
+        assertThat(instances, is(Sets.newHashSet("instance456")));
+        Mockito.verify(restClient, Mockito.never()).postInstances(Mockito.anyString(), Mockito.anyString());
+    }
+
+    @Test
+    public void testRunScriptOnInstanceAsync() throws Exception {
+        ConnectorIaasClient asyncConnectorIaasClient = new ConnectorIaasClient(restClient, asyncRestClient);
+        Mockito.when(asyncRestClient.postScript("infra123", "instanceId", "123456", "somescriptjason"))
+               .thenReturn(CompletableFuture.completedFuture("result"));
+
+        assertThat(asyncConnectorIaasClient.runScriptOnInstanceAsync("infra123", "123456", "somescriptjason").get(),
+                   is("result"));
+        Mockito.verify(restClient, Mockito.never()).postScript(Mockito.anyString(),
+                                                               Mockito.anyString(),
+                                                               Mockito.anyString(),
+                                                               Mockito.anyString());
+    }
+
+    @Test
+    public void testRunScriptOnInstanceAsyncWithoutAsyncRestClient() throws Exception {
+        Mockito.when(restClient.postScript("infra123", "instanceId", "123456", "somescriptjason"))
+               .thenReturn("result");
+
+        assertThat(connectorIaasClient.runScriptOnInstanceAsync("infra123", "123456", "somescriptjason").get(),
+                   is("result"));
+    }
+
+    @Test
+    public void testRunScriptOnInstanceIsRetriedOnServerError() {
+        ConnectorIaasClient retryingClient = new ConnectorIaasClient(restClient,
+                                                                     null,
+                                                                     new ExponentialBackoffRetryPolicy(1, 1, 1000, 3));
+        Mockito.when(restClient.postScript("infra123", "instanceId", "123456", "somescriptjason"))
+               .thenThrow(new ConnectorIaasHttpException(500, "ssh not ready"))
+               .thenReturn("result");
+
+        assertThat(retryingClient.runScriptOnInstance("infra123", "123456", "somescriptjason"), is("result"));
+        Mockito.verify(restClient, Mockito.times(2)).postScript("infra123", "instanceId", "123456", "somescriptjason");
+    }
+
+    @Test
+    public void testScriptsOfManyBootingInstancesAreNotLimitedByTheRetryBudget() throws Exception {
+        ConnectorIaasClient retryingClient = new ConnectorIaasClient(restClient,
+                                                                     null,
+                                                                     new ExponentialBackoffRetryPolicy(1, 1, 10000, 5));
+        int nbInstances = 30;
+        Map<String, AtomicInteger> attemptsPerInstance = new ConcurrentHashMap<>();
+        Mockito.when(restClient.postScript(Mockito.eq("infra123"),
+                                           Mockito.eq("instanceId"),
+                                           Mockito.anyString(),
+                                           Mockito.eq("somescriptjason")))
+               .thenAnswer(invocation -> {
+                   String instanceId = (String) invocation.getArguments()[2];
+                   // the ssh of each instance is ready after 3 attempts
+                   if (attemptsPerInstance.computeIfAbsent(instanceId, id -> new AtomicInteger())
+                                          .incrementAndGet() <= 3) {
+                       throw new ConnectorIaasHttpException(500, "ssh not ready");
+                   }
+                   return "result";
+               });
+
+        ExecutorService executor = Executors.newFixedThreadPool(nbInstances);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < nbInstances; i++) {
+                String instanceId = "instance" + i;
+                results.add(executor.submit(() -> retryingClient.runScriptOnInstance("infra123",
+                                                                                     instanceId,
+                                                                                     "somescriptjason")));
+            }
+            for (Future<String> result : results) {
+                assertThat(result.get(), is("result"));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testRunScriptOnInstanceIsNotRetriedOnClientError() {
+        ConnectorIaasClient retryingClient = new ConnectorIaasClient(restClient,
+                                                                     null,
+                                                                     new ExponentialBackoffRetryPolicy(1, 1, 1000, 3));
+        Mockito.when(restClient.postScript("infra123", "instanceId", "123456", "somescriptjason"))
+               .thenThrow(new ConnectorIaasHttpException(400, "invalid script"));
+
+        try {
+            retryingClient.runScriptOnInstance("infra123", "123456", "somescriptjason");
+        } catch (ConnectorIaasHttpException e) {
+            Mockito.verify(restClient).postScript("infra123", "instanceId", "123456", "somescriptjason");
+            return;
+        }
+        throw new AssertionError("The script execution should have failed");
+    }
+
+    @Test
+    public void testRunScriptOnInstanceIsRetriedUntilTheInstanceIsReady() {
+        ConnectorIaasClient retryingClient = new ConnectorIaasClient(restClient,
+                                                                     null,
+                                                                     new ExponentialBackoffRetryPolicy(1, 1, 1000, 3));
+        Mockito.when(restClient.postScript("infra123", "instanceId", "123456", "somescriptjason"))
+               .thenThrow(new ConnectorIaasHttpException(404, "unknown instance"))
+               .thenThrow(new ConnectorIaasHttpException(409, "instance not running"))
+               .thenReturn("result");
+
+        assertThat(retryingClient.runScriptOnInstance("infra123", "123456", "somescriptjason"), is("result"));
+        Mockito.verify(restClient, Mockito.times(3)).postScript("infra123", "instanceId", "123456", "somescriptjason");
+    }
+
+    @Test
+    public void testRunScriptOnInstancesByTagIsNotRetriedOnceAResultIsReceived() {
+        ConnectorIaasClient retryingClient = new ConnectorIaasClient(restClient,
+                                                                     null,
+                                                                     new ExponentialBackoffRetryPolicy(1, 1, 1000, 3));
+        InstanceScriptResult result1 = InstanceScriptResult.executed("instance1", "ok", "", 10);
+        Mockito.when(restClient.postScriptAndStreamResults(Mockito.eq("infra123"),
+                                                           Mockito.eq("instanceTag"),
+                                                           Mockito.eq("tag123"),
+                                                           Mockito.eq("somescriptjason"),
+                                                           Mockito.any()))
+               .thenAnswer(invocation -> {
+                   // the connection is lost after the first result
+                   ((Consumer<InstanceScriptResult>) invocation.getArguments()[4]).accept(result1);
+                   throw new ConnectorIaasHttpException(502, "bad gateway");
+               });
+
+        List<InstanceScriptResult> results = new ArrayList<>();
+        try {
+            retryingClient.runScriptOnInstancesByTag("infra123", "tag123", "somescriptjason", results::add);
+        } catch (ConnectorIaasHttpException e) {
+            // the script is not run again on the instance which already ran it
+            assertThat(results, is(Collections.singletonList(result1)));
+            Mockito.verify(restClient).postScriptAndStreamResults(Mockito.eq("infra123"),
+                                                                  Mockito.eq("instanceTag"),
+                                                                  Mockito.eq("tag123"),
+                                                                  Mockito.eq("somescriptjason"),
+                                                                  Mockito.any());
+            return;
+        }
+        throw new AssertionError("The script execution should have failed");
+    }
+
+    @Test
+    public void testRunScriptOnInstancesByTagIsRetriedWhenNoResultIsReceived() {
+        ConnectorIaasClient retryingClient = new ConnectorIaasClient(restClient,
+                                                                     null,
+                                                                     new ExponentialBackoffRetryPolicy(1, 1, 1000, 3));
+        InstanceScriptResult result1 = InstanceScriptResult.executed("instance1", "ok", "", 10);
+        InstanceScriptResult result2 = InstanceScriptResult.executed("instance2", "ok", "", 20);
+        Mockito.when(restClient.postScriptAndStreamResults(Mockito.eq("infra123"),
+                                                           Mockito.eq("instanceTag"),
+                                                           Mockito.eq("tag123"),
+                                                           Mockito.eq("somescriptjason"),
+                                                           Mockito.any()))
+               .thenThrow(new ConnectorIaasHttpException(502, "bad gateway"))
+               .thenAnswer(invocation -> {
+                   Consumer<InstanceScriptResult> consumer = (Consumer<InstanceScriptResult>) invocation.getArguments()[4];
+                   consumer.accept(result1);
+                   consumer.accept(result2);
+                   return 2;
+               });
+
+        List<InstanceScriptResult> results = new ArrayList<>();
+        retryingClient.runScriptOnInstancesByTag("infra123", "tag123", "somescriptjason", results::add);
+
+        assertThat(results, is(Arrays.asList(result1, result2)));
+    }
+
+    @Test
+    public void testConsumerErrorIsNotAFailureOfTheConnectorIaas() {
+        ConnectorIaasCircuitBreaker circuitBreaker = new ConnectorIaasCircuitBreaker("test", 1, 60000);
+        ConnectorIaasClient breakingClient = new ConnectorIaasClient(restClient,
+                                                                     null,
+                                                                     new ExponentialBackoffRetryPolicy(1, 1, 1000, 3),
+                                                                     circuitBreaker,
+                                                                     new ConnectorIaasLivenessCache(0));
+        InstanceScriptResult result1 = InstanceScriptResult.executed("instance1", "ok", "", 10);
+        InstanceScriptResult result2 = InstanceScriptResult.executed("instance2", "ok", "", 20);
+        Mockito.when(restClient.postScriptAndStreamResults(Mockito.eq("infra123"),
+                                                           Mockito.eq("instanceTag"),
+                                                           Mockito.eq("tag123"),
+                                                           Mockito.eq("somescriptjason"),
+                                                           Mockito.any()))
+               .thenAnswer(invocation -> {
+                   Consumer<InstanceScriptResult> consumer = (Consumer<InstanceScriptResult>) invocation.getArguments()[4];
+                   consumer.accept(result1);
+                   consumer.accept(result2);
+                   return 2;
+               });
+
+        List<InstanceScriptResult> results = new ArrayList<>();
+        Consumer<InstanceScriptResult> failingConsumer = result -> {
+            results.add(result);
+            if (result == result1) {
+                throw new IllegalStateException("cannot handle the result");
+            }
+        };
+        breakingClient.runScriptOnInstancesByTag("infra123", "tag123", "somescriptjason", failingConsumer);
+
+        assertThat(results, is(Arrays.asList(result1, result2)));
+        assertThat(circuitBreaker.getState(), is(ConnectorIaasCircuitBreaker.State.CLOSED));
+        Mockito.verify(restClient).postScriptAndStreamResults(Mockito.eq("infra123"),
+                                                              Mockito.eq("instanceTag"),
+                                                              Mockito.eq("tag123"),
+                                                              Mockito.eq("somescriptjason"),
+                                                              Mockito.any());
+    }
+
+    @Test
+    public void testInterruptionStopsTheRetries() {
+        ConnectorIaasClient retryingClient = new ConnectorIaasClient(restClient,
+                                                                     null,
+                                                                     new ExponentialBackoffRetryPolicy(60000,
+                                                                                                       60000,
+                                                                                                       600000,
+                                                                                                       3));
+        Mockito.doThrow(new RuntimeException("connection refused")).when(restClient).checkConnectorIaasIsUp();
+
+        Thread.currentThread().interrupt();
+        try {
+            retryingClient.waitForConnectorIaasToBeUP();
+        } catch (RuntimeException e) {
+            assertThat(Thread.interrupted(), is(true));
+            return;
+        }
+        throw new AssertionError("The wait should have been interrupted");
+    }
+
+    @Test
+    public void testCallsFailFastWhenTheCircuitBreakerIsOpen() {
+        ConnectorIaasCircuitBreaker circuitBreaker = new ConnectorIaasCircuitBreaker("test", 1, 60000);
+        ConnectorIaasClient breakingClient = new ConnectorIaasClient(restClient,
+                                                                     null,
+                                                                     new ExponentialBackoffRetryPolicy(1, 1, 1000, 3),
+                                                                     circuitBreaker,
+                                                                     new ConnectorIaasLivenessCache(0));
+        Mockito.doThrow(new RuntimeException("connection refused")).when(restClient).checkConnectorIaasIsUp();
+
+        try {
+            breakingClient.waitForConnectorIaasToBeUP();
+        } catch (ConnectorIaasNotAvailableException e) {
+            // the first failure opened the circuit, the retry was rejected without calling the connector-iaas
+            Mockito.verify(restClient).checkConnectorIaasIsUp();
+            return;
+        }
+        throw new AssertionError("The connector-iaas should be considered down");
+    }
+
+    @Test
+    public void testServerErrorsOfAnInstanceDoNotOpenTheCircuitBreaker() {
+        ConnectorIaasCircuitBreaker circuitBreaker = new ConnectorIaasCircuitBreaker("test", 1, 60000);
+        ConnectorIaasClient breakingClient = new ConnectorIaasClient(restClient,
+                                                                     null,
+                                                                     new ExponentialBackoffRetryPolicy(1, 1, 1000, 5),
+                                                                     circuitBreaker,
+                                                                     new ConnectorIaasLivenessCache(0));
+        Mockito.when(restClient.postScript("infra123", "instanceId", "123456", "somescriptjason"))
+               .thenThrow(new ConnectorIaasHttpException(500, "ssh not ready"))
+               .thenThrow(new ConnectorIaasHttpException(500, "ssh not ready"))
+               .thenReturn("result");
+
+        assertThat(breakingClient.runScriptOnInstance("infra123", "123456", "somescriptjason"), is("result"));
+        assertThat(circuitBreaker.getState(), is(ConnectorIaasCircuitBreaker.State.CLOSED));
+    }
+
+    @Test
+    public void testCallRejectedByTheOpenCircuitBreakerFailsRightAway() {
+        ConnectorIaasCircuitBreaker circuitBreaker = new ConnectorIaasCircuitBreaker("test", 1, 60000);
+        ConnectorIaasClient breakingClient = new ConnectorIaasClient(restClient,
+                                                                     null,
+                                                                     new ExponentialBackoffRetryPolicy(1,
+                                                                                                       1,
+                                                                                                       200000,
+                                                                                                       20),
+                                                                     circuitBreaker,
+                                                                     new ConnectorIaasLivenessCache(0));
+        Mockito.when(restClient.postScript("infra123", "instanceId", "123456", "somescriptjason"))
+               .thenThrow(new RuntimeException("connection refused"));
+
+        long startTime = System.currentTimeMillis();
+        try {
+            breakingClient.runScriptOnInstance("infra123", "123456", "somescriptjason");
+        } catch (ConnectorIaasNotAvailableException e) {
+            // the connection failure opened the circuit, the retry is rejected without waiting for the next probe
+            assertThat(System.currentTimeMillis() - startTime < 10000, is(true));
+            Mockito.verify(restClient).postScript("infra123", "instanceId", "123456", "somescriptjason");
+            return;
+        }
+        throw new AssertionError("The connector-iaas should be considered down");
+    }
+
+    @Test
+    public void testCallRejectedWhileTheConnectorIaasIsProbedWaitsOnceForTheProbe() throws Exception {
+        AtomicLong nanoClock = new AtomicLong();
+        ConnectorIaasCircuitBreaker circuitBreaker = new ConnectorIaasCircuitBreaker("test", 1, 1000, nanoClock::get);
+        // a fixed delay, so that the call waits longer than the probe, whatever the jitter of the backoff
+        RetryPolicy fixedDelayPolicy = (failedAttempts, elapsedTimeMillis) -> {
+            return failedAttempts < 20 ? 200 : RetryPolicy.NO_RETRY;
+        };
+        ConnectorIaasClient breakingClient = new ConnectorIaasClient(restClient,
+                                                                     null,
+                                                                     fixedDelayPolicy,
+                                                                     circuitBreaker,
+                                                                     new ConnectorIaasLivenessCache(0));
+        Mockito.when(restClient.postScript("infra123", "instanceId", "123456", "somescriptjason"))
+               .thenReturn("result");
+
+        // another caller sends the probe, which succeeds while the call waits
+        circuitBreaker.onFailure();
+        nanoClock.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        circuitBreaker.acquirePermission();
+        ScheduledExecutorService probe = Executors.newSingleThreadScheduledExecutor();
+        try {
+            probe.schedule(circuitBreaker::onSuccess, 50, TimeUnit.MILLISECONDS);
+            assertThat(breakingClient.runScriptOnInstance("infra123", "123456", "somescriptjason"), is("result"));
+        } finally {
+            probe.shutdownNow();
+        }
+
+        // the probe of another caller never reports its result, the call is rejected again and fails
+        circuitBreaker.onFailure();
+        nanoClock.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        circuitBreaker.acquirePermission();
+        try {
+            breakingClient.runScriptOnInstance("infra123", "123456", "somescriptjason");
+        } catch (ConnectorIaasNotAvailableException e) {
+            assertThat(e.isProbeRunning(), is(true));
+            Mockito.verify(restClient).postScript("infra123", "instanceId", "123456", "somescriptjason");
+            return;
+        }
+        throw new AssertionError("The connector-iaas should be considered down");
+    }
+
+    @Test
+    public void testLivenessCheckIsSkippedWhenTheConnectorIaasWasSeenUpRecently() {
+        ConnectorIaasClient cachingClient = new ConnectorIaasClient(restClient,
+                                                                    null,
+                                                                    ConnectorIaasClient.DEFAULT_RETRY_POLICY,
+                                                                    new ConnectorIaasCircuitBreaker("test", 5, 60000),
+                                                                    new ConnectorIaasLivenessCache(60000));
+
+        cachingClient.waitForConnectorIaasToBeUP();
+        cachingClient.waitForConnectorIaasToBeUP();
+        Mockito.verify(restClient).checkConnectorIaasIsUp();
+
+        cachingClient.terminateInstance("infra123", "123456");
+        cachingClient.waitForConnectorIaasToBeUP();
+        Mockito.verify(restClient).checkConnectorIaasIsUp();
+        Mockito.verify(restClient, Mockito.never()).getInfrastructures();
+    }
+
 }
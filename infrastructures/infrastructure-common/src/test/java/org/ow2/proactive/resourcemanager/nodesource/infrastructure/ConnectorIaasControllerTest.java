@@ -25,18 +25,26 @@
  */
 package org.ow2.proactive.resourcemanager.nodesource.infrastructure;
 
+import static org.hamcrest.CoreMatchers.instanceOf;
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
-import static org.mockito.Matchers.anySet;
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
 
-import org.json.JSONObject;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mock;
@@ -131,11 +139,11 @@ public class ConnectorIaasControllerTest {
         when(connectorIaasClient.createInstancesIfNotExist(anyString(),
                                                            anyString(),
                                                            anyString(),
-                                                           anySet())).thenReturn(instanceIds);
+                                                           any(InstancesIndex.class))).thenReturn(instanceIds);
 
-        Set<JSONObject> existingInstances = Sets.newHashSet();
+        InstancesIndex existingInstances = new InstancesIndex();
 
-        when(connectorIaasClient.getAllJsonInstancesByInfrastructureId("node_source_name")).thenReturn(existingInstances);
+        when(connectorIaasClient.getInstancesIndexByInfrastructureId("node_source_name")).thenReturn(existingInstances);
 
         Set<String> instancesIds = connectorIaasController.createInstancesWithOptions("node_source_name",
                                                                                       "node_source_name",
@@ -158,6 +166,107 @@ public class ConnectorIaasControllerTest {
 
     }
 
+    @Test
+    public void testInstancesListingIsCachedAndUpdatedLocally() {
+        InstancesIndexCache instancesIndexCache = new InstancesIndexCache(60000);
+        connectorIaasController = new ConnectorIaasController(connectorIaasClient, "someType", instancesIndexCache);
+
+        InstancesIndex existingInstances = new InstancesIndex();
+        existingInstances.add("tag0", "123");
+        when(connectorIaasClient.getInstancesIndexByInfrastructureId("node_source_name")).thenReturn(existingInstances);
+        when(connectorIaasClient.createInstancesIfNotExist(anyString(),
+                                                           anyString(),
+                                                           anyString(),
+                                                           any(InstancesIndex.class))).thenReturn(Sets.newHashSet("456"),
+                                                                                                  Sets.newHashSet("789"));
+
+        connectorIaasController.createInstances("node_source_name", "tag1", "image", 1, 1, 512);
+        connectorIaasController.createInstances("node_source_name", "tag2", "image", 1, 1, 512);
+
+        verify(connectorIaasClient, times(1)).getInstancesIndexByInfrastructureId("node_source_name");
+
+        connectorIaasController.terminateInstance("node_source_name", "123");
+
+        InstancesIndex cachedInstances = instancesIndexCache.get("node_source_name", InstancesIndex::new);
+        assertThat(cachedInstances.size(), is(0));
+        verify(connectorIaasClient, times(1)).getInstancesIndexByInfrastructureId("node_source_name");
+    }
+
+    @Test
+    public void testCreatingInstancesWithATagAlreadyUsedLooksUpTheConnectorIaasListing() {
+        InstancesIndexCache instancesIndexCache = new InstancesIndexCache(60000);
+        connectorIaasController = new ConnectorIaasController(connectorIaasClient, "someType", instancesIndexCache);
+
+        InstancesIndex listingWithCreatedInstances = new InstancesIndex();
+        listingWithCreatedInstances.add("tag1", "123");
+        when(connectorIaasClient.getInstancesIndexByInfrastructureId("node_source_name")).thenReturn(new InstancesIndex(),
+                                                                                                     listingWithCreatedInstances);
+        when(connectorIaasClient.createInstancesIfNotExist(anyString(),
+                                                           anyString(),
+                                                           anyString(),
+                                                           any(InstancesIndex.class))).thenReturn(Sets.newHashSet("123"));
+
+        connectorIaasController.createInstances("node_source_name", "tag1", "image", 1, 1, 512);
+        connectorIaasController.createInstances("node_source_name", "tag1", "image", 1, 1, 512);
+
+        // the second creation is checked against the listing of the connector-iaas, not against the cached one
+        verify(connectorIaasClient, times(2)).getInstancesIndexByInfrastructureId("node_source_name");
+        verify(connectorIaasClient).createInstancesIfNotExist(anyString(),
+                                                              anyString(),
+                                                              anyString(),
+                                                              eq(listingWithCreatedInstances));
+    }
+
+    @Test
+    public void testAsyncCreationUsesTheCachedInstancesListing() throws Exception {
+        InstancesIndexCache instancesIndexCache = new InstancesIndexCache(60000);
+        connectorIaasController = new ConnectorIaasController(connectorIaasClient, "someType", instancesIndexCache);
+
+        InstancesIndex existingInstances = new InstancesIndex();
+        when(connectorIaasClient.getInstancesIndexByInfrastructureIdAsync("node_source_name")).thenReturn(CompletableFuture.completedFuture(existingInstances));
+        when(connectorIaasClient.createInstancesIfNotExistAsync(anyString(),
+                                                                anyString(),
+                                                                anyString(),
+                                                                any(InstancesIndex.class))).thenReturn(CompletableFuture.completedFuture(Sets.newHashSet("123")));
+
+        connectorIaasController.createAwsEc2InstancesWithOptionsAsync("node_source_name",
+                                                                      "tag1",
+                                                                      "image",
+                                                                      1,
+                                                                      1,
+                                                                      512,
+                                                                      null,
+                                                                      null,
+                                                                      null,
+                                                                      null,
+                                                                      null,
+                                                                      null,
+                                                                      null,
+                                                                      null)
+                               .get();
+        connectorIaasController.createAwsEc2InstancesWithOptionsAsync("node_source_name",
+                                                                      "tag2",
+                                                                      "image",
+                                                                      1,
+                                                                      1,
+                                                                      512,
+                                                                      null,
+                                                                      null,
+                                                                      null,
+                                                                      null,
+                                                                      null,
+                                                                      null,
+                                                                      null,
+                                                                      null)
+                               .get();
+
+        verify(connectorIaasClient, times(1)).getInstancesIndexByInfrastructureIdAsync("node_source_name");
+        verify(connectorIaasClient, times(2)).createInstancesIfNotExistAsync(anyString(),
+                                                                             anyString(),
+                                                                             anyString(),
+                                                                             eq(existingInstances));
+    }
+
     @Test
     public void testCreateInstancesWithPublicKeyNameAndInitScript() {
 
@@ -179,11 +288,11 @@ public class ConnectorIaasControllerTest {
         when(connectorIaasClient.createInstancesIfNotExist(anyString(),
                                                            anyString(),
                                                            anyString(),
-                                                           anySet())).thenReturn(instanceIds);
+                                                           any(InstancesIndex.class))).thenReturn(instanceIds);
 
-        Set<JSONObject> existingInstances = Sets.newHashSet();
+        InstancesIndex existingInstances = new InstancesIndex();
 
-        when(connectorIaasClient.getAllJsonInstancesByInfrastructureId("node_source_name")).thenReturn(existingInstances);
+        when(connectorIaasClient.getInstancesIndexByInfrastructureId("node_source_name")).thenReturn(existingInstances);
 
         Set<String> instancesIds = connectorIaasController.createOpenstackInstance("node_source_name",
                                                                                    "node_source_name",
@@ -224,11 +333,12 @@ public class ConnectorIaasControllerTest {
         when(connectorIaasClient.createInstancesIfNotExist(anyString(),
                                                            anyString(),
                                                            anyString(),
-                                                           anySet())).thenReturn(instanceIds);
+                                                           any(InstancesIndex.class))).thenReturn(instanceIds);
 
-        Set<JSONObject> existingInstances = Sets.newHashSet(new JSONObject());
+        InstancesIndex existingInstances = new InstancesIndex();
+        existingInstances.add("other_tag", "789");
 
-        when(connectorIaasClient.getAllJsonInstancesByInfrastructureId("node_source_name")).thenReturn(existingInstances);
+        when(connectorIaasClient.getInstancesIndexByInfrastructureId("node_source_name")).thenReturn(existingInstances);
 
         Set<String> instancesIds = connectorIaasController.createInstances("node_source_name",
                                                                            "node_source_name",
@@ -291,4 +401,91 @@ public class ConnectorIaasControllerTest {
 
     }
 
+    @Test
+    public void testExecuteScriptWithKeyAuthenticationAsyncFailure() throws InterruptedException {
+
+        List<String> scripts = Lists.newArrayList();
+        scripts.add("ls -lrt");
+
+        String instanceScriptJson = ConnectorIaasJSONTransformer.getScriptInstanceJSONWithKeyAuthentication(scripts,
+                                                                                                            "user1",
+                                                                                                            "key");
+
+        CompletableFuture<String> failedScript = new CompletableFuture<>();
+        failedScript.completeExceptionally(new RuntimeException("Failed: HTTP error code 500"));
+        when(connectorIaasClient.runScriptOnInstanceAsync("node_source_name",
+                                                          "instanceId",
+                                                          instanceScriptJson)).thenReturn(failedScript);
+
+        try {
+            connectorIaasController.executeScriptWithKeyAuthenticationAsync("node_source_name",
+                                                                            "instanceId",
+                                                                            scripts,
+                                                                            "user1",
+                                                                            "key")
+                                   .get();
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), is(instanceOf(ScriptNotExecutedException.class)));
+            return;
+        }
+        throw new AssertionError("The script execution should have failed");
+    }
+
+    @Test
+    public void testExecuteScriptOnInstancesReportsEachInstance() throws Exception {
+        CompletableFuture<String> failedScript = new CompletableFuture<>();
+        failedScript.completeExceptionally(new ConnectorIaasHttpException(500, "ssh not ready"));
+        when(connectorIaasClient.runScriptOnInstanceAsync(anyString(),
+                                                          anyString(),
+                                                          anyString())).thenReturn(CompletableFuture.completedFuture("done"))
+                                                                       .thenReturn(failedScript);
+
+        Map<String, InstanceScriptResult> results = new ConcurrentHashMap<>();
+        connectorIaasController.executeScriptOnInstancesWithKeyAuthentication("node_source_name",
+                                                                              new LinkedHashSet<>(Lists.newArrayList("123",
+                                                                                                                     "456")),
+                                                                              instanceId -> Lists.newArrayList("echo " +
+                                                                                                               instanceId),
+                                                                              "admin",
+                                                                              "key",
+                                                                              result -> results.put(result.getInstanceId(),
+                                                                                                    result))
+                               .get();
+
+        assertThat(results.get("123").isExecuted(), is(true));
+        assertThat(results.get("123").getOutput(), is("done"));
+        assertThat(results.get("456").isExecuted(), is(false));
+        assertThat(results.get("456").getFailure(), is(instanceOf(ScriptNotExecutedException.class)));
+        verify(connectorIaasClient).runScriptOnInstanceAsync("node_source_name",
+                                                             "456",
+                                                             ConnectorIaasJSONTransformer.getScriptInstanceJSONWithKeyAuthentication(Lists.newArrayList("echo 456"),
+                                                                                                                                     "admin",
+                                                                                                                                     "key"));
+    }
+
+    @Test
+    public void testExecuteScriptOnInstancesDoesNotFailWhenTheConsumerFails() throws Exception {
+        when(connectorIaasClient.runScriptOnInstanceAsync(anyString(),
+                                                          anyString(),
+                                                          anyString())).thenReturn(CompletableFuture.completedFuture("done"));
+
+        Set<String> consumedInstanceIds = ConcurrentHashMap.newKeySet();
+        Consumer<InstanceScriptResult> failingConsumer = result -> {
+            consumedInstanceIds.add(result.getInstanceId());
+            throw new IllegalStateException("node not declared");
+        };
+
+        CompletableFuture<Void> execution = connectorIaasController.executeScriptOnInstancesWithKeyAuthentication("node_source_name",
+                                                                                                                  new LinkedHashSet<>(Lists.newArrayList("123",
+                                                                                                                                                         "456")),
+                                                                                                                  instanceId -> Lists.newArrayList("echo"),
+                                                                                                                  "admin",
+                                                                                                                  "key",
+                                                                                                                  failingConsumer);
+
+        execution.get();
+        assertThat(execution.isCompletedExceptionally(), is(false));
+        assertThat(consumedInstanceIds, is((Set<String>) Sets.newHashSet("123", "456")));
+    }
+
 }
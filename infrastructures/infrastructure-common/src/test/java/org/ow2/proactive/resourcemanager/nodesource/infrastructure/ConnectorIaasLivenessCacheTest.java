@@ -0,0 +1,64 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.resourcemanager.nodesource.infrastructure;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+
+public class ConnectorIaasLivenessCacheTest {
+
+    private final AtomicLong now = new AtomicLong();
+
+    private final ConnectorIaasLivenessCache livenessCache = new ConnectorIaasLivenessCache(1000, now::get);
+
+    @Test
+    public void testNotUpBeforeBeingSeenUp() {
+        assertThat(livenessCache.isUp(), is(false));
+    }
+
+    @Test
+    public void testUpUntilTheTimeToLiveExpires() {
+        livenessCache.markUp();
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(999));
+        assertThat(livenessCache.isUp(), is(true));
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(1));
+        assertThat(livenessCache.isUp(), is(false));
+    }
+
+    @Test
+    public void testMarkDown() {
+        livenessCache.markUp();
+        livenessCache.markDown();
+        assertThat(livenessCache.isUp(), is(false));
+    }
+
+}
@@ -0,0 +1,72 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.resourcemanager.nodesource.infrastructure;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+
+public class ExponentialBackoffRetryPolicyTest {
+
+    private final ExponentialBackoffRetryPolicy retryPolicy = new ExponentialBackoffRetryPolicy(100, 1000, 5000, 10);
+
+    @Test
+    public void testMaxDelayGrowsExponentiallyUntilTheMaxDelay() {
+        assertThat(retryPolicy.getMaxDelayBeforeRetry(1), is(100L));
+        assertThat(retryPolicy.getMaxDelayBeforeRetry(2), is(200L));
+        assertThat(retryPolicy.getMaxDelayBeforeRetry(4), is(800L));
+        assertThat(retryPolicy.getMaxDelayBeforeRetry(5), is(1000L));
+        assertThat(retryPolicy.getMaxDelayBeforeRetry(100), is(1000L));
+    }
+
+    @Test
+    public void testDelayIsJitteredBelowTheMaxDelay() {
+        for (int i = 0; i < 100; i++) {
+            long delay = retryPolicy.getDelayBeforeRetry(3, 0);
+            assertThat(delay >= 0, is(true));
+            assertThat(delay, lessThanOrEqualTo(400L));
+        }
+    }
+
+    @Test
+    public void testNoRetryAfterMaxAttempts() {
+        assertThat(retryPolicy.getDelayBeforeRetry(10, 0), is(RetryPolicy.NO_RETRY));
+    }
+
+    @Test
+    public void testNoRetryAfterMaxElapsedTime() {
+        assertThat(retryPolicy.getDelayBeforeRetry(1, 5001), is(RetryPolicy.NO_RETRY));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidDelays() {
+        new ExponentialBackoffRetryPolicy(1000, 100, 5000, 10);
+    }
+
+}
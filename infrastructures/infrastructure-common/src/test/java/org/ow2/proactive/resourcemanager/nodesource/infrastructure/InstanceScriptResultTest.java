@@ -0,0 +1,83 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.resourcemanager.nodesource.infrastructure;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+
+public class InstanceScriptResultTest {
+
+    private static InputStream toStream(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testParseStreamsEachResult() throws IOException {
+        List<InstanceScriptResult> results = new ArrayList<>();
+
+        int count = InstanceScriptResult.parse(toStream("[{\"instanceId\":\"i-1\",\"output\":\"ok\",\"error\":\"\"}," +
+                                                        "{\"error\":\"denied\",\"details\":{\"code\":1}," +
+                                                        "\"instanceId\":\"i-2\"}]"),
+                                               System.currentTimeMillis(),
+                                               results::add);
+
+        assertThat(count, is(2));
+        assertThat(results.get(0).getInstanceId(), is("i-1"));
+        assertThat(results.get(0).getOutput(), is("ok"));
+        assertThat(results.get(0).isExecuted(), is(true));
+        assertThat(results.get(1).getInstanceId(), is("i-2"));
+        assertThat(results.get(1).getOutput(), is(nullValue()));
+        assertThat(results.get(1).getError(), is("denied"));
+    }
+
+    @Test
+    public void testParseSingleResult() throws IOException {
+        List<InstanceScriptResult> results = new ArrayList<>();
+
+        InstanceScriptResult.parse(toStream("{\"instanceId\":\"i-1\",\"output\":\"ok\"}"), 0, results::add);
+
+        assertThat(results.size(), is(1));
+        assertThat(results.get(0).getInstanceId(), is("i-1"));
+    }
+
+    @Test(expected = IOException.class)
+    public void testParseInvalidResults() throws IOException {
+        InstanceScriptResult.parse(toStream("\"ok\""), 0, result -> {
+        });
+    }
+
+}
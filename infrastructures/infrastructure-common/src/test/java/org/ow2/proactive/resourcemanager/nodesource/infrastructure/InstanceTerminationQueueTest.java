@@ -0,0 +1,154 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.resourcemanager.nodesource.infrastructure;
+
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+
+public class InstanceTerminationQueueTest {
+
+    private static final String INFRASTRUCTURE_ID = "infrastructure-id";
+
+    @Test
+    public void testTerminationOfAPendingInstanceIsNotQueuedAgain() throws Exception {
+        InstanceTerminationQueue queue = new InstanceTerminationQueue("test", 2, 1, 0);
+        CountDownLatch terminationAllowed = new CountDownLatch(1);
+        AtomicInteger nbTerminations = new AtomicInteger();
+        Runnable termination = () -> {
+            nbTerminations.incrementAndGet();
+            awaitQuietly(terminationAllowed);
+        };
+
+        CompletableFuture<Void> terminated = queue.submit(INFRASTRUCTURE_ID, "i-1", termination);
+        CompletableFuture<Void> terminatedAgain = queue.submit(INFRASTRUCTURE_ID, "i-1", termination);
+
+        assertThat(terminatedAgain, is(sameInstance(terminated)));
+        assertThat(queue.getBacklog(), is(1));
+        assertThat(queue.getPendingTerminations(INFRASTRUCTURE_ID), is(Collections.singleton("i-1")));
+        assertThat(queue.getPendingTerminations("other-infrastructure-id").isEmpty(), is(true));
+
+        terminationAllowed.countDown();
+        terminated.get(10, TimeUnit.SECONDS);
+
+        assertThat(nbTerminations.get(), is(1));
+        assertThat(queue.getBacklog(), is(0));
+    }
+
+    @Test
+    public void testTerminationsRunAtTheSameTime() throws Exception {
+        InstanceTerminationQueue queue = new InstanceTerminationQueue("test", 2, 1, 0);
+        // each termination waits for the other one, so they can only complete if they run at the same time
+        CountDownLatch runningTerminations = new CountDownLatch(2);
+        Runnable termination = () -> {
+            runningTerminations.countDown();
+            awaitQuietly(runningTerminations);
+        };
+
+        CompletableFuture.allOf(queue.submit(INFRASTRUCTURE_ID, "i-1", termination),
+                                queue.submit(INFRASTRUCTURE_ID, "i-2", termination))
+                         .get(10, TimeUnit.SECONDS);
+
+        assertThat(queue.getBacklog(), is(0));
+    }
+
+    @Test
+    public void testFailedTerminationIsRetried() throws Exception {
+        InstanceTerminationQueue queue = new InstanceTerminationQueue("test", 1, 3, 0);
+        AtomicInteger nbAttempts = new AtomicInteger();
+
+        queue.submit(INFRASTRUCTURE_ID, "i-1", () -> {
+            if (nbAttempts.incrementAndGet() < 3) {
+                throw new IllegalStateException("instance not deleted");
+            }
+        }).get(10, TimeUnit.SECONDS);
+
+        assertThat(nbAttempts.get(), is(3));
+    }
+
+    @Test
+    public void testFailedTerminationIsRetriedAfterADelay() throws Exception {
+        InstanceTerminationQueue queue = new InstanceTerminationQueue("test", 1, 3, 100);
+        List<Long> attemptTimes = Collections.synchronizedList(new ArrayList<>());
+
+        queue.submit(INFRASTRUCTURE_ID, "i-1", () -> {
+            attemptTimes.add(System.nanoTime());
+            if (attemptTimes.size() < 3) {
+                throw new IllegalStateException("instance not deleted");
+            }
+        }).get(10, TimeUnit.SECONDS);
+
+        assertThat(attemptTimes.size(), is(3));
+        // the delay is doubled at each attempt
+        assertThat(TimeUnit.NANOSECONDS.toMillis(attemptTimes.get(1) - attemptTimes.get(0)),
+                   is(greaterThanOrEqualTo(100L)));
+        assertThat(TimeUnit.NANOSECONDS.toMillis(attemptTimes.get(2) - attemptTimes.get(1)),
+                   is(greaterThanOrEqualTo(200L)));
+    }
+
+    @Test
+    public void testTerminationFailsOnceAllAttemptsHaveFailed() throws Exception {
+        InstanceTerminationQueue queue = new InstanceTerminationQueue("test", 1, 2, 0);
+        AtomicInteger nbAttempts = new AtomicInteger();
+
+        CompletableFuture<Void> terminated = queue.submit(INFRASTRUCTURE_ID, "i-1", () -> {
+            nbAttempts.incrementAndGet();
+            throw new IllegalStateException("instance not deleted");
+        });
+
+        try {
+            terminated.get(10, TimeUnit.SECONDS);
+            fail("the termination should have failed");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause().getMessage(), is("instance not deleted"));
+        }
+        assertThat(nbAttempts.get(), is(2));
+        assertThat(queue.getBacklog(), is(0));
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
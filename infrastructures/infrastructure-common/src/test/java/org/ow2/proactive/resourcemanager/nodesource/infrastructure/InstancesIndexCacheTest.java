@@ -0,0 +1,138 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.resourcemanager.nodesource.infrastructure;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Sets;
+
+
+public class InstancesIndexCacheTest {
+
+    private AtomicLong nanoTime;
+
+    private AtomicInteger loads;
+
+    private InstancesIndexCache instancesIndexCache;
+
+    @Before
+    public void init() {
+        nanoTime = new AtomicLong();
+        loads = new AtomicInteger();
+        instancesIndexCache = new InstancesIndexCache(1000, nanoTime::get);
+    }
+
+    private Supplier<InstancesIndex> loader() {
+        return () -> {
+            loads.incrementAndGet();
+            return new InstancesIndex();
+        };
+    }
+
+    @Test
+    public void testListingIsLoadedOnMissAndReusedUntilItExpires() {
+        InstancesIndex instancesIndex = instancesIndexCache.get("infra", loader());
+        nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(999));
+
+        assertThat(instancesIndexCache.get("infra", loader()), is(sameInstance(instancesIndex)));
+        assertThat(loads.get(), is(1));
+
+        nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(1));
+        instancesIndexCache.get("infra", loader());
+        assertThat(loads.get(), is(2));
+    }
+
+    @Test
+    public void testListingIsUpdatedLocallyWithTheTerminations() {
+        InstancesIndex instancesIndex = instancesIndexCache.get("infra", () -> {
+            InstancesIndex loadedInstancesIndex = new InstancesIndex();
+            loadedInstancesIndex.add("tag1", "1");
+            loadedInstancesIndex.add("tag1", "2");
+            loadedInstancesIndex.add("tag2", "3");
+            return loadedInstancesIndex;
+        });
+
+        instancesIndexCache.onInstanceTerminated("infra", "1");
+
+        assertThat(instancesIndex.getInstanceIds("tag1"), is(Sets.newHashSet("2")));
+        assertThat(instancesIndex.size(), is(2));
+
+        instancesIndexCache.onInstancesTerminatedByTag("infra", "tag2");
+        assertThat(instancesIndex.size(), is(1));
+    }
+
+    @Test
+    public void testLookupOfATagCreatedSinceTheListingWasLoadedLoadsItAgain() {
+        instancesIndexCache.get("infra", "tag1", loader());
+        nanoTime.addAndGet(1);
+        instancesIndexCache.onInstancesCreated("infra", "tag1");
+
+        // the created instances are not in the cached listing
+        instancesIndexCache.get("infra", "tag2", loader());
+        assertThat(loads.get(), is(1));
+        nanoTime.addAndGet(1);
+        instancesIndexCache.get("infra", "tag1", loader());
+        assertThat(loads.get(), is(2));
+
+        // the listing loaded after the creation contains them
+        instancesIndexCache.get("infra", "tag1", loader());
+        assertThat(loads.get(), is(2));
+    }
+
+    @Test
+    public void testAsyncLookupOfATagCreatedSinceTheListingWasLoadedLoadsItAgain() throws Exception {
+        Supplier<CompletableFuture<InstancesIndex>> asyncLoader = () -> CompletableFuture.completedFuture(loader().get());
+        instancesIndexCache.getAsync("infra", "tag1", asyncLoader).get();
+        nanoTime.addAndGet(1);
+        instancesIndexCache.onInstancesCreated("infra", "tag1");
+
+        instancesIndexCache.getAsync("infra", "tag2", asyncLoader).get();
+        assertThat(loads.get(), is(1));
+        instancesIndexCache.getAsync("infra", "tag1", asyncLoader).get();
+        assertThat(loads.get(), is(2));
+    }
+
+    @Test
+    public void testInvalidatedListingIsLoadedAgain() {
+        instancesIndexCache.get("infra", loader());
+        instancesIndexCache.invalidate("infra");
+        instancesIndexCache.get("infra", loader());
+
+        assertThat(loads.get(), is(2));
+    }
+
+}
@@ -0,0 +1,97 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.resourcemanager.nodesource.infrastructure;
+
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import com.google.common.collect.Sets;
+
+
+public class InstancesIndexTest {
+
+    private static final String INSTANCES_JSON = "[{\"id\":\"region/i-1\",\"tag\":\"ns1\",\"image\":\"ami-1\"," +
+                                                 "\"hardware\":{\"minCores\":\"2\",\"minRam\":\"4096\"}," +
+                                                 "\"network\":{\"publicAddresses\":[\"1.2.3.4\"]}}," +
+                                                 "{\"tag\":\"ns1\",\"credentials\":{\"username\":\"ubuntu\"}," +
+                                                 "\"id\":\"region/i-2\"}," +
+                                                 "{\"id\":\"region/i-3\",\"tag\":\"ns2\",\"status\":\"RUNNING\"}]";
+
+    @Test
+    public void testParseKeepsIdsPerTag() throws IOException {
+        InstancesIndex instancesIndex = InstancesIndex.parse(new ByteArrayInputStream(INSTANCES_JSON.getBytes(StandardCharsets.UTF_8)));
+
+        assertThat(instancesIndex.size(), is(3));
+        assertThat(instancesIndex.getInstanceIds("ns1"), is(Sets.newHashSet("region/i-1", "region/i-2")));
+        assertThat(instancesIndex.getInstanceIds("ns2"), is(Sets.newHashSet("region/i-3")));
+        assertThat(instancesIndex.getInstanceIds("ns3"), is(empty()));
+    }
+
+    @Test
+    public void testParseEmptyListing() throws IOException {
+        assertThat(InstancesIndex.parse("[]").size(), is(0));
+    }
+
+    @Test(expected = IOException.class)
+    public void testParseInvalidListing() throws IOException {
+        InstancesIndex.parse("{\"id\":\"region/i-1\"}");
+    }
+
+    @Test
+    public void testRemoveByIdAndByTag() {
+        InstancesIndex instancesIndex = new InstancesIndex();
+        instancesIndex.add("ns1", "i-1");
+        instancesIndex.add("ns1", "i-2");
+        instancesIndex.add("ns2", "i-3");
+
+        instancesIndex.remove("i-1");
+        assertThat(instancesIndex.getInstanceIds("ns1"), is(Sets.newHashSet("i-2")));
+        assertThat(instancesIndex.size(), is(2));
+
+        instancesIndex.removeTag("ns2");
+        assertThat(instancesIndex.getInstanceIds("ns2"), is(empty()));
+        assertThat(instancesIndex.size(), is(1));
+    }
+
+    @Test
+    public void testAddingAnExistingInstanceMovesItToTheNewTag() {
+        InstancesIndex instancesIndex = new InstancesIndex();
+        instancesIndex.add("ns1", "i-1");
+        instancesIndex.add("ns2", "i-1");
+
+        assertThat(instancesIndex.getInstanceIds("ns1"), is(empty()));
+        assertThat(instancesIndex.getInstanceIds("ns2"), is(Sets.newHashSet("i-1")));
+        assertThat(instancesIndex.size(), is(1));
+    }
+
+}
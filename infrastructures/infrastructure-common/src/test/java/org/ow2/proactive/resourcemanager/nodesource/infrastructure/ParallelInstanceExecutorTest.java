@@ -0,0 +1,111 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.resourcemanager.nodesource.infrastructure;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+
+public class ParallelInstanceExecutorTest {
+
+    private static final List<String> INSTANCE_IDS = Lists.newArrayList("i-1", "i-2", "i-3", "i-4", "i-5", "i-6");
+
+    @Test
+    public void testTasksRunInParallelUpToTheParallelism() {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        CountDownLatch allowedRunning = new CountDownLatch(3);
+        Set<String> done = ConcurrentHashMap.newKeySet();
+
+        ParallelInstanceExecutor.forEachInstance("test", INSTANCE_IDS, 3, instanceId -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            allowedRunning.countDown();
+            try {
+                // the first tasks wait for each other, so they can only complete if they run at the same time
+                allowedRunning.await(10, TimeUnit.SECONDS);
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            running.decrementAndGet();
+            done.add(instanceId);
+        });
+
+        assertThat(done, is(Sets.newHashSet(INSTANCE_IDS)));
+        assertThat(maxRunning.get(), is(3));
+    }
+
+    @Test
+    public void testFailingTaskDoesNotStopTheOtherOnes() {
+        Set<String> done = ConcurrentHashMap.newKeySet();
+
+        ParallelInstanceExecutor.forEachInstance("test", INSTANCE_IDS, 2, instanceId -> {
+            if ("i-1".equals(instanceId)) {
+                throw new IllegalStateException("instance not reachable");
+            }
+            done.add(instanceId);
+        });
+
+        assertThat(done.size(), is(INSTANCE_IDS.size() - 1));
+    }
+
+    @Test
+    public void testTasksRunInTheCallerThreadWithoutParallelism() {
+        Set<Thread> threads = ConcurrentHashMap.newKeySet();
+
+        ParallelInstanceExecutor.forEachInstance("test", INSTANCE_IDS, 1, instanceId -> threads.add(Thread.currentThread()));
+
+        assertThat(threads, is(Sets.newHashSet(Thread.currentThread())));
+    }
+
+    @Test
+    public void testDurationOfEachInstanceIsReported() {
+        Map<String, Long> durations = ParallelInstanceExecutor.forEachInstance("test", INSTANCE_IDS, 3, instanceId -> {
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        assertThat(durations.keySet(), is(Sets.newHashSet(INSTANCE_IDS)));
+        assertThat(durations.values().stream().allMatch(duration -> duration >= 10), is(true));
+    }
+
+}
@@ -0,0 +1,160 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.resourcemanager.nodesource.infrastructure;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+
+public class PersistedInfraVariablesWriteBehindTest {
+
+    private final List<String> applied = new CopyOnWriteArrayList<>();
+
+    private final LinkedBlockingQueue<Integer> writes = new LinkedBlockingQueue<>();
+
+    private PersistedInfraVariablesWriteBehind createWriteBehind(long delayMillis, int maxPendingUpdates) {
+        return new PersistedInfraVariablesWriteBehind(delayMillis, maxPendingUpdates, updates -> {
+            updates.forEach(Runnable::run);
+            writes.add(updates.size());
+        }, Runnable::run);
+    }
+
+    @Test
+    public void testUpdatesOfTheDelayAreWrittenOnce() throws InterruptedException {
+        PersistedInfraVariablesWriteBehind writeBehind = createWriteBehind(100, 100);
+
+        writeBehind.submit(() -> applied.add("node-1"));
+        writeBehind.submit(() -> applied.add("node-2"));
+        writeBehind.submit(() -> applied.add("node-3"));
+
+        assertThat(writes.poll(10, TimeUnit.SECONDS), is(3));
+        assertThat(applied, contains("node-1", "node-2", "node-3"));
+        assertThat(writeBehind.getNumberOfPendingUpdates(), is(0));
+    }
+
+    @Test
+    public void testMaxPendingUpdatesTriggersTheWriteBeforeTheDelay() throws InterruptedException {
+        PersistedInfraVariablesWriteBehind writeBehind = createWriteBehind(TimeUnit.HOURS.toMillis(1), 2);
+
+        writeBehind.submit(() -> applied.add("node-1"));
+        writeBehind.submit(() -> applied.add("node-2"));
+
+        assertThat(writes.poll(10, TimeUnit.SECONDS), is(2));
+        assertThat(applied, contains("node-1", "node-2"));
+    }
+
+    @Test
+    public void testFlushWritesThePendingUpdatesRightAway() {
+        PersistedInfraVariablesWriteBehind writeBehind = createWriteBehind(TimeUnit.HOURS.toMillis(1), 100);
+
+        writeBehind.submit(() -> applied.add("node-1"));
+        writeBehind.submit(() -> applied.add("node-2"));
+        writeBehind.flush();
+
+        assertThat(applied, contains("node-1", "node-2"));
+        assertThat(writes.poll(), is(2));
+
+        // nothing pending, nothing written
+        writeBehind.flush();
+        assertThat(writes.isEmpty(), is(true));
+    }
+
+    @Test
+    public void testUpdatesSubmittedWhileSuspendedAreAppliedAndWrittenOnceResumed() throws InterruptedException {
+        PersistedInfraVariablesWriteBehind writeBehind = createWriteBehind(0, 2);
+
+        assertThat(writeBehind.suspend(0), is(true));
+        assertThat(writeBehind.suspend(0), is(false));
+        assertThat(writeBehind.isEnabled(), is(true));
+        writeBehind.submit(() -> applied.add("node-1"));
+        writeBehind.submit(() -> applied.add("node-2"));
+        writeBehind.submit(() -> applied.add("node-3"));
+
+        // the updates are applied right away, but neither the maximum number
+        // of pending updates, the delay nor a flush trigger a write
+        assertThat(applied, contains("node-1", "node-2", "node-3"));
+        writeBehind.flush();
+        assertThat(writes.poll(200, TimeUnit.MILLISECONDS), is(nullValue()));
+
+        writeBehind.resume();
+
+        // a single write, without any update left to apply
+        assertThat(writes.poll(), is(0));
+        assertThat(writes.isEmpty(), is(true));
+        assertThat(applied, contains("node-1", "node-2", "node-3"));
+        assertThat(writeBehind.isEnabled(), is(false));
+
+        // everything is saved already
+        writeBehind.flush();
+        assertThat(writes.isEmpty(), is(true));
+    }
+
+    @Test
+    public void testPendingUpdatesAreAppliedWhenSuspended() {
+        PersistedInfraVariablesWriteBehind writeBehind = createWriteBehind(TimeUnit.HOURS.toMillis(1), 100);
+
+        writeBehind.submit(() -> applied.add("node-1"));
+        assertThat(applied.isEmpty(), is(true));
+
+        writeBehind.suspend(0);
+
+        assertThat(applied, contains("node-1"));
+        assertThat(writeBehind.getNumberOfPendingUpdates(), is(0));
+        assertThat(writes.isEmpty(), is(true));
+
+        writeBehind.resume();
+
+        assertThat(writes.poll(), is(0));
+        assertThat(applied, contains("node-1"));
+    }
+
+    @Test
+    public void testSuspensionEndsAfterTheQuietPeriod() throws InterruptedException {
+        PersistedInfraVariablesWriteBehind writeBehind = createWriteBehind(0, 100);
+
+        writeBehind.suspend(100);
+        writeBehind.submit(() -> applied.add("node-1"));
+
+        assertThat(writes.poll(10, TimeUnit.SECONDS), is(0));
+        assertThat(writeBehind.isSuspended(), is(false));
+    }
+
+    @Test
+    public void testDisabledWithoutDelay() {
+        assertThat(createWriteBehind(0, 100).isEnabled(), is(false));
+        assertThat(createWriteBehind(100, 100).isEnabled(), is(true));
+    }
+
+}
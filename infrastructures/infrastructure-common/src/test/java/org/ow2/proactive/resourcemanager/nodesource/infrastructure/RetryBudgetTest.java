@@ -0,0 +1,63 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.resourcemanager.nodesource.infrastructure;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+
+public class RetryBudgetTest {
+
+    @Test
+    public void testRetriesAreLimitedByTheBudget() {
+        RetryBudget retryBudget = new RetryBudget(2, 0.5, 60000);
+        assertThat(retryBudget.tryAcquireRetry(), is(true));
+        assertThat(retryBudget.tryAcquireRetry(), is(true));
+        assertThat(retryBudget.tryAcquireRetry(), is(false));
+    }
+
+    @Test
+    public void testSuccessfulCallsEarnRetriesBack() {
+        RetryBudget retryBudget = new RetryBudget(1, 0.5, 60000);
+        assertThat(retryBudget.tryAcquireRetry(), is(true));
+        retryBudget.onSuccess();
+        assertThat(retryBudget.tryAcquireRetry(), is(false));
+        retryBudget.onSuccess();
+        retryBudget.onSuccess();
+        assertThat(retryBudget.tryAcquireRetry(), is(true));
+    }
+
+    @Test
+    public void testRetriesAreEarnedBackOverTime() throws InterruptedException {
+        RetryBudget retryBudget = new RetryBudget(1, 0, 10);
+        assertThat(retryBudget.tryAcquireRetry(), is(true));
+        Thread.sleep(20);
+        assertThat(retryBudget.tryAcquireRetry(), is(true));
+    }
+
+}
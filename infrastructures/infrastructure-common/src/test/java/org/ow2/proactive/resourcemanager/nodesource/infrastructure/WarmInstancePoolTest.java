@@ -0,0 +1,55 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.resourcemanager.nodesource.infrastructure;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+
+public class WarmInstancePoolTest {
+
+    @Test
+    public void testASingleRefillRunsAtATime() {
+        WarmInstancePool pool = new WarmInstancePool(2);
+
+        assertThat(pool.startRefill(), is(true));
+        assertThat(pool.startRefill(), is(false));
+
+        pool.endRefill();
+
+        assertThat(pool.startRefill(), is(true));
+    }
+
+    @Test
+    public void testPoolWithoutSizeIsDisabled() {
+        WarmInstancePool pool = new WarmInstancePool(0);
+
+        assertThat(pool.isEnabled(), is(false));
+        assertThat(pool.getSize(), is(0));
+    }
+}
@@ -30,7 +30,6 @@ import java.util.*;
 import java.util.concurrent.Executors;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.log4j.Logger;
@@ -41,7 +40,6 @@ import org.ow2.proactive.resourcemanager.nodesource.infrastructure.util.InitScri
 import org.ow2.proactive.resourcemanager.rmnode.RMDeployingNode;
 import org.ow2.proactive.resourcemanager.utils.RMNodeStarter;
 
-import com.google.common.collect.Maps;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 
@@ -89,9 +87,6 @@ public class GCEInfrastructure extends AbstractAddonInfrastructure {
     // wrap the write access to deletingLock, used when performing deleting operation
     private static Lock writeDeletingLock = deletingLock.writeLock();
 
-    // Lock for acquireNodes (dynamic policy)
-    private final transient Lock dynamicAcquireLock = new ReentrantLock();
-
     private boolean isCreatedInfrastructure = false;
 
     // The index of the infrastructure configurable parameters.
@@ -237,28 +232,19 @@ public class GCEInfrastructure extends AbstractAddonInfrastructure {
 
     @Override
     public synchronized void acquireNodes(final int numberOfNodes, final Map<String, ?> nodeConfiguration) {
-        logger.info(String.format("Acquiring %d nodes with the configuration: %s.", numberOfNodes, nodeConfiguration));
-
-        nodeSource.executeInParallel(() -> {
-            if (dynamicAcquireLock.tryLock()) {
-                try {
-                    int nbInstancesToDeploy = calNumberOfInstancesToDeploy(numberOfNodes,
-                                                                           nodeConfiguration,
-                                                                           totalNumberOfInstances,
-                                                                           numberOfNodesPerInstance);
-                    if (nbInstancesToDeploy <= 0) {
-                        logger.info("No need to deploy new instances, acquireNodes skipped.");
-                        return;
-                    }
-                    deployInstancesWithFullNodes(nbInstancesToDeploy);
-                } catch (Exception e) {
-                    logger.error("Error during node acquisition", e);
-                } finally {
-                    dynamicAcquireLock.unlock();
-                }
-            } else {
-                logger.info("Infrastructure is busy, acquireNodes skipped.");
+        acquireNodesByRounds(numberOfNodes, nodeConfiguration, (nbNodesOfRound, roundConfiguration) -> {
+            logger.info(String.format("Acquiring %d nodes with the configuration: %s.",
+                                      nbNodesOfRound,
+                                      roundConfiguration));
+            int nbInstancesToDeploy = calNumberOfInstancesToDeploy(nbNodesOfRound,
+                                                                   roundConfiguration,
+                                                                   totalNumberOfInstances,
+                                                                   numberOfNodesPerInstance);
+            if (nbInstancesToDeploy <= 0) {
+                logger.info("No need to deploy new instances, acquireNodes skipped.");
+                return;
             }
+            deployInstancesWithFullNodes(nbInstancesToDeploy);
         });
     }
 
@@ -439,32 +425,16 @@ public class GCEInfrastructure extends AbstractAddonInfrastructure {
         return getDescription();
     }
 
-    @SuppressWarnings("unchecked")
     @Override
-    protected void unregisterNodeAndRemoveInstanceIfNeeded(final String instanceTag, final String nodeName,
+    protected void unregisterNodesAndRemoveInstanceIfNeeded(final String instanceTag, final Collection<String> nodeNames,
             final String infrastructureId, final boolean terminateInstanceIfEmpty) {
-        setPersistedInfraVariable(() -> {
-            // first read from the runtime variables map
-            nodesPerInstance = (Map<String, Set<String>>) persistedInfraVariables.get(NODES_PER_INSTANCES_KEY);
-            // make modifications to the nodesPerInstance map
-            if (nodesPerInstance.get(instanceTag) != null) {
-                nodesPerInstance.get(instanceTag).remove(nodeName);
-                logger.info("Removed node: " + nodeName);
-                if (nodesPerInstance.get(instanceTag).isEmpty()) {
-                    if (terminateInstanceIfEmpty) {
-                        terminateInstance(infrastructureId, instanceTag);
-                    }
-                    nodesPerInstance.remove(instanceTag);
-                    logger.info("Removed instance: " + instanceTag);
+        updatePersistedInfraVariables(() -> {
+            int nbRemovedNodes = removeNodesOfInstance(instanceTag, nodeNames, emptyInstanceTag -> {
+                if (terminateInstanceIfEmpty) {
+                    runAfterPersist(() -> terminateInstance(infrastructureId, emptyInstanceTag));
                 }
-                // finally write to the runtime variable map
-                decrementNumberOfAcquiredNodesWithLockAndPersist();
-                persistedInfraVariables.put(NODES_PER_INSTANCES_KEY, Maps.newHashMap(nodesPerInstance));
-            } else {
-                logger.error("Cannot remove node " + nodeName + " because instance " + instanceTag +
-                             " is not registered");
-            }
-            return null;
+            });
+            decrementNumberOfAcquiredNodes(nbRemovedNodes);
         });
     }
 
@@ -28,8 +28,6 @@ package org.ow2.proactive.resourcemanager.nodesource.infrastructure;
 import java.security.KeyException;
 import java.util.*;
 import java.util.concurrent.*;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.log4j.Logger;
 import org.codehaus.jackson.map.ObjectMapper;
@@ -63,8 +61,6 @@ public class OpenstackInfrastructure extends AbstractAddonInfrastructure {
 
     private static final long DEFAULT_NODES_INIT_DELAY = 4 * 60 * 1000;// 4 min
 
-    private final transient Lock acquireLock = new ReentrantLock();
-
     private boolean isInitializedAndCreated = false;
 
     private final transient InitScriptGenerator initScriptGenerator = new InitScriptGenerator();
@@ -236,23 +232,9 @@ public class OpenstackInfrastructure extends AbstractAddonInfrastructure {
     @Override
     public synchronized void acquireNodes(final int numberOfNodes, final long startTimeout,
             final Map<String, ?> nodeConfiguration) {
-        this.nodeSource.executeInParallel(() -> {
-            try {
-                if (acquireLock.tryLock(startTimeout, TimeUnit.MILLISECONDS)) {
-                    try {
-                        OpenstackCustomizableParameter params = getNodeSpecificParameters(nodeConfiguration);
-                        internalAcquireNodes(numberOfNodes, nodeConfiguration, params);
-                    } catch (Exception e) {
-                        logger.error("Error during node acquisition", e);
-                    } finally {
-                        acquireLock.unlock();
-                    }
-                } else {
-                    logger.info("acquireNodes skipped because infrastructure is busy.");
-                }
-            } catch (InterruptedException e) {
-                logger.info("acquireNodes skipped because of InterruptedException:", e);
-            }
+        acquireNodesByRounds(numberOfNodes, nodeConfiguration, (nbNodesOfRound, roundConfiguration) -> {
+            OpenstackCustomizableParameter params = getNodeSpecificParameters(roundConfiguration);
+            internalAcquireNodes(nbNodesOfRound, roundConfiguration, params);
         });
     }
 
@@ -302,32 +284,18 @@ public class OpenstackInfrastructure extends AbstractAddonInfrastructure {
     }
 
     @Override
-    protected void unregisterNodeAndRemoveInstanceIfNeeded(final String instanceTag, final String nodeName,
+    protected void unregisterNodesAndRemoveInstanceIfNeeded(final String instanceTag, final Collection<String> nodeNames,
             final String infrastructureId, final boolean terminateInstanceIfEmpty) {
-        setPersistedInfraVariable(() -> {
-            // First read from the runtime variables map
-            //noinspection unchecked
-            nodesPerInstance = (Map<String, Set<String>>) persistedInfraVariables.get(NODES_PER_INSTANCES_KEY);
-            // Make modifications to the nodesPerInstance map
-            if (nodesPerInstance.get(instanceTag) != null) {
-                nodesPerInstance.get(instanceTag).remove(nodeName);
-                logger.info("Removed node: " + nodeName);
-                if (nodesPerInstance.get(instanceTag).isEmpty()) {
-                    if (terminateInstanceIfEmpty) {
-                        connectorIaasController.terminateInstanceByTag(infrastructureId, instanceTag);
-                        logger.info("Instance terminated: " + instanceTag);
-                    }
-                    nodesPerInstance.remove(instanceTag);
-                    logger.info("Removed instance: " + instanceTag);
+        updatePersistedInfraVariables(() -> {
+            int nbRemovedNodes = removeNodesOfInstance(instanceTag, nodeNames, emptyInstanceTag -> {
+                if (terminateInstanceIfEmpty) {
+                    runAfterPersist(() -> queueInstanceTermination(infrastructureId, emptyInstanceTag, () -> {
+                        connectorIaasController.terminateInstanceByTag(infrastructureId, emptyInstanceTag);
+                        logger.info("Instance terminated: " + emptyInstanceTag);
+                    }));
                 }
-                // Finally write to the runtime variable map
-                decrementNumberOfAcquiredNodesWithLockAndPersist();
-                persistedInfraVariables.put(NODES_PER_INSTANCES_KEY, Maps.newHashMap(nodesPerInstance));
-            } else {
-                logger.error("Cannot remove node " + nodeName + " because instance " + instanceTag +
-                             " is not registered");
-            }
-            return null;
+            });
+            decrementNumberOfAcquiredNodes(nbRemovedNodes);
         });
     }
 
@@ -486,9 +454,11 @@ public class OpenstackInfrastructure extends AbstractAddonInfrastructure {
     private void removeDeployedInstancesAndNodes(Map<String, Set<String>> deployedInstancesAndNodes) {
         for (Map.Entry<String, Set<String>> instanceWithNodes : deployedInstancesAndNodes.entrySet()) {
             String instanceTag = instanceWithNodes.getKey();
-            for (String nodeName : instanceWithNodes.getValue()) {
-                unregisterNodeAndRemoveInstanceIfNeeded(instanceTag, nodeName, getInfrastructureId(), true);
-            }
+            // the instance is terminated below, whether nodes were registered on it or not
+            unregisterNodesAndRemoveInstanceIfNeeded(instanceTag,
+                                                     instanceWithNodes.getValue(),
+                                                     getInfrastructureId(),
+                                                     false);
             connectorIaasController.terminateInstanceByTag(getInfrastructureId(), instanceTag);
         }
     }
@@ -30,6 +30,7 @@ import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.nullValue;
 import static org.junit.Assert.assertThat;
 import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -372,7 +373,7 @@ public class OpenstackInfrastructureTest {
 
         verify(proActiveRuntime).killNode("nodename");
 
-        verify(connectorIaasController).terminateInstanceByTag("node_source_name", "123");
+        verify(connectorIaasController, timeout(10000)).terminateInstanceByTag("node_source_name", "123");
 
         assertThat(openstackInfrastructure.getNodesPerInstancesMap().isEmpty(), is(true));
 
@@ -33,6 +33,7 @@ import org.apache.log4j.Logger;
 import org.objectweb.proactive.core.node.Node;
 import org.ow2.proactive.resourcemanager.exception.RMException;
 import org.ow2.proactive.resourcemanager.nodesource.common.Configurable;
+import org.ow2.proactive.resourcemanager.nodesource.infrastructure.util.NSProperties;
 
 import com.google.common.collect.Lists;
 
@@ -217,22 +218,27 @@ public class VMWareInfrastructure extends AbstractAddonInfrastructure {
 
         logger.info("Instances ids created : " + instancesIds);
 
-        for (String instanceId : instancesIds) {
+        ParallelInstanceExecutor.forEachInstance(getInfrastructureId(),
+                                                 instancesIds,
+                                                 ParallelInstanceExecutor.getConfiguredParallelism(NSProperties.VMWARE_INSTANCES_BOOTSTRAP_PARALLELISM),
+                                                 this::executeScriptOnInstance);
 
-            String fullScript = "-c '" + this.downloadCommand + ";nohup " +
-                                generateDefaultStartNodeCommand(instanceId) + "  &'";
+    }
 
-            try {
-                connectorIaasController.executeScriptWithCredentials(getInfrastructureId(),
-                                                                     instanceId,
-                                                                     Lists.newArrayList(fullScript),
-                                                                     vmUsername,
-                                                                     vmPassword);
-            } catch (ScriptNotExecutedException e) {
-                logger.info("Script not executed for instance " + instanceId);
-            }
-        }
+    private void executeScriptOnInstance(String instanceId) {
+
+        String fullScript = "-c '" + this.downloadCommand + ";nohup " + generateDefaultStartNodeCommand(instanceId) +
+                            "  &'";
 
+        try {
+            connectorIaasController.executeScriptWithCredentials(getInfrastructureId(),
+                                                                 instanceId,
+                                                                 Lists.newArrayList(fullScript),
+                                                                 vmUsername,
+                                                                 vmPassword);
+        } catch (ScriptNotExecutedException e) {
+            logger.info("Script not executed for instance " + instanceId);
+        }
     }
 
     @Override
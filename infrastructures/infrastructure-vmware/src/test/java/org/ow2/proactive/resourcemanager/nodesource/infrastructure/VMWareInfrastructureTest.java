@@ -26,15 +26,30 @@
 package org.ow2.proactive.resourcemanager.nodesource.infrastructure;
 
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.anyList;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
 import org.hamcrest.Matchers;
 import org.junit.Before;
 import org.junit.Test;
@@ -392,7 +407,7 @@ public class VMWareInfrastructureTest {
 
         verify(proActiveRuntime).killNode("nodename");
 
-        verify(connectorIaasController).terminateInstance("node_source_name", "123");
+        verify(connectorIaasController, timeout(10000)).terminateInstance("node_source_name", "123");
 
         assertThat(vmwareInfrastructure.getNodesPerInstancesMap().isEmpty(), is(true));
 
@@ -427,14 +442,134 @@ public class VMWareInfrastructureTest {
 
         when(nodeInformation.getName()).thenReturn("nodename");
 
+        Map<String, Set<String>> nodesPerInstance = vmwareInfrastructure.getNodesPerInstancesMap();
+
         vmwareInfrastructure.notifyAcquiredNode(node);
 
+        // the saved map is updated in place, it is not copied on each change
+        assertThat(vmwareInfrastructure.getNodesPerInstancesMap(), is(sameInstance(nodesPerInstance)));
         assertThat(vmwareInfrastructure.getNodesPerInstancesMapCopy().get("123").isEmpty(), is(false));
         assertThat(vmwareInfrastructure.getNodesPerInstancesMapCopy().get("123").size(), is(1));
         assertThat(vmwareInfrastructure.getNodesPerInstancesMapCopy().get("123").contains("nodename"), is(true));
 
     }
 
+    @Test
+    public void testRemoveNodeFindsTheInstanceOfARegisteredNode() throws ProActiveException, RMException {
+
+        when(nodeSource.getName()).thenReturn("Node source Name");
+        vmwareInfrastructure.nodeSource = nodeSource;
+        vmwareInfrastructure.configure("username",
+                                       "password",
+                                       "endpoint",
+                                       "test.activeeon.com",
+                                       "http://localhost:8088/connector-iaas",
+                                       "vmware-image",
+                                       "1",
+                                       "512",
+                                       "vmUsername",
+                                       "vmPassword",
+                                       "2",
+                                       "3",
+                                       "wget -nv test.activeeon.com/rest/node.jar",
+                                       "00:50:56:11:11:11",
+                                       "-Dnew=value");
+
+        vmwareInfrastructure.connectorIaasController = connectorIaasController;
+
+        when(node.getProperty(vmwareInfrastructure.getInstanceIdNodeProperty())).thenReturn("123");
+        when(node.getNodeInformation()).thenReturn(nodeInformation);
+        when(node.getProActiveRuntime()).thenReturn(proActiveRuntime);
+        when(nodeInformation.getName()).thenReturn("nodename");
+
+        vmwareInfrastructure.notifyAcquiredNode(node);
+        vmwareInfrastructure.removeNode(node);
+
+        // the instance of the registered node is found without asking the node again
+        verify(node, times(1)).getProperty(vmwareInfrastructure.getInstanceIdNodeProperty());
+        verify(connectorIaasController, timeout(10000)).terminateInstance("node_source_name", "123");
+        assertThat(vmwareInfrastructure.getNodesPerInstancesMapCopy().isEmpty(), is(true));
+
+    }
+
+    @Test
+    public void testDownNodesOfARecoveryAreAppliedDuringTheRecovery() throws RMException {
+        when(nodeSource.getName()).thenReturn("Node source Name");
+        vmwareInfrastructure.nodeSource = nodeSource;
+        vmwareInfrastructure.addNewNodesForInstance("123", Arrays.asList("123_0", "123_1"));
+
+        // down nodes are notified without node object during a recovery
+        vmwareInfrastructure.notifyDownNode("123_0", "pnp://123_0", null);
+        vmwareInfrastructure.notifyDownNode("123_1", "pnp://123_1", null);
+
+        // the bookkeeping is up to date, only its save waits for the end of the recovery
+        assertThat(vmwareInfrastructure.isNodesRecoveryInProgress(), is(true));
+        assertThat(vmwareInfrastructure.getNodesPerInstancesMap().isEmpty(), is(true));
+        assertThat(vmwareInfrastructure.getInstancesWithoutNodesMapCopy().get("123"), is(2));
+        assertThat(vmwareInfrastructure.isNodesRecoveryInProgress(), is(true));
+
+        vmwareInfrastructure.endNodesRecovery();
+
+        assertThat(vmwareInfrastructure.isNodesRecoveryInProgress(), is(false));
+        assertThat(vmwareInfrastructure.getNodesPerInstancesMap().isEmpty(), is(true));
+        assertThat(vmwareInfrastructure.getInstancesWithoutNodesMapCopy().get("123"), is(2));
+    }
+
+    @Test
+    public void testReadersWaitForAChangeAppliedDuringTheRecovery() throws Exception {
+        when(nodeSource.getName()).thenReturn("Node source Name");
+        vmwareInfrastructure.nodeSource = nodeSource;
+        vmwareInfrastructure.addNewNodesForInstance("123", Arrays.asList("123_0", "123_1"));
+        vmwareInfrastructure.startNodesRecovery();
+        CountDownLatch changeStarted = new CountDownLatch(1);
+        CountDownLatch changeReleased = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            executor.submit(() -> vmwareInfrastructure.updatePersistedInfraVariables(() -> {
+                vmwareInfrastructure.getNodesPerInstancesMap().get("123").remove("123_0");
+                changeStarted.countDown();
+                try {
+                    changeReleased.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+            assertThat(changeStarted.await(10, TimeUnit.SECONDS), is(true));
+
+            // the reader does not flush the bookkeeping, it waits for the change on the bookkeeping lock
+            Future<Set<String>> nodes = executor.submit(() -> new HashSet<>(vmwareInfrastructure.getNodesPerInstancesMap()
+                                                                                                .get("123")));
+            try {
+                nodes.get(200, TimeUnit.MILLISECONDS);
+                fail("The nodes were read while a change was applied");
+            } catch (TimeoutException e) {
+                // expected
+            }
+            changeReleased.countDown();
+
+            assertThat(nodes.get(10, TimeUnit.SECONDS), contains("123_1"));
+        } finally {
+            changeReleased.countDown();
+            executor.shutdownNow();
+            vmwareInfrastructure.endNodesRecovery();
+        }
+    }
+
+    @Test
+    public void testRecoveryEndsWhenADeploymentStarts() throws RMException {
+        when(nodeSource.getName()).thenReturn("Node source Name");
+        vmwareInfrastructure.nodeSource = nodeSource;
+        vmwareInfrastructure.addNewNodesForInstance("123", Arrays.asList("123_0", "123_1"));
+        vmwareInfrastructure.notifyDownNode("123_0", "pnp://123_0", null);
+
+        assertThat(vmwareInfrastructure.isNodesRecoveryInProgress(), is(true));
+
+        vmwareInfrastructure.expectInstancesAlreadyCreated(false, true);
+
+        assertThat(vmwareInfrastructure.isNodesRecoveryInProgress(), is(false));
+        assertThat(vmwareInfrastructure.getNodesPerInstancesMap().get("123"), contains("123_1"));
+    }
+
     @Test
     public void testGetDescription() {
         assertThat(vmwareInfrastructure.getDescription(), Matchers.startsWith("VMWareInfrastructure"));